@@ -0,0 +1,141 @@
+package com.antbrains.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.antbrains.crf.CrfModel;
+import com.antbrains.crf.FeatureDictEnum;
+import com.antbrains.crf.PrintTrainingProgress;
+import com.antbrains.crf.SgdCrf;
+import com.antbrains.crf.Template;
+import com.antbrains.crf.TrainingDataSet;
+import com.antbrains.crf.TrainingParams;
+import com.antbrains.crf.TrainingWeights;
+
+/**
+ * Fixture of the benchmarks: the sentences of data/people-daily.test, their words, and a CRF
+ * model trained on them. The model is trained the first time and saved, so later runs and the
+ * forks of JMH only load it. The paths and the iterations can be changed by system properties,
+ * pass them to the forks with -jvmArgs.
+ *
+ * @author lili
+ *
+ */
+public class BenchmarkData {
+  /** one char and its tag per line, sentences separated by empty lines */
+  public static final String DATA_PROPERTY = "bench.data";
+  public static final String MODEL_PROPERTY = "bench.model";
+  public static final String CONFIG_PROPERTY = "bench.config";
+  public static final String ITERATIONS_PROPERTY = "bench.iterations";
+
+  private static BenchmarkData instance;
+
+  public static synchronized BenchmarkData get() throws Exception {
+    if (instance == null) {
+      instance = new BenchmarkData(System.getProperty(DATA_PROPERTY, "data/people-daily.test"),
+          System.getProperty(MODEL_PROPERTY, "target/bench/crf.model"));
+    }
+    return instance;
+  }
+
+  private final List<String> sentences = new ArrayList<String>();
+  private final List<String[]> words = new ArrayList<String[]>();
+  private final List<String> dictWords;
+  private final CrfModel model;
+
+  private BenchmarkData(String dataFile, String modelFile) throws Exception {
+    Set<String> dict = new LinkedHashSet<String>();
+    BufferedReader br = null;
+    try {
+      br = new BufferedReader(new InputStreamReader(new FileInputStream(dataFile), "UTF8"));
+      StringBuilder sentence = new StringBuilder();
+      List<String> sentenceWords = new ArrayList<String>();
+      int wordStart = 0;
+      String line;
+      while ((line = br.readLine()) != null) {
+        line = line.trim();
+        if (line.length() == 0) {
+          if (sentence.length() > 0) {
+            sentences.add(sentence.toString());
+            words.add(sentenceWords.toArray(new String[0]));
+          }
+          sentence.setLength(0);
+          sentenceWords.clear();
+          wordStart = 0;
+          continue;
+        }
+        String[] arr = line.split("\t");
+        sentence.append(arr[0]);
+        if (arr[1].equals("E") || arr[1].equals("S")) {
+          String word = sentence.substring(wordStart);
+          sentenceWords.add(word);
+          if (word.length() > 1) {
+            dict.add(word);
+          }
+          wordStart = sentence.length();
+        }
+      }
+      if (sentence.length() > 0) {
+        sentences.add(sentence.toString());
+        words.add(sentenceWords.toArray(new String[0]));
+      }
+    } finally {
+      if (br != null) {
+        br.close();
+      }
+    }
+    dictWords = new ArrayList<String>(dict);
+
+    if (!new File(modelFile).exists()) {
+      train(dataFile, modelFile);
+    }
+    model = SgdCrf.loadModel(modelFile);
+  }
+
+  private static void train(String dataFile, String modelFile) throws IOException {
+    TrainingParams params = SgdCrf.loadParams(System.getProperty(CONFIG_PROPERTY,
+        "conf/crf_train.properties"));
+    params.setIterationNum(Integer.parseInt(System.getProperty(ITERATIONS_PROPERTY, "5")));
+    Template template = new Template(params.getTemplates().toArray(new String[0]));
+    TrainingWeights weights = new TrainingWeights(template, FeatureDictEnum.TROVE_HASHMAP);
+    TrainingDataSet dataSet = SgdCrf.readTrainingData(dataFile, "UTF8", weights,
+        params.getMinFeatureFreq());
+    SgdCrf.train(dataSet, 0, params.getIterationNum(), params, weights,
+        new PrintTrainingProgress());
+    File parent = new File(modelFile).getAbsoluteFile().getParentFile();
+    if (!parent.exists() && !parent.mkdirs()) {
+      throw new IOException("can't create " + parent);
+    }
+    SgdCrf.saveModel(params, weights, modelFile);
+  }
+
+  public List<String> getSentences() {
+    return Collections.unmodifiableList(sentences);
+  }
+
+  /**
+   * @return the words of each sentence, as given by the tags
+   */
+  public List<String[]> getWords() {
+    return Collections.unmodifiableList(words);
+  }
+
+  /**
+   * @return the words of 2 or more chars, as segmentation dictionary
+   */
+  public List<String> getDictWords() {
+    return Collections.unmodifiableList(dictWords);
+  }
+
+  public CrfModel getModel() {
+    return model;
+  }
+}
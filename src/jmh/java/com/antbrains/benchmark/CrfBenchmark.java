@@ -0,0 +1,99 @@
+package com.antbrains.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.antbrains.crf.BESB1B2MTagConvertor;
+import com.antbrains.crf.CrfModel;
+import com.antbrains.crf.Instance;
+import com.antbrains.crf.SgdCrf;
+import com.antbrains.crf.TagConvertor;
+import com.antbrains.crf.Template;
+import com.antbrains.crf.TrainingWeights;
+
+/**
+ * The CRF steps of tagging one sentence of {@link BenchmarkData} per operation: expanding the
+ * template into features, building the instance, Viterbi and 5-best decoding.
+ *
+ * @author lili
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CrfBenchmark {
+  private static final int N = 5;
+
+  private CrfModel model;
+  private final TagConvertor tc = new BESB1B2MTagConvertor();
+  private List<String[]> words;
+  private final List<List<String>> chars = new ArrayList<List<String>>();
+  private final List<Instance> instances = new ArrayList<Instance>();
+  private final double[] relativeScore = new double[N];
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    BenchmarkData data = BenchmarkData.get();
+    model = data.getModel();
+    words = data.getWords();
+    TrainingWeights weights = model.weights;
+    for (String[] tokens : words) {
+      List<String> attributes = new ArrayList<String>();
+      for (String token : tokens) {
+        for (int i = 0; i < token.length(); i++) {
+          attributes.add(token.substring(i, i + 1));
+        }
+      }
+      chars.add(attributes);
+      instances.add(SgdCrf.buildInstance(tokens, tc, weights.getAttributeDict(),
+          weights.getLabelDict(), weights.getTemplate(), false, false));
+    }
+  }
+
+  private int nextIndex() {
+    int index = next;
+    next = next + 1 == words.size() ? 0 : next + 1;
+    return index;
+  }
+
+  @Benchmark
+  public List<String> expandTemplate() {
+    List<String> attributes = chars.get(this.nextIndex());
+    Template template = model.weights.getTemplate();
+    return template.expandTemplate(attributes, attributes.size());
+  }
+
+  @Benchmark
+  public Instance buildInstance() {
+    TrainingWeights weights = model.weights;
+    return SgdCrf.buildInstance(words.get(this.nextIndex()), tc, weights.getAttributeDict(),
+        weights.getLabelDict(), weights.getTemplate(), false, false);
+  }
+
+  @Benchmark
+  public int[] tagId() {
+    return SgdCrf.tagId(instances.get(this.nextIndex()), model.weights);
+  }
+
+  @Benchmark
+  public List<String[]> tagNBest() {
+    return SgdCrf.tagNBest(instances.get(this.nextIndex()), N, relativeScore, model);
+  }
+}
@@ -0,0 +1,89 @@
+package com.antbrains.benchmark;
+
+import gnu.trove.iterator.TObjectIntIterator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.antbrains.crf.FeatureDict;
+import com.antbrains.crf.FeatureDictEnum;
+import com.antbrains.crf.FeatureIndex;
+import com.antbrains.crf.PerfectHashFeatureDict;
+import com.antbrains.crf.Template;
+import com.antbrains.crf.TrainingWeights;
+
+/**
+ * Looks up all features of one sentence of {@link BenchmarkData} per operation, in each
+ * {@link FeatureDictEnum} implementation filled with the features of the model, and in the read
+ * only {@link FeatureIndex} and {@link PerfectHashFeatureDict} built from it. The model was
+ * trained on the same sentences, so all lookups are hits.
+ *
+ * @author lili
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FeatureDictBenchmark {
+  @Param({ "TROVE_HASHMAP", "DOUBLE_ARRAY_TRIE", "COMPACT_TROVE_MAP", "FEATURE_INDEX",
+      "PERFECT_HASH" })
+  public String dictType;
+
+  private FeatureDict dict;
+  private final List<String[]> features = new ArrayList<String[]>();
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    BenchmarkData data = BenchmarkData.get();
+    TrainingWeights weights = data.getModel().weights;
+    Template template = weights.getTemplate();
+    if (dictType.equals("FEATURE_INDEX")) {
+      dict = FeatureIndex.build(weights.getAttributeDict());
+    } else if (dictType.equals("PERFECT_HASH")) {
+      dict = PerfectHashFeatureDict.build(weights.getAttributeDict());
+    } else {
+      dict = new TrainingWeights(template, FeatureDictEnum.valueOf(dictType)).getAttributeDict();
+      TObjectIntIterator<String> iter = weights.getAttributeDict().iterator();
+      while (iter.hasNext()) {
+        iter.advance();
+        dict.get(iter.key(), true);
+      }
+    }
+    for (String sentence : data.getSentences()) {
+      List<String> attributes = new ArrayList<String>(sentence.length());
+      for (int i = 0; i < sentence.length(); i++) {
+        attributes.add(sentence.substring(i, i + 1));
+      }
+      features.add(template.expandTemplate(attributes, attributes.size()).toArray(new String[0]));
+    }
+  }
+
+  @Benchmark
+  public int get() {
+    String[] sentenceFeatures = features.get(next);
+    next = next + 1 == features.size() ? 0 : next + 1;
+    int sum = 0;
+    for (String feature : sentenceFeatures) {
+      sum += dict.get(feature, false);
+    }
+    return sum;
+  }
+}
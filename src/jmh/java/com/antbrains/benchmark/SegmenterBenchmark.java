@@ -0,0 +1,72 @@
+package com.antbrains.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.antbrains.wordseg.ChineseSegmenter;
+import com.antbrains.wordseg.MMSeg;
+import com.antbrains.wordseg.RMMSeg;
+import com.antbrains.wordseg.Token;
+
+/**
+ * Segments the sentences of {@link BenchmarkData} one per operation, with a dictionary of their
+ * own words: the whole {@link ChineseSegmenter#seg} and the maximum matching it starts with.
+ *
+ * @author lili
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SegmenterBenchmark {
+  private List<String> sentences;
+  private ChineseSegmenter segmenter;
+  private MMSeg mmseg;
+  private RMMSeg rmmseg;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    BenchmarkData data = BenchmarkData.get();
+    sentences = data.getSentences();
+    segmenter = new ChineseSegmenter(data.getModel(), data.getDictWords());
+    mmseg = segmenter.getMmseg();
+    rmmseg = segmenter.getRmmseg();
+  }
+
+  private String nextSentence() {
+    String sentence = sentences.get(next);
+    next = next + 1 == sentences.size() ? 0 : next + 1;
+    return sentence;
+  }
+
+  @Benchmark
+  public List<Token> seg() {
+    return segmenter.seg(this.nextSentence());
+  }
+
+  @Benchmark
+  public List<Token> mmseg() {
+    return mmseg.seg(this.nextSentence());
+  }
+
+  @Benchmark
+  public List<Token> rmmseg() {
+    return rmmseg.seg(this.nextSentence());
+  }
+}
@@ -0,0 +1,22 @@
+package com.antbrains.crf;
+
+/**
+ * Read access to the attribute weights of a model: one row of labelNum weights per attribute.
+ * Tagging only reads weights through this interface, so they don't have to live in a double[]
+ * on the heap, see {@link MappedCrfModel}.
+ *
+ * @author lili
+ *
+ */
+public interface AttributeWeights {
+  public int getLabelNum();
+
+  public int getAttributeNum();
+
+  public double get(int attributeIndex, int labelIndex);
+
+  /**
+   * adds the weights of attributeIndex to scores[offset, offset+labelNum)
+   */
+  public void addTo(int attributeIndex, double[] scores, int offset);
+}
@@ -0,0 +1,15 @@
+package com.antbrains.crf;
+
+/**
+ * Read only {@link FeatureDict} that can look features up straight from a char buffer filled by
+ * {@link CompiledTemplate}, so {@link CrfDecoder} tags without creating Strings.
+ *
+ * @author lili
+ *
+ */
+public interface CompiledFeatureDict extends FeatureDict {
+  /**
+   * @return id of the feature key[0, length), or -1 if it doesn't exist
+   */
+  public int get(char[] key, int length);
+}
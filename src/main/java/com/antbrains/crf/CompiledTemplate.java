@@ -0,0 +1,139 @@
+package com.antbrains.crf;
+
+/**
+ * {@link Template} patterns parsed once into small programs, so that a feature can be written
+ * into a char buffer without parsing the pattern or building any String.
+ * <p>
+ * Only the character column (%x[row,0]) is supported, which is what the segmentation templates
+ * use. The expanded chars are exactly the ones {@link Template#expandTemplate} would produce, so
+ * the feature ids found by {@link FeatureIndex} are the same as the ids of the String features.
+ *
+ * @author lili
+ *
+ */
+public class CompiledTemplate implements java.io.Serializable {
+  private static final long serialVersionUID = -3349571204356213856L;
+
+  // an op is either a literal char (< LITERAL_LIMIT) or LITERAL_LIMIT + ROW_BIAS + row
+  private static final int LITERAL_LIMIT = 1 << 16;
+  private static final int ROW_BIAS = 1 << 15;
+
+  private int[][] programs;
+  private int maxFeatureLength;
+
+  public CompiledTemplate(Template template) {
+    String[] patterns = template.getPatterns();
+    programs = new int[patterns.length][];
+    for (int i = 0; i < patterns.length; i++) {
+      programs[i] = compile(patterns[i]);
+      int length = 0;
+      for (int op : programs[i]) {
+        length += op < LITERAL_LIMIT ? 1 : maxBoundaryLength();
+      }
+      maxFeatureLength = Math.max(maxFeatureLength, length);
+    }
+  }
+
+  private static int maxBoundaryLength() {
+    int length = 1;
+    for (String s : Template.BOS) {
+      length = Math.max(length, s.length());
+    }
+    for (String s : Template.EOS) {
+      length = Math.max(length, s.length());
+    }
+    return length;
+  }
+
+  private static int[] compile(String pattern) {
+    int[] program = new int[pattern.length()];
+    int size = 0;
+    for (int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      if (c != '%') {
+        program[size++] = c;
+        continue;
+      }
+      i++;
+      if (i >= pattern.length() || pattern.charAt(i) != 'x') {
+        throw new IllegalStateException("template error: " + pattern);
+      }
+      i++;
+      if (i >= pattern.length() || pattern.charAt(i++) != '[') {
+        throw new IllegalStateException("template error: " + pattern);
+      }
+      int neg = 1;
+      if (i < pattern.length() && pattern.charAt(i) == '-') {
+        neg = -1;
+        i++;
+      }
+      int row = 0;
+      for (; i < pattern.length() && pattern.charAt(i) != ','; i++) {
+        row = row * 10 + digit(pattern, i);
+      }
+      i++;
+      int col = 0;
+      for (; i < pattern.length() && pattern.charAt(i) != ']'; i++) {
+        col = col * 10 + digit(pattern, i);
+      }
+      if (col != 0) {
+        throw new IllegalStateException("only column 0 can be compiled: " + pattern);
+      }
+      program[size++] = LITERAL_LIMIT + ROW_BIAS + row * neg;
+    }
+    int[] result = new int[size];
+    System.arraycopy(program, 0, result, 0, size);
+    return result;
+  }
+
+  private static int digit(String pattern, int i) {
+    char c = pattern.charAt(i);
+    if (c < '0' || c > '9') {
+      throw new IllegalStateException("template error: " + pattern);
+    }
+    return c - '0';
+  }
+
+  public int size() {
+    return programs.length;
+  }
+
+  /**
+   * @return upper bound of the length of any expanded feature, the size buf needs in
+   *         {@link #expand}
+   */
+  public int getMaxFeatureLength() {
+    return maxFeatureLength;
+  }
+
+  /**
+   * writes the feature of pattern patternIndex at item itemIndex of text[start, start+itemNum)
+   * into buf
+   *
+   * @return length of the feature
+   */
+  public int expand(int patternIndex, int itemIndex, char[] text, int start, int itemNum,
+      char[] buf) {
+    int length = 0;
+    for (int op : programs[patternIndex]) {
+      if (op < LITERAL_LIMIT) {
+        buf[length++] = (char) op;
+        continue;
+      }
+      int idx = itemIndex + op - LITERAL_LIMIT - ROW_BIAS;
+      if (idx < 0) {
+        length = append(Template.BOS[-idx - 1], buf, length);
+      } else if (idx >= itemNum) {
+        length = append(Template.EOS[idx - itemNum], buf, length);
+      } else {
+        buf[length++] = text[start + idx];
+      }
+    }
+    return length;
+  }
+
+  private static int append(String s, char[] buf, int length) {
+    s.getChars(0, s.length(), buf, length);
+    return length + s.length();
+  }
+}
@@ -0,0 +1,343 @@
+package com.antbrains.crf;
+
+import java.util.Arrays;
+
+/**
+ * Viterbi decoder that can be reused across sentences. All scratch buffers are owned by the
+ * decoder and only grow, so once they are large enough for the longest sentence seen,
+ * decoding does not allocate arrays any more.
+ * <p>
+ * If the attribute dict of the model is a {@link CompiledFeatureDict}, such as
+ * {@link FeatureIndex} or {@link PerfectHashFeatureDict}, features are written into a
+ * char buffer by a {@link CompiledTemplate} and looked up without creating any String, otherwise
+ * each feature is expanded to a String and looked up in the {@link FeatureDict}. Both give the
+ * same ids.
+ * <p>
+ * The model is only read, so many decoders can share one {@link CrfModel}, but a decoder itself
+ * is not thread safe: keep one instance per thread.
+ *
+ * @author lili
+ *
+ */
+public class CrfDecoder {
+  private final TrainingWeights weights;
+  private final AttributeWeights attributeWeights;
+  private final Template template;
+  private final FeatureDict attributeDict;
+  private final int labelNum;
+  private final CompiledFeatureDict compiledDict;
+  private final CompiledTemplate compiledTemplate;
+
+  private final CharItems items = new CharItems();
+  private final StringBuilder featureBuffer = new StringBuilder();
+  private final char[] keyBuffer;
+
+  private char[] text = new char[0];
+  private int[] attrIds = new int[0];
+  private double[] stateScores = new double[0];
+  private double[] bestScores = new double[0];
+  private int[] bestBackIndexes = new int[0];
+
+  public CrfDecoder(CrfModel model) {
+    this(model.weights);
+  }
+
+  public CrfDecoder(TrainingWeights weights) {
+    this.weights = weights;
+    this.attributeWeights = weights.getAttributeWeightTable();
+    this.template = weights.getTemplate();
+    this.attributeDict = weights.getAttributeDict();
+    this.labelNum = weights.getLabelTexts().length;
+    if (attributeDict instanceof CompiledFeatureDict) {
+      this.compiledDict = (CompiledFeatureDict) attributeDict;
+      this.compiledTemplate = new CompiledTemplate(template);
+      this.keyBuffer = new char[compiledTemplate.getMaxFeatureLength()];
+    } else {
+      this.compiledDict = null;
+      this.compiledTemplate = null;
+      this.keyBuffer = null;
+    }
+  }
+
+  public int getLabelNum() {
+    return labelNum;
+  }
+
+  /**
+   * tags sentence[start, end) one character per item.
+   *
+   * @param tagIds
+   *          receives the best tag id of each character, must hold at least end-start ids
+   * @return number of tagged items
+   */
+  public int decode(CharSequence sentence, int start, int end, int[] tagIds) {
+    if (start > end) {
+      throw new IndexOutOfBoundsException("start(" + start + ") > end(" + end + ")");
+    }
+    int length = copyText(sentence, start, end);
+    return decode(text, 0, length, tagIds);
+  }
+
+  private int copyText(CharSequence sentence, int start, int end) {
+    int length = end - start;
+    if (text.length < length) {
+      text = new char[Math.max(length, text.length * 2)];
+    }
+    if (sentence instanceof String) {
+      ((String) sentence).getChars(start, end, text, 0);
+    } else {
+      for (int i = 0; i < length; i++) {
+        text[i] = sentence.charAt(start + i);
+      }
+    }
+    return length;
+  }
+
+  /**
+   * same as {@link #decode(CharSequence, int, int, int[])} but reads from a char array
+   */
+  public int decode(char[] sentence, int start, int end, int[] tagIds) {
+    if (start > end) {
+      throw new IndexOutOfBoundsException("start(" + start + ") > end(" + end + ")");
+    }
+    int itemNum = end - start;
+    checkCapacity(tagIds, itemNum);
+    if (itemNum == 0) {
+      return 0;
+    }
+    computeStateScores(sentence, start, itemNum);
+    viterbi(itemNum, tagIds);
+    return itemNum;
+  }
+
+  /**
+   * score of labeling sentence[start, end) with tagIds, the same value as
+   * {@link SgdCrf#getScore(TrainingWeights, Instance)} for the instance of these characters and
+   * labels
+   */
+  public double getScore(CharSequence sentence, int start, int end, int[] tagIds) {
+    if (start > end) {
+      throw new IndexOutOfBoundsException("start(" + start + ") > end(" + end + ")");
+    }
+    int itemNum = copyText(sentence, start, end);
+    checkCapacity(tagIds, itemNum);
+    if (itemNum == 0) {
+      throw new IllegalArgumentException("can't score an empty sentence");
+    }
+    computeStateScores(text, 0, itemNum);
+    return getPathScore(itemNum, tagIds);
+  }
+
+  /**
+   * scores several labelings of the same characters sentence[start, end). Features and state
+   * scores are computed only once and shared by all candidates, scores[i] is the same value
+   * {@link #getScore(CharSequence, int, int, int[])} gives for candidateTagIds[i].
+   *
+   * @param scores
+   *          receives the scores, must hold at least candidateTagIds.length scores
+   */
+  public void getScores(CharSequence sentence, int start, int end, int[][] candidateTagIds,
+      double[] scores) {
+    if (start > end) {
+      throw new IndexOutOfBoundsException("start(" + start + ") > end(" + end + ")");
+    }
+    if (scores.length < candidateTagIds.length) {
+      throw new IllegalArgumentException("scores.length(" + scores.length + ") < candidates("
+          + candidateTagIds.length + ")");
+    }
+    int itemNum = copyText(sentence, start, end);
+    for (int[] tagIds : candidateTagIds) {
+      checkCapacity(tagIds, itemNum);
+    }
+    if (itemNum == 0) {
+      throw new IllegalArgumentException("can't score an empty sentence");
+    }
+    computeStateScores(text, 0, itemNum);
+    for (int i = 0; i < candidateTagIds.length; i++) {
+      scores[i] = getPathScore(itemNum, candidateTagIds[i]);
+    }
+  }
+
+  /**
+   * state scores of sentence[start, end), the score of label l at item i is
+   * scores[i * getLabelNum() + l]. The array is a buffer of the decoder, it is overwritten by the
+   * next call.
+   */
+  public double[] getStateScores(CharSequence sentence, int start, int end) {
+    if (start > end) {
+      throw new IndexOutOfBoundsException("start(" + start + ") > end(" + end + ")");
+    }
+    int itemNum = copyText(sentence, start, end);
+    if (itemNum > 0) {
+      computeStateScores(text, 0, itemNum);
+    }
+    return stateScores;
+  }
+
+  private double getPathScore(int itemNum, int[] tagIds) {
+    double[] stateScores = this.stateScores;
+    double[] transitionWeights = weights.getTransitionWeights();
+    int labelIndex = tagIds[0];
+    double score = weights.getBosTransitionWeights()[labelIndex] + stateScores[labelIndex];
+    for (int i = 1; i < itemNum; i++) {
+      score += (transitionWeights[tagIds[i - 1] * labelNum + tagIds[i]] + stateScores[i
+          * labelNum + tagIds[i]]);
+    }
+    score += weights.getEosTransitionWeights()[tagIds[itemNum - 1]];
+    return score;
+  }
+
+  private void computeStateScores(char[] sentence, int start, int itemNum) {
+    int rowSize = template.length();
+    ensureCapacity(itemNum, itemNum * rowSize);
+    if (compiledDict != null) {
+      for (int itemIndex = 0, attrIndex = 0; itemIndex < itemNum; itemIndex++) {
+        for (int patternIndex = 0; patternIndex < rowSize; patternIndex++) {
+          int length = compiledTemplate.expand(patternIndex, itemIndex, sentence, start, itemNum,
+              keyBuffer);
+          attrIds[attrIndex++] = compiledDict.get(keyBuffer, length);
+        }
+      }
+    } else {
+      items.reset(sentence, start, start + itemNum);
+      for (int itemIndex = 0, attrIndex = 0; itemIndex < itemNum; itemIndex++) {
+        for (int patternIndex = 0; patternIndex < rowSize; patternIndex++) {
+          featureBuffer.setLength(0);
+          template.expandPattern(patternIndex, itemIndex, items, featureBuffer);
+          attrIds[attrIndex++] = attributeDict.get(featureBuffer.toString(), false);
+        }
+      }
+      items.reset(null, 0, 0);
+    }
+    computeStateScores(attrIds, itemNum, rowSize);
+  }
+
+  /**
+   * tags an instance whose features are already looked up, e.g. one built by
+   * {@link SgdCrf#buildInstance}
+   *
+   * @return number of tagged items
+   */
+  public int decode(Instance instance, int[] tagIds) {
+    int itemNum = instance.length();
+    checkCapacity(tagIds, itemNum);
+    if (itemNum == 0) {
+      return 0;
+    }
+    ensureCapacity(itemNum, 0);
+    computeStateScores(instance.getAttrIds(), itemNum, instance.rowSize());
+    viterbi(itemNum, tagIds);
+    return itemNum;
+  }
+
+  private void checkCapacity(int[] tagIds, int itemNum) {
+    if (tagIds.length < itemNum) {
+      throw new IllegalArgumentException("tagIds.length(" + tagIds.length + ") < items("
+          + itemNum + ")");
+    }
+  }
+
+  private void ensureCapacity(int itemNum, int attrNum) {
+    if (attrIds.length < attrNum) {
+      attrIds = new int[Math.max(attrNum, attrIds.length * 2)];
+    }
+    int scoreNum = itemNum * labelNum;
+    if (stateScores.length < scoreNum) {
+      scoreNum = Math.max(scoreNum, stateScores.length * 2);
+      stateScores = new double[scoreNum];
+      bestScores = new double[scoreNum];
+      bestBackIndexes = new int[scoreNum];
+    }
+  }
+
+  private void computeStateScores(int[] attrIds, int itemNum, int rowSize) {
+    AttributeWeights attributeWeights = this.attributeWeights;
+    double[] stateScores = this.stateScores;
+    Arrays.fill(stateScores, 0, itemNum * labelNum, 0);
+    for (int itemIndex = 0; itemIndex < itemNum; itemIndex++) {
+      int itemMulIndex = itemIndex * labelNum;
+      for (int i = 0; i < rowSize; i++) {
+        int attributeIndex = attrIds[itemIndex * rowSize + i];
+        if (attributeIndex >= 0) {
+          attributeWeights.addTo(attributeIndex, stateScores, itemMulIndex);
+        }
+      }
+    }
+  }
+
+  // same search and tie breaking as SgdCrf.tagId
+  private void viterbi(int itemNum, int[] tagIndexes) {
+    double[] stateScores = this.stateScores;
+    double[] bestScores = this.bestScores;
+    int[] bestBackIndexes = this.bestBackIndexes;
+    double[] bosTransitionWeights = weights.getBosTransitionWeights();
+    double[] transitionWeights = weights.getTransitionWeights();
+    double[] eosTransitionWeights = weights.getEosTransitionWeights();
+    for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
+      bestScores[labelIndex] = bosTransitionWeights[labelIndex] + stateScores[labelIndex];
+    }
+
+    for (int itemIndex = 1, itemMulIndex = labelNum; itemIndex < itemNum; itemIndex++, itemMulIndex += labelNum) {
+      for (int toLabelIndex = 0; toLabelIndex < labelNum; toLabelIndex++) {
+        double maxScore = bestScores[itemMulIndex - labelNum] + transitionWeights[toLabelIndex];
+        int maxFromLabelIndex = 0;
+        for (int fromLabelIndex = 1, fromLabelMulIndex = labelNum; fromLabelIndex < labelNum; fromLabelIndex++, fromLabelMulIndex += labelNum) {
+          double score = bestScores[itemMulIndex - labelNum + fromLabelIndex]
+              + transitionWeights[fromLabelMulIndex + toLabelIndex];
+          if (score > maxScore) {
+            maxScore = score;
+            maxFromLabelIndex = fromLabelIndex;
+          }
+        }
+        bestScores[itemMulIndex + toLabelIndex] = maxScore
+            + stateScores[itemMulIndex + toLabelIndex];
+        bestBackIndexes[itemMulIndex + toLabelIndex] = maxFromLabelIndex;
+      }
+    }
+
+    int itemMulIndex = (itemNum - 1) * labelNum;
+    double maxScore = bestScores[itemMulIndex] + eosTransitionWeights[0];
+    int maxFromLabelIndex = 0;
+    for (int labelIndex = 1; labelIndex < labelNum; labelIndex++) {
+      double score = bestScores[itemMulIndex + labelIndex] + eosTransitionWeights[labelIndex];
+      if (score > maxScore) {
+        maxScore = score;
+        maxFromLabelIndex = labelIndex;
+      }
+    }
+    tagIndexes[itemNum - 1] = maxFromLabelIndex;
+
+    for (int itemIndex = itemNum - 2; itemIndex >= 0; itemIndex--, itemMulIndex -= labelNum) {
+      maxFromLabelIndex = bestBackIndexes[itemMulIndex + maxFromLabelIndex];
+      tagIndexes[itemIndex] = maxFromLabelIndex;
+    }
+  }
+
+  /**
+   * one item per character of the decoded range, the only column is the character itself
+   */
+  private static class CharItems implements Template.Items {
+    private char[] chars;
+    private int start;
+    private int length;
+
+    void reset(char[] chars, int start, int end) {
+      this.chars = chars;
+      this.start = start;
+      this.length = end - start;
+    }
+
+    @Override
+    public int size() {
+      return length;
+    }
+
+    @Override
+    public void append(StringBuilder sb, int itemIndex, int column) {
+      if (column != 0) {
+        throw new IllegalStateException("character items only have column 0: " + column);
+      }
+      sb.append(chars[start + itemIndex]);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package com.antbrains.crf;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Writes one CSV line per epoch, after a header line. The writer is flushed after each line but
+ * not closed. The calls of {@link TrainingProgress} are passed on to a delegate, which may be
+ * another {@link TrainingMetricsListener}.
+ *
+ * @author lili
+ *
+ */
+public class CsvTrainingMetrics implements TrainingMetricsListener {
+  public static final String HEADER = "epoch,instances,items,elapsed_ms,instances_per_sec,"
+      + "log_likelihood,weight_norm,eta,decay,proj,state_score_ms,forward_ms,backward_ms,"
+      + "update_ms,validate_accuracy";
+
+  private final Writer writer;
+  private final TrainingProgress delegate;
+
+  /**
+   * @param delegate
+   *          may be null
+   */
+  public CsvTrainingMetrics(Writer writer, TrainingProgress delegate) {
+    this.writer = writer;
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void startTraining() {
+    this.writeLine(HEADER);
+    if (delegate != null) {
+      delegate.startTraining();
+    }
+  }
+
+  @Override
+  public void doIter(int iter) {
+    if (delegate != null) {
+      delegate.doIter(iter);
+    }
+  }
+
+  @Override
+  public void doValidate(String s) {
+    if (delegate != null) {
+      delegate.doValidate(s);
+    }
+  }
+
+  @Override
+  public void doEpoch(EpochMetrics m) {
+    this.writeLine(String.format(Locale.ROOT, "%d,%d,%d,%d,%.2f,%.6f,%.6f,%.6g,%.6g,%.6g,%d,%d,"
+        + "%d,%d,%.6f", m.getEpoch(), m.getInstanceNum(), m.getItemNum(),
+        m.getElapsedNanos() / 1000000, m.getInstancesPerSecond(), m.getLogLikelihood(),
+        m.getWeightNorm(), m.getEta(), m.getDecay(), m.getProj(),
+        m.getStateScoreNanos() / 1000000, m.getForwardNanos() / 1000000,
+        m.getBackwardNanos() / 1000000, m.getUpdateNanos() / 1000000, m.getValidateAccuracy()));
+    if (delegate instanceof TrainingMetricsListener) {
+      ((TrainingMetricsListener) delegate).doEpoch(m);
+    }
+  }
+
+  @Override
+  public void finishTraining() {
+    if (delegate != null) {
+      delegate.finishTraining();
+    }
+  }
+
+  // TrainingProgress can't throw, a broken metrics file must not stop the training
+  private void writeLine(String line) {
+    try {
+      writer.write(line);
+      writer.write('\n');
+      writer.flush();
+    } catch (IOException e) {
+      System.err.println("can't write training metrics: " + e);
+    }
+  }
+}
@@ -2,6 +2,9 @@ package com.antbrains.crf;
 
 import gnu.trove.iterator.TObjectIntIterator;
 
+import java.util.Arrays;
+import java.util.List;
+
 import com.antbrains.datrie.DatrieIterator;
 import com.antbrains.datrie.DoubleArrayTrie;
 
@@ -29,6 +32,41 @@ public class DATrieFeatureDict implements FeatureDict {
     datrie.setMultiply(1.5);
   }
 
+  /**
+   * builds a read only dict of sorted features in one pass, instead of inserting them one by one
+   * and growing the arrays, see {@link StaticDoubleArrayTrie}
+   *
+   * @param sortedFeatures
+   *          distinct features in String order
+   * @param ids
+   *          id of each feature, >= 0
+   */
+  public static StaticTrieFeatureDict build(List<String> sortedFeatures, int[] ids) {
+    return new StaticTrieFeatureDict(StaticDoubleArrayTrie.build(sortedFeatures, ids));
+  }
+
+  /**
+   * builds a read only dict with the features and ids of dict
+   */
+  public static StaticTrieFeatureDict build(FeatureDict dict) {
+    String[] features = new String[dict.size()];
+    TObjectIntIterator<String> iter = dict.iterator();
+    int i = 0;
+    while (iter.hasNext()) {
+      iter.advance();
+      features[i++] = iter.key();
+    }
+    if (i != features.length) {
+      throw new IllegalStateException("dict size(" + features.length + ") != entries(" + i + ")");
+    }
+    Arrays.sort(features);
+    int[] ids = new int[features.length];
+    for (i = 0; i < features.length; i++) {
+      ids[i] = dict.get(features[i], false);
+    }
+    return build(Arrays.asList(features), ids);
+  }
+
   @Override
   public int size() {
     return datrie.size();
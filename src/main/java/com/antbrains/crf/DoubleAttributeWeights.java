@@ -0,0 +1,40 @@
+package com.antbrains.crf;
+
+/**
+ * {@link AttributeWeights} view of the double[] trained by {@link SgdCrf}
+ *
+ * @author lili
+ *
+ */
+public class DoubleAttributeWeights implements AttributeWeights {
+  private final double[] weights;
+  private final int labelNum;
+
+  public DoubleAttributeWeights(double[] weights, int labelNum) {
+    this.weights = weights;
+    this.labelNum = labelNum;
+  }
+
+  @Override
+  public int getLabelNum() {
+    return labelNum;
+  }
+
+  @Override
+  public int getAttributeNum() {
+    return weights.length / labelNum;
+  }
+
+  @Override
+  public double get(int attributeIndex, int labelIndex) {
+    return weights[attributeIndex * labelNum + labelIndex];
+  }
+
+  @Override
+  public void addTo(int attributeIndex, double[] scores, int offset) {
+    int weightIndex = attributeIndex * labelNum;
+    for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
+      scores[offset + labelIndex] += weights[weightIndex + labelIndex];
+    }
+  }
+}
@@ -0,0 +1,159 @@
+package com.antbrains.crf;
+
+/**
+ * What one epoch of SgdCrf.train did, see {@link TrainingMetricsListener}. With several training
+ * threads the phase times are summed over the threads, so they can add up to more than the
+ * elapsed time.
+ *
+ * @author lili
+ *
+ */
+public class EpochMetrics {
+  private final int epoch;
+  private final int iterationNum;
+  private final int instanceNum;
+  private final long itemNum;
+  private final long elapsedNanos;
+  private final double logLikelihood;
+  private final double weightNorm;
+  private final double eta;
+  private final double decay;
+  private final double proj;
+  private final long stateScoreNanos;
+  private final long forwardNanos;
+  private final long backwardNanos;
+  private final long updateNanos;
+  private final double validateAccuracy;
+
+  EpochMetrics(int epoch, int iterationNum, int instanceNum, long itemNum, long elapsedNanos,
+      double logLikelihood, double weightNorm, double eta, double decay, double proj,
+      long stateScoreNanos, long forwardNanos, long backwardNanos, long updateNanos,
+      double validateAccuracy) {
+    this.epoch = epoch;
+    this.iterationNum = iterationNum;
+    this.instanceNum = instanceNum;
+    this.itemNum = itemNum;
+    this.elapsedNanos = elapsedNanos;
+    this.logLikelihood = logLikelihood;
+    this.weightNorm = weightNorm;
+    this.eta = eta;
+    this.decay = decay;
+    this.proj = proj;
+    this.stateScoreNanos = stateScoreNanos;
+    this.forwardNanos = forwardNanos;
+    this.backwardNanos = backwardNanos;
+    this.updateNanos = updateNanos;
+    this.validateAccuracy = validateAccuracy;
+  }
+
+  /**
+   * @return the epoch, starting from 1
+   */
+  public int getEpoch() {
+    return epoch;
+  }
+
+  public int getIterationNum() {
+    return iterationNum;
+  }
+
+  /**
+   * @return training instances of the epoch
+   */
+  public int getInstanceNum() {
+    return instanceNum;
+  }
+
+  /**
+   * @return characters (items) of the training instances
+   */
+  public long getItemNum() {
+    return itemNum;
+  }
+
+  /**
+   * @return time of the epoch, including the weight rescaling and the validation
+   */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  public double getInstancesPerSecond() {
+    return elapsedNanos == 0 ? 0 : instanceNum * 1e9 / elapsedNanos;
+  }
+
+  /**
+   * @return sum of log P(y|x) of the training instances, each one computed with the weights
+   *         before its own update
+   */
+  public double getLogLikelihood() {
+    return logLikelihood;
+  }
+
+  /**
+   * @return L2 norm of all weights at the end of the epoch
+   */
+  public double getWeightNorm() {
+    return weightNorm;
+  }
+
+  /**
+   * @return learning rate of the last update of the epoch
+   */
+  public double getEta() {
+    return eta;
+  }
+
+  /**
+   * @return the weight decay factor accumulated since the last rescaling of the weights
+   */
+  public double getDecay() {
+    return decay;
+  }
+
+  /**
+   * @return the L2 ball projection factor
+   */
+  public double getProj() {
+    return proj;
+  }
+
+  /**
+   * @return time of computing the state scores
+   */
+  public long getStateScoreNanos() {
+    return stateScoreNanos;
+  }
+
+  public long getForwardNanos() {
+    return forwardNanos;
+  }
+
+  public long getBackwardNanos() {
+    return backwardNanos;
+  }
+
+  /**
+   * @return time of updating the weights
+   */
+  public long getUpdateNanos() {
+    return updateNanos;
+  }
+
+  /**
+   * @return item accuracy on the validation instances, NaN if there are none
+   */
+  public double getValidateAccuracy() {
+    return validateAccuracy;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("epoch %d/%d: %d instances in %dms (%.1f/s), log-likelihood %.4f, "
+        + "weight norm %.4f, eta %.4g, decay %.4g, proj %.4g, state %dms, forward %dms, "
+        + "backward %dms, update %dms, validate accuracy %.4f", epoch, iterationNum,
+        instanceNum, elapsedNanos / 1000000, this.getInstancesPerSecond(), logLikelihood,
+        weightNorm, eta, decay, proj, stateScoreNanos / 1000000, forwardNanos / 1000000,
+        backwardNanos / 1000000, updateNanos / 1000000, validateAccuracy);
+  }
+}
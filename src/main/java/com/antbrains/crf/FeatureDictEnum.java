@@ -1,5 +1,5 @@
 package com.antbrains.crf;
 
 public enum FeatureDictEnum {
-  TROVE_HASHMAP, DOUBLE_ARRAY_TRIE, COMPACT_TROVE_MAP
+  TROVE_HASHMAP, DOUBLE_ARRAY_TRIE, COMPACT_TROVE_MAP, OFF_HEAP_HASHMAP
 }
@@ -0,0 +1,278 @@
+package com.antbrains.crf;
+
+import gnu.trove.iterator.TObjectIntIterator;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Read only {@link FeatureDict} stored in flat primitive arrays: all feature chars are pooled in
+ * one char[] and an open addressing table maps String.hashCode() compatible hashes to entries.
+ * Besides {@link #get(String, boolean)} it can look features up straight from a char buffer, see
+ * {@link CompiledTemplate}.
+ * <p>
+ * It is built from an existing dict and keeps its ids, so a trained model can switch to it
+ * without any change of the weights. The tables are kept in nio buffers, which wrap arrays after
+ * {@link #build(FeatureDict)} or deserialization, and point into the model file when loaded by
+ * {@link MappedCrfModel}.
+ *
+ * @author lili
+ *
+ */
+public class FeatureIndex implements CompiledFeatureDict {
+  private static final long serialVersionUID = 2316958741350125386L;
+
+  private transient IntBuffer slots; // entry of each slot, -1 if empty
+  private transient IntBuffer hashes; // hash of each entry
+  private transient IntBuffer ids; // feature id of each entry
+  private transient IntBuffer keyStarts; // entry i is keyChars[keyStarts[i], keyStarts[i+1])
+  private transient CharBuffer keyChars;
+  private transient int shift;
+
+  FeatureIndex(IntBuffer slots, IntBuffer hashes, IntBuffer ids, IntBuffer keyStarts,
+      CharBuffer keyChars) {
+    init(slots, hashes, ids, keyStarts, keyChars);
+  }
+
+  private void init(IntBuffer slots, IntBuffer hashes, IntBuffer ids, IntBuffer keyStarts,
+      CharBuffer keyChars) {
+    int capacity = slots.capacity();
+    if (Integer.bitCount(capacity) != 1 || capacity <= ids.capacity()
+        || hashes.capacity() != ids.capacity() || keyStarts.capacity() != ids.capacity() + 1) {
+      throw new IllegalStateException("corrupted feature index: slots=" + capacity
+          + ", entries=" + ids.capacity());
+    }
+    this.slots = slots;
+    this.hashes = hashes;
+    this.ids = ids;
+    this.keyStarts = keyStarts;
+    this.keyChars = keyChars;
+    this.shift = 32 - Integer.numberOfTrailingZeros(capacity);
+  }
+
+  public static FeatureIndex build(FeatureDict dict) {
+    int size = dict.size();
+    int[] hashes = new int[size];
+    int[] ids = new int[size];
+    int[] keyStarts = new int[size + 1];
+    char[] keyChars = new char[Math.max(16, size * 8)];
+    TObjectIntIterator<String> iter = dict.iterator();
+    int entry = 0;
+    while (iter.hasNext()) {
+      iter.advance();
+      String key = iter.key();
+      int start = keyStarts[entry];
+      if (start + key.length() > keyChars.length) {
+        char[] newChars = new char[Math.max(start + key.length(), keyChars.length * 2)];
+        System.arraycopy(keyChars, 0, newChars, 0, start);
+        keyChars = newChars;
+      }
+      key.getChars(0, key.length(), keyChars, start);
+      keyStarts[entry + 1] = start + key.length();
+      hashes[entry] = key.hashCode();
+      ids[entry] = iter.value();
+      entry++;
+    }
+    if (entry != size) {
+      throw new IllegalStateException("dict size(" + size + ") != entries(" + entry + ")");
+    }
+    char[] trimmed = new char[keyStarts[size]];
+    System.arraycopy(keyChars, 0, trimmed, 0, trimmed.length);
+
+    int capacity = 2;
+    while (capacity < size * 2) {
+      capacity <<= 1;
+    }
+    int[] slots = new int[capacity];
+    Arrays.fill(slots, -1);
+    FeatureIndex index = new FeatureIndex(IntBuffer.wrap(slots), IntBuffer.wrap(hashes),
+        IntBuffer.wrap(ids), IntBuffer.wrap(keyStarts), CharBuffer.wrap(trimmed));
+    int mask = capacity - 1;
+    for (int i = 0; i < size; i++) {
+      int slot = index.slot(hashes[i]);
+      while (slots[slot] >= 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = i;
+    }
+    return index;
+  }
+
+  IntBuffer getSlots() {
+    return slots.duplicate();
+  }
+
+  IntBuffer getHashes() {
+    return hashes.duplicate();
+  }
+
+  IntBuffer getIds() {
+    return ids.duplicate();
+  }
+
+  IntBuffer getKeyStarts() {
+    return keyStarts.duplicate();
+  }
+
+  CharBuffer getKeyChars() {
+    return keyChars.duplicate();
+  }
+
+  /**
+   * same value as new String(key, 0, length).hashCode()
+   */
+  public static int hash(char[] key, int length) {
+    int h = 0;
+    for (int i = 0; i < length; i++) {
+      h = 31 * h + key[i];
+    }
+    return h;
+  }
+
+  private int slot(int hash) {
+    return (hash * 0x9E3779B9) >>> shift;
+  }
+
+  @Override
+  public int get(char[] key, int length) {
+    int hash = hash(key, length);
+    int mask = slots.capacity() - 1;
+    for (int slot = slot(hash);; slot = (slot + 1) & mask) {
+      int entry = slots.get(slot);
+      if (entry < 0) {
+        return -1;
+      }
+      if (hashes.get(entry) == hash && keyEquals(entry, key, length)) {
+        return ids.get(entry);
+      }
+    }
+  }
+
+  private boolean keyEquals(int entry, char[] key, int length) {
+    int start = keyStarts.get(entry);
+    if (keyStarts.get(entry + 1) - start != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (keyChars.get(start + i) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean keyEquals(int entry, String key) {
+    int start = keyStarts.get(entry);
+    int length = key.length();
+    if (keyStarts.get(entry + 1) - start != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (keyChars.get(start + i) != key.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int get(String feature, boolean addIfNotExist) {
+    int hash = feature.hashCode();
+    int mask = slots.capacity() - 1;
+    for (int slot = slot(hash);; slot = (slot + 1) & mask) {
+      int entry = slots.get(slot);
+      if (entry < 0) {
+        break;
+      }
+      if (hashes.get(entry) == hash && keyEquals(entry, feature)) {
+        return ids.get(entry);
+      }
+    }
+    if (addIfNotExist) {
+      throw new UnsupportedOperationException("FeatureIndex is read only");
+    }
+    return -1;
+  }
+
+  @Override
+  public int size() {
+    return ids.capacity();
+  }
+
+  @Override
+  public TObjectIntIterator<String> iterator() {
+    return new TObjectIntIterator<String>() {
+      private int entry = -1;
+
+      @Override
+      public void advance() {
+        entry++;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return entry + 1 < ids.capacity();
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public String key() {
+        int start = keyStarts.get(entry);
+        char[] key = new char[keyStarts.get(entry + 1) - start];
+        for (int i = 0; i < key.length; i++) {
+          key[i] = keyChars.get(start + i);
+        }
+        return new String(key);
+      }
+
+      @Override
+      public int value() {
+        return ids.get(entry);
+      }
+
+      @Override
+      public int setValue(int value) {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeObject(toArray(slots));
+    out.writeObject(toArray(hashes));
+    out.writeObject(toArray(ids));
+    out.writeObject(toArray(keyStarts));
+    char[] chars = new char[keyChars.capacity()];
+    CharBuffer buf = keyChars.duplicate();
+    buf.clear();
+    buf.get(chars);
+    out.writeObject(chars);
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    IntBuffer slots = IntBuffer.wrap((int[]) in.readObject());
+    IntBuffer hashes = IntBuffer.wrap((int[]) in.readObject());
+    IntBuffer ids = IntBuffer.wrap((int[]) in.readObject());
+    IntBuffer keyStarts = IntBuffer.wrap((int[]) in.readObject());
+    CharBuffer keyChars = CharBuffer.wrap((char[]) in.readObject());
+    init(slots, hashes, ids, keyStarts, keyChars);
+  }
+
+  private static int[] toArray(IntBuffer buffer) {
+    int[] array = new int[buffer.capacity()];
+    IntBuffer buf = buffer.duplicate();
+    buf.clear();
+    buf.get(array);
+    return array;
+  }
+}
@@ -0,0 +1,69 @@
+package com.antbrains.crf;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Attribute weights stored as float, half the memory of the trained doubles. The rows are kept
+ * in one or more buffers of whole rows, which are on the heap after {@link #convert} and point
+ * into the model file when loaded by {@link MappedCrfModel}.
+ *
+ * @author lili
+ *
+ */
+public class FloatAttributeWeights implements AttributeWeights {
+  private final FloatBuffer[] chunks;
+  private final int chunkShift;
+  private final int chunkMask;
+  private final int attributeNum;
+  private final int labelNum;
+
+  /**
+   * @param chunkShift
+   *          chunk i holds rows [i &lt;&lt; chunkShift, (i+1) &lt;&lt; chunkShift)
+   */
+  FloatAttributeWeights(FloatBuffer[] chunks, int chunkShift, int attributeNum, int labelNum) {
+    this.chunks = chunks;
+    this.chunkShift = chunkShift;
+    this.chunkMask = chunkShift == 31 ? Integer.MAX_VALUE : (1 << chunkShift) - 1;
+    this.attributeNum = attributeNum;
+    this.labelNum = labelNum;
+  }
+
+  public static FloatAttributeWeights convert(AttributeWeights weights) {
+    int attributeNum = weights.getAttributeNum();
+    int labelNum = weights.getLabelNum();
+    float[] values = new float[attributeNum * labelNum];
+    for (int attributeIndex = 0, i = 0; attributeIndex < attributeNum; attributeIndex++) {
+      for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
+        values[i++] = (float) weights.get(attributeIndex, labelIndex);
+      }
+    }
+    return new FloatAttributeWeights(new FloatBuffer[] { FloatBuffer.wrap(values) }, 31,
+        attributeNum, labelNum);
+  }
+
+  @Override
+  public int getLabelNum() {
+    return labelNum;
+  }
+
+  @Override
+  public int getAttributeNum() {
+    return attributeNum;
+  }
+
+  @Override
+  public double get(int attributeIndex, int labelIndex) {
+    return chunks[attributeIndex >>> chunkShift].get((attributeIndex & chunkMask) * labelNum
+        + labelIndex);
+  }
+
+  @Override
+  public void addTo(int attributeIndex, double[] scores, int offset) {
+    FloatBuffer chunk = chunks[attributeIndex >>> chunkShift];
+    int weightIndex = (attributeIndex & chunkMask) * labelNum;
+    for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
+      scores[offset + labelIndex] += chunk.get(weightIndex + labelIndex);
+    }
+  }
+}
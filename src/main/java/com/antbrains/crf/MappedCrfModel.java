@@ -0,0 +1,607 @@
+package com.antbrains.crf;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Model file that is mapped into memory instead of deserialized. Loading only reads a small
+ * header, the attribute weights and the tables of the {@link FeatureIndex} or
+ * {@link PerfectHashFeatureDict} are used in place, so a model of gigabytes opens in milliseconds
+ * and processes mapping the same file share its pages. The attribute weights are stored in the
+ * encoding of the model, see {@link SgdCrf#convertAttributeWeights}.
+ * <p>
+ * Layout, little endian, every section starts at a multiple of 8:
+ *
+ * <pre>
+ * int magic, int version, int headerLength
+ * header: TrainingParams, labelNum, attributeNum, weight encoding, dict type, label texts and
+ *   patterns
+ * sections, each one a long byte length followed by the data:
+ *   double[labelNum] bos, double[labelNum] eos, double[labelNum*labelNum] transition weights
+ *   attribute weights by encoding:
+ *     DOUBLE: double[attributeNum*labelNum]
+ *     FLOAT: float[attributeNum*labelNum]
+ *     SHORT, BYTE: float[attributeNum] row scales, short or byte[attributeNum*labelNum]
+ *   attribute dict by dict type:
+ *     FeatureIndex: int[] slots, int[] hashes, int[] ids, int[] keyStarts, char[] keyChars
+ *     PerfectHashFeatureDict: long seed, int fingerprintBits, int 0, int[] displacements,
+ *       byte[] fingerprints, int[] ids
+ * </pre>
+ *
+ * A loaded model can be used by {@link SgdCrf#tagId}, {@link SgdCrf#getScore} and
+ * {@link CrfDecoder} like any other, but it is read only: it has no
+ * {@link TrainingWeights#getAttributeWeights()}, so it can't be trained or saved by
+ * {@link SgdCrf#saveModel}, {@link #write(CrfModel, String)} it instead.
+ *
+ * @author lili
+ *
+ */
+public class MappedCrfModel {
+  public static final int MAGIC = 0x4D465243; // "CRFM"
+  public static final int VERSION = 1;
+
+  private static final int PREFIX_LENGTH = 12;
+  private static final int MAX_CHUNK_BYTES = 1 << 30;
+  private static final int WRITE_BUFFER_SIZE = 1 << 20;
+  private static final int FEATURE_INDEX = 0;
+  private static final int PERFECT_HASH = 1;
+
+  /**
+   * writes model in the mapped format. the attribute dict is compiled to a {@link FeatureIndex}
+   * unless it is one or a {@link PerfectHashFeatureDict}, the attribute weights keep their
+   * encoding.
+   */
+  public static void write(CrfModel model, String fileName) throws IOException {
+    TrainingWeights weights = model.weights;
+    String[] labelTexts = weights.getLabelTexts();
+    int labelNum = labelTexts.length;
+    AttributeWeights attributeWeights = weights.getAttributeWeightTable();
+    int attributeNum = attributeWeights.getAttributeNum();
+    WeightEncodingEnum encoding = getEncoding(attributeWeights);
+    FeatureDict dict = weights.getAttributeDict();
+    PerfectHashFeatureDict perfectHash = null;
+    FeatureIndex index = null;
+    if (dict instanceof PerfectHashFeatureDict) {
+      perfectHash = (PerfectHashFeatureDict) dict;
+    } else {
+      index = dict instanceof FeatureIndex ? (FeatureIndex) dict : FeatureIndex.build(dict);
+    }
+
+    RandomAccessFile raf = new RandomAccessFile(fileName, "rw");
+    try {
+      raf.setLength(0);
+      SectionWriter writer = new SectionWriter(raf.getChannel());
+      TrainingParams params = model.params != null ? model.params : new TrainingParams();
+      byte[] header = encodeHeader(params, weights.getTemplate(), labelTexts, attributeNum,
+          encoding, perfectHash != null ? PERFECT_HASH : FEATURE_INDEX);
+      writer.putInt(MAGIC);
+      writer.putInt(VERSION);
+      writer.putInt(header.length);
+      writer.put(header);
+
+      writer.putDoubles(weights.getBosTransitionWeights());
+      writer.putDoubles(weights.getEosTransitionWeights());
+      writer.putDoubles(weights.getTransitionWeights());
+
+      writeAttributeWeights(writer, attributeWeights, encoding);
+
+      if (perfectHash != null) {
+        writer.beginSection(16);
+        writer.putLong(perfectHash.getSeed());
+        writer.putInt(perfectHash.getFingerprintBits());
+        writer.putInt(0);
+        writer.putInts(perfectHash.getDisplacements());
+        ByteBuffer fingerprints = perfectHash.getFingerprints();
+        writer.beginSection(fingerprints.capacity());
+        for (int i = 0; i < fingerprints.capacity(); i++) {
+          writer.put(fingerprints.get(i));
+        }
+        writer.putInts(perfectHash.getIds());
+      } else {
+        writer.putInts(index.getSlots());
+        writer.putInts(index.getHashes());
+        writer.putInts(index.getIds());
+        writer.putInts(index.getKeyStarts());
+        CharBuffer keyChars = index.getKeyChars();
+        writer.beginSection((long) keyChars.capacity() * 2);
+        for (int i = 0; i < keyChars.capacity(); i++) {
+          writer.putChar(keyChars.get(i));
+        }
+      }
+      writer.flush();
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * @return whether fileName starts with the magic of this format
+   */
+  public static boolean isMappedModel(String fileName) throws IOException {
+    File file = new File(fileName);
+    if (!file.isFile() || file.length() < PREFIX_LENGTH) {
+      return false;
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      return read(raf.getChannel(), 0, 4).getInt() == MAGIC;
+    } finally {
+      raf.close();
+    }
+  }
+
+  public static CrfModel load(String fileName) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      if (channel.size() < PREFIX_LENGTH) {
+        throw new IOException("not a mapped crf model: " + fileName);
+      }
+      ByteBuffer prefix = read(channel, 0, PREFIX_LENGTH);
+      if (prefix.getInt() != MAGIC) {
+        throw new IOException("not a mapped crf model: " + fileName);
+      }
+      int version = prefix.getInt();
+      if (version != VERSION) {
+        throw new IOException("unsupported mapped crf model version(" + version + "): "
+            + fileName);
+      }
+      int headerLength = prefix.getInt();
+      if (headerLength < 0 || PREFIX_LENGTH + (long) headerLength > channel.size()) {
+        throw new IOException("truncated mapped crf model: " + fileName);
+      }
+      ByteBuffer header = read(channel, PREFIX_LENGTH, headerLength);
+
+      TrainingParams params = new TrainingParams();
+      params.setMinFeatureFreq(header.getInt());
+      params.setSigma(header.getDouble());
+      params.setEta(header.getDouble());
+      params.setRate(header.getDouble());
+      params.setSamplesNum(header.getInt());
+      params.setCandidatesNum(header.getInt());
+      params.setIterationNum(header.getInt());
+      params.setT0(header.getDouble());
+      int labelNum = header.getInt();
+      int attributeNum = header.getInt();
+      int ordinal = header.getInt();
+      if (ordinal < 0 || ordinal >= WeightEncodingEnum.values().length) {
+        throw new IOException("unknown weight encoding(" + ordinal + "): " + fileName);
+      }
+      WeightEncodingEnum encoding = WeightEncodingEnum.values()[ordinal];
+      int dictType = header.getInt();
+      if (dictType != FEATURE_INDEX && dictType != PERFECT_HASH) {
+        throw new IOException("unknown dict type(" + dictType + "): " + fileName);
+      }
+      String[] labelTexts = new String[labelNum];
+      for (int i = 0; i < labelNum; i++) {
+        labelTexts[i] = getString(header);
+      }
+      String[] patterns = new String[header.getInt()];
+      for (int i = 0; i < patterns.length; i++) {
+        patterns[i] = getString(header);
+      }
+      params.setTemplates(Arrays.asList(patterns));
+
+      SectionReader reader = new SectionReader(channel, fileName, PREFIX_LENGTH + headerLength);
+      Template template = new Template(patterns);
+      TrainingWeights weights = new TrainingWeights(template);
+      TObjectIntHashMap<String> labelDict = new TObjectIntHashMap<String>(10, 0.75f, -1);
+      for (int i = 0; i < labelNum; i++) {
+        labelDict.put(labelTexts[i], i);
+      }
+      weights.setLabelTexts(labelTexts);
+      weights.setLabelDict(labelDict);
+      weights.setBosTransitionWeights(reader.nextDoubles(labelNum));
+      weights.setEosTransitionWeights(reader.nextDoubles(labelNum));
+      weights.setTransitionWeights(reader.nextDoubles(labelNum * labelNum));
+
+      weights.setAttributeWeightTable(readAttributeWeights(reader, encoding, attributeNum,
+          labelNum));
+
+      try {
+        if (dictType == PERFECT_HASH) {
+          ByteBuffer dictHeader = read(channel, reader.nextSection(16), 16);
+          long seed = dictHeader.getLong();
+          int fingerprintBits = dictHeader.getInt();
+          IntBuffer displacements = reader.nextInts();
+          ByteBuffer fingerprints = reader.nextBytes();
+          IntBuffer ids = reader.nextInts();
+          weights.setAttributeDict(new PerfectHashFeatureDict(seed, fingerprintBits,
+              displacements, fingerprints, ids));
+        } else {
+          IntBuffer slots = reader.nextInts();
+          IntBuffer hashes = reader.nextInts();
+          IntBuffer ids = reader.nextInts();
+          IntBuffer keyStarts = reader.nextInts();
+          CharBuffer keyChars = reader.nextChars();
+          weights.setAttributeDict(new FeatureIndex(slots, hashes, ids, keyStarts, keyChars));
+        }
+      } catch (IllegalStateException e) {
+        throw new IOException(e.getMessage() + ": " + fileName);
+      }
+      return new CrfModel(params, weights);
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static WeightEncodingEnum getEncoding(AttributeWeights weights) {
+    if (weights instanceof FloatAttributeWeights) {
+      return WeightEncodingEnum.FLOAT;
+    } else if (weights instanceof QuantizedAttributeWeights) {
+      return ((QuantizedAttributeWeights) weights).getBits() == 16 ? WeightEncodingEnum.SHORT
+          : WeightEncodingEnum.BYTE;
+    }
+    return WeightEncodingEnum.DOUBLE;
+  }
+
+  private static int getBytes(WeightEncodingEnum encoding) {
+    switch (encoding) {
+    case DOUBLE:
+      return 8;
+    case FLOAT:
+      return 4;
+    case SHORT:
+      return 2;
+    case BYTE:
+      return 1;
+    default:
+      throw new IllegalArgumentException("unknown weight encoding: " + encoding);
+    }
+  }
+
+  private static void writeAttributeWeights(SectionWriter writer, AttributeWeights weights,
+      WeightEncodingEnum encoding) throws IOException {
+    int attributeNum = weights.getAttributeNum();
+    int labelNum = weights.getLabelNum();
+    if (encoding == WeightEncodingEnum.SHORT || encoding == WeightEncodingEnum.BYTE) {
+      QuantizedAttributeWeights quantized = (QuantizedAttributeWeights) weights;
+      writer.beginSection((long) attributeNum * 4);
+      for (int attributeIndex = 0; attributeIndex < attributeNum; attributeIndex++) {
+        writer.putFloat(quantized.getScale(attributeIndex));
+      }
+    }
+    writer.beginSection((long) attributeNum * labelNum * getBytes(encoding));
+    for (int attributeIndex = 0; attributeIndex < attributeNum; attributeIndex++) {
+      for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
+        switch (encoding) {
+        case DOUBLE:
+          writer.putDouble(weights.get(attributeIndex, labelIndex));
+          break;
+        case FLOAT:
+          writer.putFloat((float) weights.get(attributeIndex, labelIndex));
+          break;
+        case SHORT:
+          writer.putShort((short) ((QuantizedAttributeWeights) weights).getValue(attributeIndex,
+              labelIndex));
+          break;
+        default:
+          writer.put((byte) ((QuantizedAttributeWeights) weights).getValue(attributeIndex,
+              labelIndex));
+        }
+      }
+    }
+  }
+
+  private static AttributeWeights readAttributeWeights(SectionReader reader,
+      WeightEncodingEnum encoding, int attributeNum, int labelNum) throws IOException {
+    FloatBuffer scales = null;
+    if (encoding == WeightEncodingEnum.SHORT || encoding == WeightEncodingEnum.BYTE) {
+      long offset = reader.nextSection((long) attributeNum * 4);
+      scales = map(reader.channel, offset, (long) attributeNum * 4).asFloatBuffer();
+    }
+    int rowBytes = labelNum * getBytes(encoding);
+    long offset = reader.nextSection((long) attributeNum * rowBytes);
+    int chunkShift = 31 - Integer.numberOfLeadingZeros(Math.max(1, MAX_CHUNK_BYTES / rowBytes));
+    int chunkRows = 1 << chunkShift;
+    ByteBuffer[] chunks = new ByteBuffer[(attributeNum + chunkRows - 1) >>> chunkShift];
+    for (int i = 0; i < chunks.length; i++) {
+      int rows = Math.min(chunkRows, attributeNum - i * chunkRows);
+      chunks[i] = map(reader.channel, offset + (long) i * chunkRows * rowBytes, (long) rows
+          * rowBytes);
+    }
+    switch (encoding) {
+    case DOUBLE:
+      DoubleBuffer[] doubles = new DoubleBuffer[chunks.length];
+      for (int i = 0; i < chunks.length; i++) {
+        doubles[i] = chunks[i].asDoubleBuffer();
+      }
+      return new MappedDoubleWeights(doubles, chunkShift, attributeNum, labelNum);
+    case FLOAT:
+      FloatBuffer[] floats = new FloatBuffer[chunks.length];
+      for (int i = 0; i < chunks.length; i++) {
+        floats[i] = chunks[i].asFloatBuffer();
+      }
+      return new FloatAttributeWeights(floats, chunkShift, attributeNum, labelNum);
+    case SHORT:
+      return new QuantizedAttributeWeights(16, chunks, scales, chunkShift, attributeNum, labelNum);
+    default:
+      return new QuantizedAttributeWeights(8, chunks, scales, chunkShift, attributeNum, labelNum);
+    }
+  }
+
+  private static byte[] encodeHeader(TrainingParams params, Template template,
+      String[] labelTexts, int attributeNum, WeightEncodingEnum encoding, int dictType) {
+    String[] patterns = template.getPatterns();
+    int length = 4 + 8 * 3 + 4 * 3 + 8 + 4 * 5;
+    for (String label : labelTexts) {
+      length += 4 + label.length() * 2;
+    }
+    for (String pattern : patterns) {
+      length += 4 + pattern.length() * 2;
+    }
+    ByteBuffer header = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(params.getMinFeatureFreq());
+    header.putDouble(params.getSigma());
+    header.putDouble(params.getEta());
+    header.putDouble(params.getRate());
+    header.putInt(params.getSamplesNum());
+    header.putInt(params.getCandidatesNum());
+    header.putInt(params.getIterationNum());
+    header.putDouble(params.getT0());
+    header.putInt(labelTexts.length);
+    header.putInt(attributeNum);
+    header.putInt(encoding.ordinal());
+    header.putInt(dictType);
+    for (String label : labelTexts) {
+      putString(header, label);
+    }
+    header.putInt(patterns.length);
+    for (String pattern : patterns) {
+      putString(header, pattern);
+    }
+    return header.array();
+  }
+
+  private static void putString(ByteBuffer buffer, String s) {
+    buffer.putInt(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      buffer.putChar(s.charAt(i));
+    }
+  }
+
+  private static String getString(ByteBuffer buffer) {
+    char[] chars = new char[buffer.getInt()];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = buffer.getChar();
+    }
+    return new String(chars);
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("unexpected end of file at " + (position + buffer.position()));
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static ByteBuffer map(FileChannel channel, long position, long length)
+      throws IOException {
+    return channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(
+        ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static long align(long position) {
+    return (position + 7) & ~7L;
+  }
+
+  private static class SectionWriter {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(
+        ByteOrder.LITTLE_ENDIAN);
+    private long position;
+
+    SectionWriter(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    void beginSection(long byteLength) throws IOException {
+      long aligned = align(position);
+      while (position < aligned) {
+        put((byte) 0);
+      }
+      putLong(byteLength);
+    }
+
+    void putDoubles(double[] array) throws IOException {
+      beginSection((long) array.length * 8);
+      for (double d : array) {
+        putDouble(d);
+      }
+    }
+
+    void putInts(IntBuffer ints) throws IOException {
+      beginSection((long) ints.capacity() * 4);
+      for (int i = 0; i < ints.capacity(); i++) {
+        putInt(ints.get(i));
+      }
+    }
+
+    void put(byte[] bytes) throws IOException {
+      for (byte b : bytes) {
+        put(b);
+      }
+    }
+
+    void put(byte b) throws IOException {
+      ensureRemaining(1);
+      buffer.put(b);
+      position++;
+    }
+
+    void putShort(short s) throws IOException {
+      ensureRemaining(2);
+      buffer.putShort(s);
+      position += 2;
+    }
+
+    void putFloat(float f) throws IOException {
+      ensureRemaining(4);
+      buffer.putFloat(f);
+      position += 4;
+    }
+
+    void putChar(char c) throws IOException {
+      ensureRemaining(2);
+      buffer.putChar(c);
+      position += 2;
+    }
+
+    void putInt(int i) throws IOException {
+      ensureRemaining(4);
+      buffer.putInt(i);
+      position += 4;
+    }
+
+    void putLong(long l) throws IOException {
+      ensureRemaining(8);
+      buffer.putLong(l);
+      position += 8;
+    }
+
+    void putDouble(double d) throws IOException {
+      ensureRemaining(8);
+      buffer.putDouble(d);
+      position += 8;
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+      if (buffer.remaining() < bytes) {
+        flush();
+      }
+    }
+
+    void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+  }
+
+  private static class SectionReader {
+    private final FileChannel channel;
+    private final String fileName;
+    private final long fileSize;
+    private long position;
+
+    SectionReader(FileChannel channel, String fileName, long position) throws IOException {
+      this.channel = channel;
+      this.fileName = fileName;
+      this.fileSize = channel.size();
+      this.position = position;
+    }
+
+    /**
+     * @param byteLength
+     *          expected length of the section, -1 if any length is fine
+     * @return file offset of the section data
+     */
+    long nextSection(long byteLength) throws IOException {
+      long start = align(position);
+      if (start + 8 > fileSize) {
+        throw new IOException("truncated mapped crf model: " + fileName);
+      }
+      long length = read(channel, start, 8).getLong();
+      if (length < 0 || start + 8 + length > fileSize) {
+        throw new IOException("truncated mapped crf model: " + fileName);
+      }
+      if (byteLength >= 0 && length != byteLength) {
+        throw new IOException("corrupted mapped crf model, section at " + start + " has "
+            + length + " bytes instead of " + byteLength + ": " + fileName);
+      }
+      position = start + 8 + length;
+      return start + 8;
+    }
+
+    double[] nextDoubles(int num) throws IOException {
+      long offset = nextSection((long) num * 8);
+      double[] array = new double[num];
+      read(channel, offset, num * 8).asDoubleBuffer().get(array);
+      return array;
+    }
+
+    IntBuffer nextInts() throws IOException {
+      long offset = nextSection(-1);
+      return map(channel, offset, checkMappable(position - offset)).asIntBuffer();
+    }
+
+    ByteBuffer nextBytes() throws IOException {
+      long offset = nextSection(-1);
+      return map(channel, offset, checkMappable(position - offset));
+    }
+
+    CharBuffer nextChars() throws IOException {
+      long offset = nextSection(-1);
+      return map(channel, offset, checkMappable(position - offset)).asCharBuffer();
+    }
+
+    private long checkMappable(long length) throws IOException {
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException("section of " + length + " bytes is too large to map: " + fileName);
+      }
+      return length;
+    }
+  }
+
+  /**
+   * double attribute weights mapped in chunks of up to 1GB, each chunk holds whole rows
+   */
+  private static class MappedDoubleWeights implements AttributeWeights {
+    private final DoubleBuffer[] chunks;
+    private final int chunkShift;
+    private final int chunkMask;
+    private final int attributeNum;
+    private final int labelNum;
+
+    MappedDoubleWeights(DoubleBuffer[] chunks, int chunkShift, int attributeNum, int labelNum) {
+      this.chunks = chunks;
+      this.chunkShift = chunkShift;
+      this.chunkMask = (1 << chunkShift) - 1;
+      this.attributeNum = attributeNum;
+      this.labelNum = labelNum;
+    }
+
+    @Override
+    public int getLabelNum() {
+      return labelNum;
+    }
+
+    @Override
+    public int getAttributeNum() {
+      return attributeNum;
+    }
+
+    @Override
+    public double get(int attributeIndex, int labelIndex) {
+      return chunks[attributeIndex >>> chunkShift].get((attributeIndex & chunkMask) * labelNum
+          + labelIndex);
+    }
+
+    @Override
+    public void addTo(int attributeIndex, double[] scores, int offset) {
+      DoubleBuffer chunk = chunks[attributeIndex >>> chunkShift];
+      int weightIndex = (attributeIndex & chunkMask) * labelNum;
+      for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
+        scores[offset + labelIndex] += chunk.get(weightIndex + labelIndex);
+      }
+    }
+  }
+}
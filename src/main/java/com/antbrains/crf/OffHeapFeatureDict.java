@@ -0,0 +1,531 @@
+package com.antbrains.crf;
+
+import gnu.trove.iterator.TObjectIntIterator;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * Training {@link FeatureDict} that keeps the features off the java heap, for dicts of hundreds of
+ * millions of features where the Strings and entries of a {@link TroveFeatureDict} fill the heap
+ * and make every full gc take minutes. Whatever the number of features, the heap only holds a few
+ * buffer objects.
+ * <p>
+ * Each feature is a record in a direct ByteBuffer slab: int id, int String.hashCode(), unsigned
+ * short length and the UTF-8 bytes of the key. Slabs double in size up to 64MB and a record never
+ * spans two of them. The hash table is open addressing with linear probing over direct
+ * LongBuffers, a slot holds 24 more bits of the hash and the address of the record, so most
+ * probes of other features are rejected without reading their records. Looking a feature up
+ * compares the String with the stored bytes and creates no objects.
+ * <p>
+ * Like {@link TroveFeatureDict} a new feature gets the id size(), and the iterator supports
+ * remove() and setValue() for {@link SgdCrf} to drop rare features and renumber the others.
+ * Removed features only lose their id, {@link #compact()} gives their memory back. Direct memory
+ * is limited by -XX:MaxDirectMemorySize and is freed when the dict is garbage collected. Not
+ * thread safe when adding features.
+ *
+ * @author lili
+ *
+ */
+public class OffHeapFeatureDict implements FeatureDict {
+  private static final long serialVersionUID = 3120467593278845506L;
+
+  // record: id, hash, length, bytes
+  private static final int HEADER_BYTES = 10;
+  private static final int MAX_KEY_BYTES = 0xFFFF;
+  private static final int MIN_SLAB_BYTES = 1 << 16;
+  // slabs double up to 64MB, so at most 64MB is allocated and not used
+  private static final int MAX_SLAB_BYTES = 1 << 26;
+  // address = slab << 30 | offset, 40 bits with at most 1024 slabs
+  private static final int OFFSET_BITS = 30;
+  private static final int MAX_SLABS = 1 << 10;
+  private static final int ADDRESS_BITS = 40;
+  private static final long ADDRESS_MASK = (1L << ADDRESS_BITS) - 1;
+  private static final int MAX_CAPACITY = 1 << 30;
+  // 2^24 slots, 128MB per table chunk
+  private static final int CHUNK_BITS = 24;
+  private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+  private final int initSize;
+
+  private transient ByteBuffer[] slabs;
+  private transient int[] slabEnds;
+  private transient int slabNum;
+
+  private transient LongBuffer[] table;
+  private transient int capacity;
+  private transient int shift;
+  private transient int threshold;
+  // slots taken, including those of removed features
+  private transient int used;
+
+  private transient int size;
+
+  public OffHeapFeatureDict(int initSize) {
+    this.initSize = initSize;
+    this.init(initSize);
+  }
+
+  private void init(int expectedSize) {
+    slabs = new ByteBuffer[4];
+    slabEnds = new int[4];
+    slabNum = 0;
+    size = 0;
+    this.allocateTable(tableCapacity(expectedSize));
+  }
+
+  @Override
+  public int get(String feature, boolean addIfNotExist) {
+    int hash = feature.hashCode();
+    long fragment = hash >>> 8;
+    int mask = capacity - 1;
+    int slot = this.slot(hash);
+    while (true) {
+      long value = this.getSlot(slot);
+      if (value == 0) {
+        break;
+      }
+      if ((value >>> ADDRESS_BITS) == fragment) {
+        long address = (value & ADDRESS_MASK) - 1;
+        ByteBuffer slab = slabs[(int) (address >>> OFFSET_BITS)];
+        int offset = (int) address & ((1 << OFFSET_BITS) - 1);
+        if (slab.getInt(offset + 4) == hash
+            && keyEquals(slab, offset + HEADER_BYTES, offset + HEADER_BYTES
+                + (slab.getShort(offset + 8) & 0xFFFF), feature)) {
+          int id = slab.getInt(offset);
+          if (id < 0 && addIfNotExist) {
+            // a removed feature comes back
+            id = size++;
+            slab.putInt(offset, id);
+          }
+          return id;
+        }
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (!addIfNotExist) {
+      return -1;
+    }
+
+    int length = utf8Length(feature);
+    if (length > MAX_KEY_BYTES) {
+      throw new IllegalArgumentException("feature longer than " + MAX_KEY_BYTES + " bytes: "
+          + feature.substring(0, 100) + "...");
+    }
+    long address = this.allocate(HEADER_BYTES + length);
+    ByteBuffer slab = slabs[slabNum - 1];
+    int offset = (int) address & ((1 << OFFSET_BITS) - 1);
+    int id = size++;
+    slab.putInt(offset, id);
+    slab.putInt(offset + 4, hash);
+    slab.putShort(offset + 8, (short) length);
+    putUtf8(slab, offset + HEADER_BYTES, feature);
+    this.setSlot(slot, (fragment << ADDRESS_BITS) | (address + 1));
+    used++;
+    if (used > threshold) {
+      this.rehash(tableCapacity(2L * size));
+    }
+    return id;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return bytes of direct memory taken by the slabs and the hash table
+   */
+  public long getMemoryBytes() {
+    long bytes = 8L * capacity;
+    for (int i = 0; i < slabNum; i++) {
+      bytes += slabs[i].capacity();
+    }
+    return bytes;
+  }
+
+  public double getBytesPerFeature() {
+    return size == 0 ? 0 : this.getMemoryBytes() * 1.0 / size;
+  }
+
+  /**
+   * Copies the features that are not removed to new slabs and rebuilds the hash table for them.
+   * Ids are kept.
+   */
+  public void compact() {
+    ByteBuffer[] oldSlabs = slabs;
+    int[] oldEnds = slabEnds;
+    int oldNum = slabNum;
+    slabs = new ByteBuffer[4];
+    slabEnds = new int[4];
+    slabNum = 0;
+    long liveBytes = 0;
+    for (int s = 0; s < oldNum; s++) {
+      int offset = 0;
+      while (offset < oldEnds[s]) {
+        int recordBytes = HEADER_BYTES + (oldSlabs[s].getShort(offset + 8) & 0xFFFF);
+        if (oldSlabs[s].getInt(offset) >= 0) {
+          liveBytes += recordBytes;
+        }
+        offset += recordBytes;
+      }
+    }
+    this.addSlab((int) Math.min(MAX_SLAB_BYTES, Math.max(MIN_SLAB_BYTES, liveBytes)));
+    for (int s = 0; s < oldNum; s++) {
+      ByteBuffer slab = oldSlabs[s];
+      int offset = 0;
+      while (offset < oldEnds[s]) {
+        int recordBytes = HEADER_BYTES + (slab.getShort(offset + 8) & 0xFFFF);
+        if (slab.getInt(offset) >= 0) {
+          this.allocate(recordBytes);
+          ByteBuffer src = slab.duplicate();
+          src.limit(offset + recordBytes).position(offset);
+          ByteBuffer dest = slabs[slabNum - 1].duplicate();
+          dest.position(slabEnds[slabNum - 1] - recordBytes);
+          dest.put(src);
+        }
+        offset += recordBytes;
+      }
+      oldSlabs[s] = null;
+    }
+    this.rehash(tableCapacity(size));
+  }
+
+  @Override
+  public TObjectIntIterator<String> iterator() {
+    return new RecordIterator();
+  }
+
+  private static int tableCapacity(long expectedSize) {
+    int capacity = 16;
+    while (capacity / 4 * 3 < expectedSize) {
+      if (capacity == MAX_CAPACITY) {
+        throw new IllegalStateException("more than " + (MAX_CAPACITY / 4 * 3) + " features");
+      }
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private void allocateTable(int capacity) {
+    this.capacity = capacity;
+    this.shift = 32 - Integer.numberOfTrailingZeros(capacity);
+    this.threshold = capacity / 4 * 3;
+    this.used = 0;
+    int chunkNum = ((capacity - 1) >>> CHUNK_BITS) + 1;
+    table = new LongBuffer[chunkNum];
+    for (int i = 0; i < chunkNum; i++) {
+      int slots = Math.min(capacity, 1 << CHUNK_BITS);
+      table[i] = ByteBuffer.allocateDirect(slots * 8).order(ByteOrder.nativeOrder())
+          .asLongBuffer();
+    }
+  }
+
+  private int slot(int hash) {
+    return (hash * 0x9E3779B9) >>> shift;
+  }
+
+  private long getSlot(int slot) {
+    return table[slot >>> CHUNK_BITS].get(slot & CHUNK_MASK);
+  }
+
+  private void setSlot(int slot, long value) {
+    table[slot >>> CHUNK_BITS].put(slot & CHUNK_MASK, value);
+  }
+
+  // puts the records that are not removed in a new table, their hashes are in the records
+  private void rehash(int newCapacity) {
+    table = null;
+    this.allocateTable(newCapacity);
+    int mask = capacity - 1;
+    for (int s = 0; s < slabNum; s++) {
+      ByteBuffer slab = slabs[s];
+      int offset = 0;
+      while (offset < slabEnds[s]) {
+        if (slab.getInt(offset) >= 0) {
+          int hash = slab.getInt(offset + 4);
+          int slot = this.slot(hash);
+          while (this.getSlot(slot) != 0) {
+            slot = (slot + 1) & mask;
+          }
+          long address = ((long) s << OFFSET_BITS) | offset;
+          this.setSlot(slot, ((long) (hash >>> 8) << ADDRESS_BITS) | (address + 1));
+          used++;
+        }
+        offset += HEADER_BYTES + (slab.getShort(offset + 8) & 0xFFFF);
+      }
+    }
+  }
+
+  /**
+   * reserves recordBytes at the end of the last slab, adding a slab if it doesn't fit
+   *
+   * @return address of the record
+   */
+  private long allocate(int recordBytes) {
+    if (slabNum == 0 || slabEnds[slabNum - 1] + recordBytes > slabs[slabNum - 1].capacity()) {
+      int slabBytes;
+      if (slabNum == 0) {
+        slabBytes = (int) Math.min(MAX_SLAB_BYTES, Math.max(MIN_SLAB_BYTES, 32L * initSize));
+      } else {
+        slabBytes = Math.min(MAX_SLAB_BYTES, slabs[slabNum - 1].capacity() * 2);
+      }
+      this.addSlab(Math.max(slabBytes, recordBytes));
+    }
+    int offset = slabEnds[slabNum - 1];
+    slabEnds[slabNum - 1] = offset + recordBytes;
+    return ((long) (slabNum - 1) << OFFSET_BITS) | offset;
+  }
+
+  private void addSlab(int slabBytes) {
+    if (slabNum == MAX_SLABS) {
+      throw new IllegalStateException("more than " + MAX_SLABS + " slabs");
+    }
+    if (slabNum == slabs.length) {
+      ByteBuffer[] newSlabs = new ByteBuffer[slabNum * 2];
+      System.arraycopy(slabs, 0, newSlabs, 0, slabNum);
+      slabs = newSlabs;
+      int[] newEnds = new int[slabNum * 2];
+      System.arraycopy(slabEnds, 0, newEnds, 0, slabNum);
+      slabEnds = newEnds;
+    }
+    slabs[slabNum] = ByteBuffer.allocateDirect(slabBytes).order(ByteOrder.nativeOrder());
+    slabEnds[slabNum] = 0;
+    slabNum++;
+  }
+
+  // an unpaired surrogate is written as 3 bytes like other chars, so any String comes back
+  private static int utf8Length(String s) {
+    int length = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  private static void putUtf8(ByteBuffer buf, int pos, String s) {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        buf.put(pos++, (byte) c);
+      } else if (c < 0x800) {
+        buf.put(pos++, (byte) (0xC0 | (c >> 6)));
+        buf.put(pos++, (byte) (0x80 | (c & 0x3F)));
+      } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, s.charAt(++i));
+        buf.put(pos++, (byte) (0xF0 | (cp >> 18)));
+        buf.put(pos++, (byte) (0x80 | ((cp >> 12) & 0x3F)));
+        buf.put(pos++, (byte) (0x80 | ((cp >> 6) & 0x3F)));
+        buf.put(pos++, (byte) (0x80 | (cp & 0x3F)));
+      } else {
+        buf.put(pos++, (byte) (0xE0 | (c >> 12)));
+        buf.put(pos++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+        buf.put(pos++, (byte) (0x80 | (c & 0x3F)));
+      }
+    }
+  }
+
+  private static boolean keyEquals(ByteBuffer buf, int pos, int end, String s) {
+    int n = s.length();
+    for (int i = 0; i < n; i++) {
+      if (pos >= end) {
+        return false;
+      }
+      int b = buf.get(pos++);
+      char c = s.charAt(i);
+      if (b >= 0) {
+        if (b != c) {
+          return false;
+        }
+      } else if ((b & 0xE0) == 0xC0) {
+        if (pos >= end || (((b & 0x1F) << 6) | (buf.get(pos++) & 0x3F)) != c) {
+          return false;
+        }
+      } else if ((b & 0xF0) == 0xE0) {
+        if (pos + 1 >= end
+            || (((b & 0x0F) << 12) | ((buf.get(pos) & 0x3F) << 6)
+                | (buf.get(pos + 1) & 0x3F)) != c) {
+          return false;
+        }
+        pos += 2;
+      } else {
+        if (pos + 2 >= end || i + 1 >= n) {
+          return false;
+        }
+        int cp = ((b & 0x07) << 18) | ((buf.get(pos) & 0x3F) << 12)
+            | ((buf.get(pos + 1) & 0x3F) << 6) | (buf.get(pos + 2) & 0x3F);
+        pos += 3;
+        if (Character.highSurrogate(cp) != c || Character.lowSurrogate(cp) != s.charAt(++i)) {
+          return false;
+        }
+      }
+    }
+    return pos == end;
+  }
+
+  private static String getUtf8(ByteBuffer buf, int pos, int end) {
+    char[] chars = new char[end - pos];
+    int n = 0;
+    while (pos < end) {
+      int b = buf.get(pos++);
+      if (b >= 0) {
+        chars[n++] = (char) b;
+      } else if ((b & 0xE0) == 0xC0) {
+        chars[n++] = (char) (((b & 0x1F) << 6) | (buf.get(pos++) & 0x3F));
+      } else if ((b & 0xF0) == 0xE0) {
+        chars[n++] = (char) (((b & 0x0F) << 12) | ((buf.get(pos) & 0x3F) << 6) | (buf
+            .get(pos + 1) & 0x3F));
+        pos += 2;
+      } else {
+        int cp = ((b & 0x07) << 18) | ((buf.get(pos) & 0x3F) << 12)
+            | ((buf.get(pos + 1) & 0x3F) << 6) | (buf.get(pos + 2) & 0x3F);
+        pos += 3;
+        chars[n++] = Character.highSurrogate(cp);
+        chars[n++] = Character.lowSurrogate(cp);
+      }
+    }
+    return new String(chars, 0, n);
+  }
+
+  // the features that are not removed, in the order they were added
+  private class RecordIterator implements TObjectIntIterator<String> {
+    private int slab = -1;
+    private int offset;
+    private int nextSlab;
+    private int nextOffset;
+
+    RecordIterator() {
+      this.findNext(0, 0);
+    }
+
+    private void findNext(int s, int o) {
+      while (s < slabNum) {
+        if (o >= slabEnds[s]) {
+          s++;
+          o = 0;
+        } else if (slabs[s].getInt(o) < 0) {
+          o += HEADER_BYTES + (slabs[s].getShort(o + 8) & 0xFFFF);
+        } else {
+          break;
+        }
+      }
+      nextSlab = s;
+      nextOffset = o;
+    }
+
+    private void checkCurrent() {
+      if (slab < 0 || slabs[slab].getInt(offset) < 0) {
+        throw new IllegalStateException();
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextSlab < slabNum;
+    }
+
+    @Override
+    public void advance() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      slab = nextSlab;
+      offset = nextOffset;
+      this.findNext(slab, offset + HEADER_BYTES + (slabs[slab].getShort(offset + 8) & 0xFFFF));
+    }
+
+    @Override
+    public void remove() {
+      this.checkCurrent();
+      slabs[slab].putInt(offset, -1);
+      size--;
+    }
+
+    @Override
+    public String key() {
+      this.checkCurrent();
+      ByteBuffer buf = slabs[slab];
+      int pos = offset + HEADER_BYTES;
+      return getUtf8(buf, pos, pos + (buf.getShort(offset + 8) & 0xFFFF));
+    }
+
+    @Override
+    public int value() {
+      this.checkCurrent();
+      return slabs[slab].getInt(offset);
+    }
+
+    @Override
+    public int setValue(int val) {
+      this.checkCurrent();
+      int old = slabs[slab].getInt(offset);
+      slabs[slab].putInt(offset, val);
+      return old;
+    }
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeInt(size);
+    byte[] bytes = new byte[MAX_KEY_BYTES];
+    for (int s = 0; s < slabNum; s++) {
+      ByteBuffer slab = slabs[s];
+      // duplicates are big endian, only the bytes are read through it
+      ByteBuffer keys = slab.duplicate();
+      int offset = 0;
+      while (offset < slabEnds[s]) {
+        int length = slab.getShort(offset + 8) & 0xFFFF;
+        if (slab.getInt(offset) >= 0) {
+          out.writeInt(slab.getInt(offset));
+          out.writeInt(slab.getInt(offset + 4));
+          out.writeShort(length);
+          keys.position(offset + HEADER_BYTES);
+          keys.get(bytes, 0, length);
+          out.write(bytes, 0, length);
+        }
+        offset += HEADER_BYTES + length;
+      }
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    int num = in.readInt();
+    this.init(Math.max(num, initSize));
+    byte[] bytes = new byte[MAX_KEY_BYTES];
+    for (int i = 0; i < num; i++) {
+      int id = in.readInt();
+      int hash = in.readInt();
+      int length = in.readUnsignedShort();
+      in.readFully(bytes, 0, length);
+      long address = this.allocate(HEADER_BYTES + length);
+      ByteBuffer slab = slabs[slabNum - 1];
+      int offset = (int) address & ((1 << OFFSET_BITS) - 1);
+      slab.putInt(offset, id);
+      slab.putInt(offset + 4, hash);
+      slab.putShort(offset + 8, (short) length);
+      ByteBuffer keys = slab.duplicate();
+      keys.position(offset + HEADER_BYTES);
+      keys.put(bytes, 0, length);
+    }
+    size = num;
+    this.rehash(capacity);
+  }
+}
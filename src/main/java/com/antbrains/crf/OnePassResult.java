@@ -42,6 +42,8 @@ public class OnePassResult {
   public OnePassResult(FeatureDictEnum dictType) {
     if (dictType == FeatureDictEnum.DOUBLE_ARRAY_TRIE) {
       attributes = new DATrieFeatureDict();
+    } else if (dictType == FeatureDictEnum.OFF_HEAP_HASHMAP) {
+      attributes = new OffHeapFeatureDict(102400);
     } else {
       attributes = new TroveFeatureDict(102400);
 
@@ -0,0 +1,367 @@
+package com.antbrains.crf;
+
+import gnu.trove.iterator.TObjectIntIterator;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Read only {@link FeatureDict} for tagging that keeps no feature Strings. A minimal perfect hash
+ * (hash and displace, like CHD) gives each feature of the dict its own slot in [0, size), and a
+ * fingerprint of the key stored per slot rejects features that are not in the dict. An unknown
+ * feature whose fingerprint matches gets the id of some other feature, with fingerprints of b
+ * bits that happens to one of 2^b unknown features.
+ * <p>
+ * It is built from an existing dict and keeps its ids, so the weights don't change. Per feature
+ * it takes 4 bytes of id, b/8 bytes of fingerprint and about 1 byte of displacement. Like
+ * {@link FeatureIndex} the tables are nio buffers, which wrap arrays after
+ * {@link #build(FeatureDict, int)} or deserialization, and point into the model file when loaded
+ * by {@link MappedCrfModel}. The features can't be listed, {@link #iterator()} throws.
+ *
+ * @author lili
+ *
+ */
+public class PerfectHashFeatureDict implements CompiledFeatureDict {
+  private static final long serialVersionUID = -4476213935760394816L;
+
+  public static final int DEFAULT_FINGERPRINT_BITS = 16;
+
+  // average number of features per bucket
+  private static final int BUCKET_SIZE = 4;
+  // displacements tried for one bucket before the build starts over with another seed
+  private static final int MAX_DISPLACEMENT = 1 << 20;
+  private static final int MAX_SEEDS = 16;
+  private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+  private static final long FNV_PRIME = 0x100000001B3L;
+  private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+  private transient long seed;
+  private transient int fingerprintBits;
+  private transient int fingerprintMask;
+  // per bucket: the displacement of its features, or -(slot + 1) of its only feature
+  private transient IntBuffer displacements;
+  private transient ByteBuffer fingerprints; // fingerprintBits / 8 bytes per slot
+  private transient IntBuffer ids; // feature id of each slot
+
+  PerfectHashFeatureDict(long seed, int fingerprintBits, IntBuffer displacements,
+      ByteBuffer fingerprints, IntBuffer ids) {
+    init(seed, fingerprintBits, displacements, fingerprints, ids);
+  }
+
+  private void init(long seed, int fingerprintBits, IntBuffer displacements,
+      ByteBuffer fingerprints, IntBuffer ids) {
+    int size = ids.capacity();
+    if (!isValidFingerprintBits(fingerprintBits)
+        || fingerprints.capacity() != (long) size * (fingerprintBits / 8)
+        || displacements.capacity() != bucketNum(size)) {
+      throw new IllegalStateException("corrupted perfect hash feature dict: size=" + size
+          + ", fingerprintBits=" + fingerprintBits + ", buckets=" + displacements.capacity());
+    }
+    this.seed = seed;
+    this.fingerprintBits = fingerprintBits;
+    this.fingerprintMask = fingerprintBits == 32 ? -1 : (1 << fingerprintBits) - 1;
+    this.displacements = displacements;
+    this.fingerprints = fingerprints.order(ByteOrder.LITTLE_ENDIAN);
+    this.ids = ids;
+  }
+
+  private static boolean isValidFingerprintBits(int bits) {
+    return bits == 8 || bits == 16 || bits == 32;
+  }
+
+  private static int bucketNum(int size) {
+    return Math.max(1, (size + BUCKET_SIZE - 1) / BUCKET_SIZE);
+  }
+
+  /**
+   * same as build(dict, {@link #DEFAULT_FINGERPRINT_BITS})
+   */
+  public static PerfectHashFeatureDict build(FeatureDict dict) {
+    return build(dict, DEFAULT_FINGERPRINT_BITS);
+  }
+
+  /**
+   * @param fingerprintBits
+   *          8, 16 or 32
+   */
+  public static PerfectHashFeatureDict build(FeatureDict dict, int fingerprintBits) {
+    if (!isValidFingerprintBits(fingerprintBits)) {
+      throw new IllegalArgumentException("fingerprintBits must be 8, 16 or 32: "
+          + fingerprintBits);
+    }
+    int size = dict.size();
+    long[] hashes = new long[size];
+    int[] keyIds = new int[size];
+    for (long seed = 0; seed < MAX_SEEDS; seed++) {
+      TObjectIntIterator<String> iter = dict.iterator();
+      int key = 0;
+      while (iter.hasNext()) {
+        iter.advance();
+        hashes[key] = hash(iter.key(), seed);
+        keyIds[key] = iter.value();
+        key++;
+      }
+      if (key != size) {
+        throw new IllegalStateException("dict size(" + size + ") != entries(" + key + ")");
+      }
+      PerfectHashFeatureDict result = build(hashes, keyIds, seed, fingerprintBits);
+      if (result != null) {
+        return result;
+      }
+    }
+    throw new IllegalStateException("can't build a perfect hash of " + size + " features");
+  }
+
+  /**
+   * @return null if a bucket can't be placed with this seed
+   */
+  private static PerfectHashFeatureDict build(long[] hashes, int[] keyIds, long seed,
+      int fingerprintBits) {
+    int size = hashes.length;
+    int bucketNum = bucketNum(size);
+
+    // keys grouped by bucket, bucket b holds keys[bucketStarts[b], bucketStarts[b + 1])
+    int[] bucketStarts = new int[bucketNum + 1];
+    for (long hash : hashes) {
+      bucketStarts[bucket(hash, bucketNum) + 1]++;
+    }
+    int maxBucketSize = 0;
+    for (int b = 0; b < bucketNum; b++) {
+      maxBucketSize = Math.max(maxBucketSize, bucketStarts[b + 1]);
+      bucketStarts[b + 1] += bucketStarts[b];
+    }
+    int[] keys = new int[size];
+    int[] next = new int[bucketNum];
+    System.arraycopy(bucketStarts, 0, next, 0, bucketNum);
+    for (int key = 0; key < size; key++) {
+      keys[next[bucket(hashes[key], bucketNum)]++] = key;
+    }
+
+    // the largest buckets are placed first, while most slots are free
+    int[] bySizeStarts = new int[maxBucketSize + 2];
+    for (int b = 0; b < bucketNum; b++) {
+      bySizeStarts[maxBucketSize - (bucketStarts[b + 1] - bucketStarts[b]) + 1]++;
+    }
+    for (int i = 0; i <= maxBucketSize; i++) {
+      bySizeStarts[i + 1] += bySizeStarts[i];
+    }
+    int[] buckets = new int[bucketNum];
+    for (int b = 0; b < bucketNum; b++) {
+      buckets[bySizeStarts[maxBucketSize - (bucketStarts[b + 1] - bucketStarts[b])]++] = b;
+    }
+
+    int[] displacements = new int[bucketNum];
+    int[] slotKeys = new int[size];
+    boolean[] taken = new boolean[size];
+    int[] slots = new int[maxBucketSize];
+    int nextFree = 0;
+    for (int b : buckets) {
+      int start = bucketStarts[b];
+      int bucketSize = bucketStarts[b + 1] - start;
+      if (bucketSize == 0) {
+        continue;
+      }
+      if (bucketSize == 1) {
+        // a single key doesn't need a displacement, it takes the next free slot directly
+        while (taken[nextFree]) {
+          nextFree++;
+        }
+        taken[nextFree] = true;
+        slotKeys[nextFree] = keys[start];
+        displacements[b] = -(nextFree + 1);
+        continue;
+      }
+      int d = 0;
+      for (; d < MAX_DISPLACEMENT; d++) {
+        if (fits(hashes, keys, start, bucketSize, d, taken, slots)) {
+          break;
+        }
+      }
+      if (d == MAX_DISPLACEMENT) {
+        return null;
+      }
+      for (int i = 0; i < bucketSize; i++) {
+        taken[slots[i]] = true;
+        slotKeys[slots[i]] = keys[start + i];
+      }
+      displacements[b] = d;
+    }
+
+    int fingerprintBytes = fingerprintBits / 8;
+    ByteBuffer fingerprints = ByteBuffer.allocate(size * fingerprintBytes).order(
+        ByteOrder.LITTLE_ENDIAN);
+    int[] ids = new int[size];
+    for (int slot = 0; slot < size; slot++) {
+      int key = slotKeys[slot];
+      ids[slot] = keyIds[key];
+      int fingerprint = (int) hashes[key];
+      if (fingerprintBytes == 1) {
+        fingerprints.put(slot, (byte) fingerprint);
+      } else if (fingerprintBytes == 2) {
+        fingerprints.putShort(slot * 2, (short) fingerprint);
+      } else {
+        fingerprints.putInt(slot * 4, fingerprint);
+      }
+    }
+    return new PerfectHashFeatureDict(seed, fingerprintBits, IntBuffer.wrap(displacements),
+        fingerprints, IntBuffer.wrap(ids));
+  }
+
+  // whether all keys of the bucket land on distinct free slots with displacement d
+  private static boolean fits(long[] hashes, int[] keys, int start, int bucketSize, int d,
+      boolean[] taken, int[] slots) {
+    int size = hashes.length;
+    for (int i = 0; i < bucketSize; i++) {
+      int slot = slot(hashes[keys[start + i]], d, size);
+      if (taken[slot]) {
+        return false;
+      }
+      for (int j = 0; j < i; j++) {
+        if (slots[j] == slot) {
+          return false;
+        }
+      }
+      slots[i] = slot;
+    }
+    return true;
+  }
+
+  private static long hash(String key, long seed) {
+    long h = FNV_OFFSET ^ seed;
+    for (int i = 0; i < key.length(); i++) {
+      h = (h ^ key.charAt(i)) * FNV_PRIME;
+    }
+    return mix(h);
+  }
+
+  private static long hash(char[] key, int length, long seed) {
+    long h = FNV_OFFSET ^ seed;
+    for (int i = 0; i < length; i++) {
+      h = (h ^ key[i]) * FNV_PRIME;
+    }
+    return mix(h);
+  }
+
+  // the finalizer of MurmurHash3
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  // the high bits choose the bucket and the slot, the low bits are the fingerprint
+  private static int bucket(long hash, int bucketNum) {
+    return (int) (((hash >>> 32) * bucketNum) >>> 32);
+  }
+
+  private static int slot(long hash, int d, int size) {
+    return (int) (((mix(hash + d * GOLDEN) >>> 32) * size) >>> 32);
+  }
+
+  long getSeed() {
+    return seed;
+  }
+
+  int getFingerprintBits() {
+    return fingerprintBits;
+  }
+
+  IntBuffer getDisplacements() {
+    return displacements.duplicate();
+  }
+
+  ByteBuffer getFingerprints() {
+    return fingerprints.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  IntBuffer getIds() {
+    return ids.duplicate();
+  }
+
+  private int get(long hash) {
+    int size = ids.capacity();
+    if (size == 0) {
+      return -1;
+    }
+    int d = displacements.get(bucket(hash, displacements.capacity()));
+    int slot = d < 0 ? -d - 1 : slot(hash, d, size);
+    int fingerprint;
+    if (fingerprintBits == 8) {
+      fingerprint = fingerprints.get(slot) & 0xFF;
+    } else if (fingerprintBits == 16) {
+      fingerprint = fingerprints.getShort(slot * 2) & 0xFFFF;
+    } else {
+      fingerprint = fingerprints.getInt(slot * 4);
+    }
+    if (fingerprint != ((int) hash & fingerprintMask)) {
+      return -1;
+    }
+    return ids.get(slot);
+  }
+
+  @Override
+  public int get(char[] key, int length) {
+    return get(hash(key, length, seed));
+  }
+
+  @Override
+  public int get(String feature, boolean addIfNotExist) {
+    int id = get(hash(feature, seed));
+    if (id < 0 && addIfNotExist) {
+      throw new UnsupportedOperationException("PerfectHashFeatureDict is read only");
+    }
+    return id;
+  }
+
+  @Override
+  public int size() {
+    return ids.capacity();
+  }
+
+  @Override
+  public TObjectIntIterator<String> iterator() {
+    throw new UnsupportedOperationException("PerfectHashFeatureDict doesn't keep the features");
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeLong(seed);
+    out.writeInt(fingerprintBits);
+    int[] displacementArray = new int[displacements.capacity()];
+    IntBuffer buf = displacements.duplicate();
+    buf.clear();
+    buf.get(displacementArray);
+    out.writeObject(displacementArray);
+    byte[] fingerprintArray = new byte[fingerprints.capacity()];
+    ByteBuffer bytes = fingerprints.duplicate();
+    bytes.clear();
+    bytes.get(fingerprintArray);
+    out.writeObject(fingerprintArray);
+    int[] idArray = new int[ids.capacity()];
+    buf = ids.duplicate();
+    buf.clear();
+    buf.get(idArray);
+    out.writeObject(idArray);
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    long seed = in.readLong();
+    int fingerprintBits = in.readInt();
+    IntBuffer displacements = IntBuffer.wrap((int[]) in.readObject());
+    ByteBuffer fingerprints = ByteBuffer.wrap((byte[]) in.readObject());
+    IntBuffer ids = IntBuffer.wrap((int[]) in.readObject());
+    try {
+      init(seed, fingerprintBits, displacements, fingerprints, ids);
+    } catch (IllegalStateException e) {
+      throw new IOException(e.getMessage());
+    }
+  }
+}
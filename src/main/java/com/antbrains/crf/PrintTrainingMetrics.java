@@ -0,0 +1,19 @@
+package com.antbrains.crf;
+
+/**
+ * A {@link PrintTrainingProgress} that also prints the {@link EpochMetrics} of each epoch. Unlike
+ * the plain progress it makes SgdCrf.train measure the epochs, which costs a few percent of the
+ * training time.
+ *
+ * @author lili
+ *
+ */
+public class PrintTrainingMetrics extends PrintTrainingProgress implements
+    TrainingMetricsListener {
+
+  @Override
+  public void doEpoch(EpochMetrics metrics) {
+    System.out.println(metrics);
+  }
+
+}
@@ -1,20 +1,32 @@
 package com.antbrains.crf;
 
 public class PrintTrainingProgress implements TrainingProgress {
+  private long startTime;
+  private long iterStartTime;
 
   @Override
   public void startTraining() {
+    startTime = System.currentTimeMillis();
     System.out.println(new java.util.Date() + " start training...");
   }
 
   @Override
   public void doIter(int iter) {
+    long now = System.currentTimeMillis();
+    if (iter > 1) {
+      System.out.println("iter " + (iter - 1) + " took " + (now - iterStartTime) + "ms");
+    }
+    iterStartTime = now;
     System.out.println(new java.util.Date() + " iter " + iter);
   }
 
   @Override
   public void finishTraining() {
-    System.out.println(new java.util.Date() + " finish training.");
+    long now = System.currentTimeMillis();
+    if (iterStartTime > 0) {
+      System.out.println("last iter took " + (now - iterStartTime) + "ms");
+    }
+    System.out.println(new java.util.Date() + " finish training in " + (now - startTime) + "ms.");
   }
 
   @Override
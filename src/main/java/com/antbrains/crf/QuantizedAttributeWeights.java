@@ -0,0 +1,124 @@
+package com.antbrains.crf;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Attribute weights quantized to 8 or 16 bit integers with one float scale per attribute row:
+ * weight = value * scale, where scale = max(|weight| of the row) / 127 (or 32767). A row of the
+ * 6 BESB1B2M labels takes 10 bytes with 8 bits instead of 48 bytes of doubles.
+ * <p>
+ * Like {@link FloatAttributeWeights} the values are kept in chunks of whole rows, on the heap
+ * after {@link #quantize} or mapped by {@link MappedCrfModel}.
+ *
+ * @author lili
+ *
+ */
+public class QuantizedAttributeWeights implements AttributeWeights {
+  private final ByteBuffer[] chunks;
+  private final FloatBuffer scales;
+  private final int chunkShift;
+  private final int chunkMask;
+  private final int attributeNum;
+  private final int labelNum;
+  private final boolean shortValues;
+
+  /**
+   * @param bits
+   *          8 or 16
+   * @param chunkShift
+   *          chunk i holds rows [i &lt;&lt; chunkShift, (i+1) &lt;&lt; chunkShift)
+   */
+  QuantizedAttributeWeights(int bits, ByteBuffer[] chunks, FloatBuffer scales, int chunkShift,
+      int attributeNum, int labelNum) {
+    if (bits != 8 && bits != 16) {
+      throw new IllegalArgumentException("only 8 and 16 bits are supported: " + bits);
+    }
+    this.shortValues = bits == 16;
+    this.chunks = chunks;
+    this.scales = scales;
+    this.chunkShift = chunkShift;
+    this.chunkMask = chunkShift == 31 ? Integer.MAX_VALUE : (1 << chunkShift) - 1;
+    this.attributeNum = attributeNum;
+    this.labelNum = labelNum;
+  }
+
+  /**
+   * @param bits
+   *          8 or 16
+   */
+  public static QuantizedAttributeWeights quantize(AttributeWeights weights, int bits) {
+    int attributeNum = weights.getAttributeNum();
+    int labelNum = weights.getLabelNum();
+    int maxValue = bits == 16 ? Short.MAX_VALUE : Byte.MAX_VALUE;
+    ByteBuffer values = ByteBuffer.allocate(attributeNum * labelNum * (bits / 8)).order(
+        ByteOrder.LITTLE_ENDIAN);
+    float[] scales = new float[attributeNum];
+    for (int attributeIndex = 0; attributeIndex < attributeNum; attributeIndex++) {
+      double max = 0;
+      for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
+        max = Math.max(max, Math.abs(weights.get(attributeIndex, labelIndex)));
+      }
+      float scale = (float) (max / maxValue);
+      scales[attributeIndex] = scale;
+      for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
+        long value = scale == 0 ? 0 : Math.round(weights.get(attributeIndex, labelIndex) / scale);
+        value = Math.max(-maxValue, Math.min(maxValue, value));
+        if (bits == 16) {
+          values.putShort((short) value);
+        } else {
+          values.put((byte) value);
+        }
+      }
+    }
+    values.clear();
+    return new QuantizedAttributeWeights(bits, new ByteBuffer[] { values },
+        FloatBuffer.wrap(scales), 31, attributeNum, labelNum);
+  }
+
+  public int getBits() {
+    return shortValues ? 16 : 8;
+  }
+
+  @Override
+  public int getLabelNum() {
+    return labelNum;
+  }
+
+  @Override
+  public int getAttributeNum() {
+    return attributeNum;
+  }
+
+  float getScale(int attributeIndex) {
+    return scales.get(attributeIndex);
+  }
+
+  int getValue(int attributeIndex, int labelIndex) {
+    ByteBuffer chunk = chunks[attributeIndex >>> chunkShift];
+    int index = (attributeIndex & chunkMask) * labelNum + labelIndex;
+    return shortValues ? chunk.getShort(index << 1) : chunk.get(index);
+  }
+
+  @Override
+  public double get(int attributeIndex, int labelIndex) {
+    return getValue(attributeIndex, labelIndex) * (double) scales.get(attributeIndex);
+  }
+
+  @Override
+  public void addTo(int attributeIndex, double[] scores, int offset) {
+    double scale = scales.get(attributeIndex);
+    ByteBuffer chunk = chunks[attributeIndex >>> chunkShift];
+    int index = (attributeIndex & chunkMask) * labelNum;
+    if (shortValues) {
+      for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
+        scores[offset + labelIndex] += chunk.getShort((index + labelIndex) << 1) * scale;
+      }
+    } else {
+      for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
+        scores[offset + labelIndex] += chunk.get(index + labelIndex) * scale;
+      }
+    }
+  }
+}
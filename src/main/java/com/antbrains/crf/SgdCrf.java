@@ -21,6 +21,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.math3.random.RandomDataGenerator;
 import org.apache.hadoop.conf.Configuration;
@@ -105,8 +110,8 @@ public class SgdCrf {
     Arrays.fill(model.getAttributeWeights(), 0);
   }
 
-  private static double[] computeStateScores(Instance instance, boolean exp, int labelNum,
-      double[] attributeWeights) {
+  private static double[] computeStateScores(Instance instance, int labelNum,
+      AttributeWeights attributeWeights) {
     int itemNum = instance.length();
     int rowSize = instance.rowSize();
     int[] attrIds = instance.getAttrIds();
@@ -115,87 +120,103 @@ public class SgdCrf {
       for (int i = 0; i < rowSize; i++) {
         int attributeIndex = attrIds[itemIndex * rowSize + i];
         if (attributeIndex >= 0) {
-          for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
-            stateScores[itemIndex * labelNum + labelIndex] += attributeWeights[attributeIndex
-                * labelNum + labelIndex];
-          }
+          attributeWeights.addTo(attributeIndex, stateScores, itemIndex * labelNum);
         }
       }
     }
-    if (exp) {
-      for (int itemIndex = 0; itemIndex < itemNum; itemIndex++) {
-        for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
-          double score = stateScores[itemIndex * labelNum + labelIndex];
-          stateScores[itemIndex * labelNum + labelIndex] = Math.exp(score);
+    return stateScores;
+  }
+
+  /**
+   * writes exp of the state scores into stateScores[0, itemNum * labelNum). The scores are summed
+   * first, then exponentiated in one flat loop without index arithmetic.
+   */
+  private static void computeExpStateScores(Instance instance, int labelNum,
+      double[] attributeWeights, double[] stateScores) {
+    int itemNum = instance.length();
+    int rowSize = instance.rowSize();
+    int[] attrIds = instance.getAttrIds();
+    int scoreNum = itemNum * labelNum;
+    Arrays.fill(stateScores, 0, scoreNum, 0);
+    for (int itemIndex = 0, offset = 0; itemIndex < itemNum; itemIndex++, offset += labelNum) {
+      for (int i = itemIndex * rowSize, rowEnd = i + rowSize; i < rowEnd; i++) {
+        int attributeIndex = attrIds[i];
+        if (attributeIndex >= 0) {
+          int weightIndex = attributeIndex * labelNum;
+          for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
+            stateScores[offset + labelIndex] += attributeWeights[weightIndex + labelIndex];
+          }
         }
       }
     }
-    return stateScores;
+    for (int i = 0; i < scoreNum; i++) {
+      stateScores[i] = Math.exp(stateScores[i]);
+    }
   }
 
-  private static double[][] computeForwardScores(Instance instance,
-      double[] expBosTransitionWeights, double[] expEosTransitionWeights,
-      double[][] expTransitionWeights, double[] expStatesScores, double[] scaleFactors, int labelNum) {
+  /**
+   * fills ws.forwardScores and ws.scaleFactors from ws.stateScores, which holds exp of the state
+   * scores
+   */
+  private static void computeForwardScores(Instance instance, TrainingWorkspace ws) {
     int itemNum = instance.length();
-    double[][] forwardScores = new double[itemNum][];
-    for (int itemIndex = 0; itemIndex < itemNum; itemIndex++) {
-      forwardScores[itemIndex] = new double[labelNum];
-    }
+    int labelNum = ws.labelNum;
+    double[] forwardScores = ws.forwardScores;
+    double[] expStatesScores = ws.stateScores;
+    double[] expTransitionWeights = ws.expTransitionWeights;
+    double[] expBosTransitionWeights = ws.expBosTransitionWeights;
+    double[] expEosTransitionWeights = ws.expEosTransitionWeights;
+    double[] scaleFactors = ws.scaleFactors;
 
     double sum = 0;
 
-    double[] previousScores;
-    double[] curScores = forwardScores[0];
-
     for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
-      sum += curScores[labelIndex] = expBosTransitionWeights[labelIndex]
+      sum += forwardScores[labelIndex] = expBosTransitionWeights[labelIndex]
           * expStatesScores[labelIndex];
     }
 
     scaleFactors[0] = sum != 0 ? 1.0 / sum : 1;
     for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
-      curScores[labelIndex] *= scaleFactors[0];
+      forwardScores[labelIndex] *= scaleFactors[0];
     }
 
     for (int itemIndex = 1; itemIndex < itemNum; itemIndex++) {
       sum = 0;
-      previousScores = forwardScores[itemIndex - 1];
-      curScores = forwardScores[itemIndex];
+      int previous = (itemIndex - 1) * labelNum;
+      int cur = itemIndex * labelNum;
       for (int toLabelIndex = 0; toLabelIndex < labelNum; toLabelIndex++) {
         double score = 0;
         for (int fromLabelIndex = 0; fromLabelIndex < labelNum; fromLabelIndex++) {
-          score += previousScores[fromLabelIndex]
-              * expTransitionWeights[fromLabelIndex][toLabelIndex];
+          score += forwardScores[previous + fromLabelIndex]
+              * expTransitionWeights[fromLabelIndex * labelNum + toLabelIndex];
         }
-        sum += curScores[toLabelIndex] = score
-            * expStatesScores[itemIndex * labelNum + toLabelIndex];
+        sum += forwardScores[cur + toLabelIndex] = score * expStatesScores[cur + toLabelIndex];
       }
       scaleFactors[itemIndex] = sum != 0 ? 1.0 / sum : 1;
       for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
-        curScores[labelIndex] *= scaleFactors[itemIndex];
+        forwardScores[cur + labelIndex] *= scaleFactors[itemIndex];
       }
     }
 
     sum = 0;
-    curScores = forwardScores[itemNum - 1];
+    int last = (itemNum - 1) * labelNum;
     for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
-      sum += curScores[labelIndex] * expEosTransitionWeights[labelIndex];
+      sum += forwardScores[last + labelIndex] * expEosTransitionWeights[labelIndex];
     }
     scaleFactors[itemNum] = sum != 0 ? 1.0 / sum : 1;
-
-    return forwardScores;
   }
 
-  private static double computeLogProb(Instance instance, double[] statesScores,
-      double[][] forwardScores, double[][] backwardScores, double[] scaleFactors, double logNorm,
-      double[] transitionWeights, int labelNum) {
+  private static double computeLogProb(Instance instance, TrainingWorkspace ws, double logNorm,
+      double[] transitionWeights) {
     int itemNum = instance.length();
+    int labelNum = ws.labelNum;
+    double[] statesScores = ws.stateScores;
+    double[] scaleFactors = ws.scaleFactors;
 
     int[] labels = instance.labelIds();
 
     int lastLabel = labels[0], label;
-    double[] curScores = forwardScores[0];
-    double instanceLogProb = Math.log(curScores[lastLabel]) - Math.log(scaleFactors[0]);
+    double instanceLogProb = Math.log(ws.forwardScores[lastLabel]) - Math.log(scaleFactors[0]);
 
     for (int itemIndex = 1; itemIndex < itemNum; itemIndex++) {
       label = labels[itemIndex];
@@ -205,8 +226,8 @@ public class SgdCrf {
       lastLabel = label;
     }
 
-    curScores = backwardScores[itemNum - 1];
-    instanceLogProb += Math.log(curScores[lastLabel]) - Math.log(scaleFactors[itemNum - 1]);
+    instanceLogProb += Math.log(ws.backwardScores[(itemNum - 1) * labelNum + lastLabel])
+        - Math.log(scaleFactors[itemNum - 1]);
 
     instanceLogProb -= logNorm;
 
@@ -216,35 +237,23 @@ public class SgdCrf {
   private static double computeInitialLoglikelihood(TrainingDataSet dataSet, int samplesNum,
       double lambda, double[] attributeWeights, double[] transitionWeights) {
     int labelNum = dataSet.getLabelNum();
-    double[] expBosTransitionWeights = new double[labelNum];
-    double[] expEosTransitionWeights = new double[labelNum];
-    for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
-      expBosTransitionWeights[labelIndex] = 1;
-      expEosTransitionWeights[labelIndex] = 1;
-    }
-    double[][] expTransitionWeights = new double[labelNum][];
-    for (int fromLabelIndex = 0; fromLabelIndex < labelNum; fromLabelIndex++) {
-      expTransitionWeights[fromLabelIndex] = new double[labelNum];
-      for (int toLabelIndex = 0; toLabelIndex < labelNum; toLabelIndex++) {
-        expTransitionWeights[fromLabelIndex][toLabelIndex] = 1;
-      }
-    }
+    TrainingWorkspace ws = new TrainingWorkspace(labelNum);
+    Arrays.fill(ws.expBosTransitionWeights, 1);
+    Arrays.fill(ws.expEosTransitionWeights, 1);
+    Arrays.fill(ws.expTransitionWeights, 1);
     double logp = 0;
     List<Instance> instances = dataSet.getInstances();
     for (int i = 0; i < samplesNum; i++) {
       Instance instance = instances.get(i);
-      double[] stateScores = computeStateScores(instance, true, labelNum, attributeWeights);
-      double[] scaleFactors = new double[instance.length() + 1];
-      double[][] forwardScores = computeForwardScores(instance, expBosTransitionWeights,
-          expEosTransitionWeights, expTransitionWeights, stateScores, scaleFactors, labelNum);
+      ws.ensureCapacity(instance.length());
+      computeExpStateScores(instance, labelNum, attributeWeights, ws.stateScores);
+      computeForwardScores(instance, ws);
       double logNorm = 0;
       for (int itemIndex = 0; itemIndex <= instance.length(); itemIndex++) {
-        logNorm -= Math.log(scaleFactors[itemIndex]);
+        logNorm -= Math.log(ws.scaleFactors[itemIndex]);
       }
-      double[][] backwardScores = computeBackwardScores(instance, expEosTransitionWeights,
-          expTransitionWeights, stateScores, scaleFactors, labelNum);
-      logp += computeLogProb(instance, stateScores, forwardScores, backwardScores, scaleFactors,
-          logNorm, transitionWeights, labelNum);
+      computeBackwardScores(instance, ws);
+      logp += computeLogProb(instance, ws, logNorm, transitionWeights);
     }
     double norm2 = 0;
     for (int attributeIndex = 0; attributeIndex < dataSet.getAttributeNum(); attributeIndex++) {
@@ -256,38 +265,39 @@ public class SgdCrf {
     return logp - 0.5 * lambda * norm2 * samplesNum;
   }
 
-  private static double[][] computeBackwardScores(Instance instance,
-      double[] expEosTransitionWeights, double[][] expTransitionScores, double[] expStatesScores,
-      double[] scaleFactors, int labelNum) {
+  /**
+   * fills ws.backwardScores, needs the scale factors of
+   * {@link #computeForwardScores(Instance, TrainingWorkspace)}
+   */
+  private static void computeBackwardScores(Instance instance, TrainingWorkspace ws) {
     int itemNum = instance.length();
-    double[][] backwardScores = new double[itemNum][];
-    for (int itemIndex = 0; itemIndex < itemNum; itemIndex++) {
-      backwardScores[itemIndex] = new double[labelNum];
-    }
-    double[] curScores = backwardScores[itemNum - 1];
+    int labelNum = ws.labelNum;
+    double[] backwardScores = ws.backwardScores;
+    double[] expStatesScores = ws.stateScores;
+    double[] expTransitionScores = ws.expTransitionWeights;
+    double[] expEosTransitionWeights = ws.expEosTransitionWeights;
+    double[] scaleFactors = ws.scaleFactors;
+    int cur = (itemNum - 1) * labelNum;
     double scale = scaleFactors[itemNum - 1];
-    double[] nextScores, tranScores;
 
     for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
-      curScores[labelIndex] = expEosTransitionWeights[labelIndex] * scale;
+      backwardScores[cur + labelIndex] = expEosTransitionWeights[labelIndex] * scale;
     }
     for (int itemIndex = itemNum - 2; itemIndex >= 0; itemIndex--) {
-      curScores = backwardScores[itemIndex];
-      nextScores = backwardScores[itemIndex + 1];
+      cur = itemIndex * labelNum;
+      int next = cur + labelNum;
       scale = scaleFactors[itemIndex];
 
       for (int fromLabelIndex = 0; fromLabelIndex < labelNum; fromLabelIndex++) {
         double score = 0;
-        tranScores = expTransitionScores[fromLabelIndex];
+        int tran = fromLabelIndex * labelNum;
         for (int toLabelIndex = 0; toLabelIndex < labelNum; toLabelIndex++) {
-          score += tranScores[toLabelIndex]
-              * expStatesScores[(itemIndex + 1) * labelNum + toLabelIndex]
-              * nextScores[toLabelIndex];
+          score += expTransitionScores[tran + toLabelIndex]
+              * expStatesScores[next + toLabelIndex] * backwardScores[next + toLabelIndex];
         }
-        curScores[fromLabelIndex] = score * scale;
+        backwardScores[cur + fromLabelIndex] = score * scale;
       }
     }
-    return backwardScores;
   }
 
   private static double calibrateSgd(List<Instance> trainInstances, int seqNum, double t0,
@@ -298,12 +308,7 @@ public class SgdCrf {
     double scale = 0;
     double logp = 0;
 
-    double[] expBosTransitionWeights = new double[labelNum];
-    double[] expEosTransitionWeights = new double[labelNum];
-    double[][] expTransitionWeights = new double[labelNum][];
-    for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
-      expTransitionWeights[labelIndex] = new double[labelNum];
-    }
+    TrainingWorkspace ws = new TrainingWorkspace(labelNum);
 
     for (int i = 0; i < seqNum; i++) {
       Instance instances = trainInstances.get(i);
@@ -314,34 +319,20 @@ public class SgdCrf {
       scale = decay * proj;
       double gain = eta / scale;
 
-      for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
-        expBosTransitionWeights[labelIndex] = Math.exp(bosTransitionWeights[labelIndex]);
-        expEosTransitionWeights[labelIndex] = Math.exp(eosTransitionWeights[labelIndex]);
-      }
-      for (int fromLabelIndex = 0; fromLabelIndex < labelNum; fromLabelIndex++) {
-        for (int toLabelIndex = 0; toLabelIndex < labelNum; toLabelIndex++) {
-          expTransitionWeights[fromLabelIndex][toLabelIndex] = Math
-              .exp(transitionWeights[fromLabelIndex * labelNum + toLabelIndex]);
-        }
-      }
-
-      double[] statesScores = computeStateScores(instances, true, labelNum, attributeWeights);
-
-      double[] scaleFactors = new double[itemNum + 1];
-      double[][] forwardScores = computeForwardScores(instances, expBosTransitionWeights,
-          expEosTransitionWeights, expTransitionWeights, statesScores, scaleFactors, labelNum);
-      double[][] backwardScores = computeBackwardScores(instances, expEosTransitionWeights,
-          expTransitionWeights, statesScores, scaleFactors, labelNum);
+      ws.updateExpTransitionWeights(bosTransitionWeights, eosTransitionWeights,
+          transitionWeights);
+      ws.ensureCapacity(itemNum);
+      computeExpStateScores(instances, labelNum, attributeWeights, ws.stateScores);
+      computeForwardScores(instances, ws);
+      computeBackwardScores(instances, ws);
 
       double logNorm = 0;
       for (int itemIndex = 0; itemIndex <= itemNum; itemIndex++) {
-        logNorm -= Math.log(scaleFactors[itemIndex]);
+        logNorm -= Math.log(ws.scaleFactors[itemIndex]);
       }
-      logp += computeLogProb(instances, statesScores, forwardScores, backwardScores, scaleFactors,
-          logNorm, transitionWeights, labelNum);
+      logp += computeLogProb(instances, ws, logNorm, transitionWeights);
 
-      updateFeatureWeights(instances, expTransitionWeights, statesScores, forwardScores,
-          backwardScores, scaleFactors, gain, labelNum, attributeWeights, bosTransitionWeights,
+      updateFeatureWeights(instances, ws, gain, attributeWeights, bosTransitionWeights,
           eosTransitionWeights, transitionWeights);
 
       ++t;
@@ -365,24 +356,27 @@ public class SgdCrf {
     return norm2diff;
   }
 
-  private static double updateFeatureWeights(Instance instance, double[][] expTransitionScores,
-      double[] statesScores, double[][] forwardScores, double[][] backwardScores,
-      double[] scaleFactors, double gain, int labelNum, double[] attributeWeights,
-      double[] bosTransitionWeights, double[] eosTransitionWeights, double[] transitionWeights) {
+  private static double updateFeatureWeights(Instance instance, TrainingWorkspace ws,
+      double gain, double[] attributeWeights, double[] bosTransitionWeights,
+      double[] eosTransitionWeights, double[] transitionWeights) {
 
     int itemNum = instance.length();
     int rowSize = instance.rowSize();
     int[] attrIds = instance.getAttrIds();
     int[] labelIds = instance.labelIds();
+    int labelNum = ws.labelNum;
+    double[] expTransitionScores = ws.expTransitionWeights;
+    double[] statesScores = ws.stateScores;
+    double[] forwardScores = ws.forwardScores;
+    double[] backwardScores = ws.backwardScores;
+    double[] scaleFactors = ws.scaleFactors;
 
     double norm2diff = 0;
 
-    double[] fwd = forwardScores[0];
-    double[] bwd = backwardScores[0];
     double coeff = scaleFactors[itemNum] / scaleFactors[0];
-    double[] probs = new double[labelNum];
+    double[] probs = ws.probs;
     for (int i = 0; i < labelNum; i++) {
-      probs[i] = fwd[i] * bwd[i] * coeff;
+      probs[i] = forwardScores[i] * backwardScores[i] * coeff;
     }
 
     for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
@@ -402,11 +396,11 @@ public class SgdCrf {
       }
     }
 
-    fwd = forwardScores[itemNum - 1];
-    bwd = backwardScores[itemNum - 1];
+    int last = (itemNum - 1) * labelNum;
     coeff = scaleFactors[itemNum] / scaleFactors[itemNum - 1];
     for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
-      probs[labelIndex] = fwd[labelIndex] * bwd[labelIndex] * coeff;
+      probs[labelIndex] = forwardScores[last + labelIndex] * backwardScores[last + labelIndex]
+          * coeff;
     }
 
     for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
@@ -426,8 +420,7 @@ public class SgdCrf {
     }
 
     for (int itemIndex = 1; itemIndex < itemNum - 1; itemIndex++) {
-      fwd = forwardScores[itemIndex];
-      bwd = backwardScores[itemIndex];
+      int cur = itemIndex * labelNum;
       coeff = scaleFactors[itemNum] / scaleFactors[itemIndex];
 
       for (int i = 0; i < labelNum; i++) {
@@ -442,7 +435,8 @@ public class SgdCrf {
 
         for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
           if (probs[labelIndex] == -1) {
-            probs[labelIndex] = fwd[labelIndex] * bwd[labelIndex] * coeff;
+            probs[labelIndex] = forwardScores[cur + labelIndex]
+                * backwardScores[cur + labelIndex] * coeff;
           }
           norm2diff += updateWeight(attributeWeights, attributeIndex * labelNum + labelIndex, gain,
               probs[labelIndex], labelIndex == labelIds[itemIndex]);
@@ -451,16 +445,16 @@ public class SgdCrf {
     }
 
     for (int itemIndex = 0; itemIndex < itemNum - 1; itemIndex++) {
-      fwd = forwardScores[itemIndex];
-      bwd = backwardScores[itemIndex + 1];
+      int fwd = itemIndex * labelNum;
+      int bwd = fwd + labelNum;
       coeff = scaleFactors[itemNum];
 
       for (int fromLabelIndex = 0; fromLabelIndex < labelNum; fromLabelIndex++) {
-        double[] edge = expTransitionScores[fromLabelIndex];
+        int edge = fromLabelIndex * labelNum;
         for (int toLabelIndex = 0; toLabelIndex < labelNum; toLabelIndex++) {
-          norm2diff += updateWeight(transitionWeights, fromLabelIndex * labelNum + toLabelIndex,
-              gain, fwd[fromLabelIndex] * edge[toLabelIndex]
-                  * statesScores[(itemIndex + 1) * labelNum + toLabelIndex] * bwd[toLabelIndex]
+          norm2diff += updateWeight(transitionWeights, edge + toLabelIndex, gain,
+              forwardScores[fwd + fromLabelIndex] * expTransitionScores[edge + toLabelIndex]
+                  * statesScores[bwd + toLabelIndex] * backwardScores[bwd + toLabelIndex]
                   * coeff, fromLabelIndex == labelIds[itemIndex]
                   && toLabelIndex == labelIds[itemIndex + 1]);
         }
@@ -541,8 +535,17 @@ public class SgdCrf {
     return 1.0 / (lambda * etaValue);
   }
 
+  /**
+   * @throws IllegalArgumentException
+   *           if the attribute weights are not doubles, as in a mapped or quantized model, which
+   *           only {@link MappedCrfModel#write} can save
+   */
   public static void saveModel(TrainingParams params, TrainingWeights weights, String fileName)
       throws IOException {
+    if (weights.getAttributeWeights() == null) {
+      throw new IllegalArgumentException("attribute weights are not doubles, "
+          + "save the model with MappedCrfModel.write: " + fileName);
+    }
     FSTObjectOutput foo = null;
     try {
       foo = new FSTObjectOutput(new FileOutputStream(fileName));
@@ -556,6 +559,15 @@ public class SgdCrf {
 
   }
 
+  // a mapped or quantized model has no double[] attribute weights, so it is written mapped again
+  private static void saveCompiledModel(CrfModel model, String fileName) throws IOException {
+    if (model.weights.getAttributeWeights() == null) {
+      MappedCrfModel.write(model, fileName);
+    } else {
+      SgdCrf.saveModel(model.params, model.weights, fileName);
+    }
+  }
+
   public static CrfModel loadModel(InputStream is) throws Exception {
     FSTObjectInput foi = null;
     try {
@@ -571,7 +583,13 @@ public class SgdCrf {
     }
   }
 
+  /**
+   * loads a model saved by {@link #saveModel} or written by {@link MappedCrfModel#write}
+   */
   public static CrfModel loadModel(String fileName) throws Exception {
+    if (MappedCrfModel.isMappedModel(fileName)) {
+      return MappedCrfModel.load(fileName);
+    }
     FSTObjectInput foi = null;
     try {
       foi = new FSTObjectInput(new FileInputStream(fileName));
@@ -810,12 +828,7 @@ public class SgdCrf {
 
     double lambda = 1.0 / (param.getSigma() * param.getSigma() * trainInstanceNum);
 
-    double[] expBosTransitionWeights = new double[labelNum];
-    double[] expEosTransitionWeights = new double[labelNum];
-    double[][] expTransitionWeighs = new double[labelNum][];
-    for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
-      expTransitionWeighs[labelIndex] = new double[labelNum];
-    }
+    TrainingWorkspace ws = new TrainingWorkspace(labelNum);
     double t0 = 0;
     if (param.getT0() == 0) {
       // System.out.println("calibrating");
@@ -833,98 +846,339 @@ public class SgdCrf {
     double[] attributeWeights = weights.getAttributeWeights();
     // int attributeNum = attributeWeights.length;
 
-    for (int epoch = 1; epoch <= iterationNum; epoch++) {
-      tp.doIter(epoch);
-      // System.out.println(new java.util.Date()+" iteration No. " +
-      // epoch);
-      Collections.shuffle(trainInstances);
-
-      double scale = 0;
+    int threadNum = param.getThreadNum();
+    HogwildState hogwild = threadNum > 1 ? new HogwildState(t0, lambda) : null;
+    TrainingMetricsListener metricsListener = tp instanceof TrainingMetricsListener ?
+        (TrainingMetricsListener) tp : null;
+    ExecutorService pool = hogwild == null ? null : Executors.newFixedThreadPool(threadNum);
+    try {
+      for (int epoch = 1; epoch <= iterationNum; epoch++) {
+        tp.doIter(epoch);
+        // System.out.println(new java.util.Date()+" iteration No. " +
+        // epoch);
+        long epochStartTime = System.nanoTime();
+        EpochStats stats = metricsListener == null ? null : new EpochStats();
+        Collections.shuffle(trainInstances);
+
+        double scale = 0;
+        double eta = 0;
+
+        if (hogwild != null) {
+          scale = trainEpochHogwild(hogwild, pool, threadNum, trainInstances, labelNum, weights,
+              stats);
+          if (stats != null) {
+            long lastStep = hogwild.step.get() - 1;
+            eta = 1.0 / (lambda * (t0 + lastStep));
+            stats.setLearningRate(eta, hogwild.decay(lastStep), hogwild.proj);
+          }
+        } else {
+          for (Instance trainInstance : trainInstances) {
 
-      for (Instance trainInstance : trainInstances) {
+            eta = 1.0 / (lambda * (t0 + t));
+            decay *= (1.0 - eta * lambda);
+            scale = decay * proj;
+            double gain = eta / scale;
 
-        double eta = 1.0 / (lambda * (t0 + t));
-        decay *= (1.0 - eta * lambda);
-        scale = decay * proj;
-        double gain = eta / scale;
+            ws.updateExpTransitionWeights(bosTransitionWeights, eosTransitionWeights,
+                transitionWeights);
+            norm2 += sgdStep(trainInstance, ws, gain, attributeWeights, bosTransitionWeights,
+                eosTransitionWeights, transitionWeights, stats);
 
-        for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
-          expBosTransitionWeights[labelIndex] = Math.exp(bosTransitionWeights[labelIndex]);
-          expEosTransitionWeights[labelIndex] = Math.exp(eosTransitionWeights[labelIndex]);
+            double boundary = norm2 * scale * scale * lambda;
+            if (boundary > 1.0) {
+              proj = 1.0 / Math.sqrt(boundary);
+            }
+            ++t;
+          }
+          if (stats != null) {
+            stats.setLearningRate(eta, decay, proj);
+          }
         }
-        for (int fromLabelIndex = 0; fromLabelIndex < labelNum; fromLabelIndex++) {
-          for (int toLabelIndex = 0; toLabelIndex < labelNum; toLabelIndex++) {
-            expTransitionWeighs[fromLabelIndex][toLabelIndex] = Math
-                .exp(transitionWeights[fromLabelIndex * labelNum + toLabelIndex]);
+
+        if (scale < 1e-20) {
+          for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
+            bosTransitionWeights[labelIndex] *= scale;
+            eosTransitionWeights[labelIndex] *= scale;
           }
+          for (int fromLabelIndex = 0; fromLabelIndex < labelNum; fromLabelIndex++) {
+            for (int toLabelIndex = 0; toLabelIndex < labelNum; toLabelIndex++) {
+              transitionWeights[fromLabelIndex * labelNum + toLabelIndex] *= scale;
+            }
+          }
+          // for (int attributeIndex = 0; attributeIndex < attributeNum;
+          // attributeIndex++) {
+          // for (int labelIndex = 0; labelIndex < labelNum; labelIndex++)
+          // {
+          // int idx=attributeIndex * labelNum + labelIndex;
+          // if(idx==54655554){
+          // throw new
+          // RuntimeException(String.format("idx(%d)=attributeIndex(%d) * labelNum(%d) + labelIndex(%d)",idx,attributeIndex,labelNum,labelIndex));
+          // }
+          // attributeWeights[idx] *= scale;
+          // }
+          // }
+          for (int idx = 0; idx < attributeWeights.length; idx++) {
+            attributeWeights[idx] *= scale;
+          }
+          decay = 1.0;
+          proj = 1.0;
+          if (hogwild != null) {
+            hogwild.reset();
+          }
+          // System.out.println("scale weights and reset decay and proj to 1");
+        }
+
+        double validateAccuracy = Double.NaN;
+        if (validate) {
+          EvaluationResult statsOnValidateData = evaluate(validateInstances, weights);
+          // System.out.println("statistics on validate data: ");
+          // System.out.println("\n" + statsOnValidateData.toString() +
+          // "\n");
+          tp.doValidate(statsOnValidateData.toString());
+          validateAccuracy = statsOnValidateData.correctItemCount * 1.0
+              / statsOnValidateData.totalItemCount;
+        }
+
+        if (stats != null) {
+          metricsListener.doEpoch(new EpochMetrics(epoch, iterationNum, stats.instanceNum,
+              stats.itemNum, System.nanoTime() - epochStartTime, stats.logLikelihood,
+              weightNorm(weights), stats.eta, stats.decay, stats.proj, stats.stateScoreNanos,
+              stats.forwardNanos, stats.backwardNanos, stats.updateNanos, validateAccuracy));
         }
+      }
+    } finally {
+      if (pool != null) {
+        pool.shutdownNow();
+      }
+    }
+    tp.finishTraining();
+
+    // System.out.println("validate on all data");
+    EvaluationResult statsOnValidateData = evaluate(instances, weights);
+    tp.doValidate(statsOnValidateData.toString());
+    // System.out.println("statistics on validate data: ");
+    // System.out.println("\n" + statsOnValidateData.toString() + "\n");
+  }
 
-        int itemNum = trainInstance.length();
-        double[] statesScores = computeStateScores(trainInstance, true, labelNum, attributeWeights);
-        double[] scaleFactors = new double[itemNum + 1];
+  /**
+   * one sgd update of the weights with instance, ws must hold the exp of the current transition
+   * weights. If stats is not null, the phases are timed and the log-likelihood of the instance
+   * is computed.
+   *
+   * @return the change of the squared weight norm
+   */
+  private static double sgdStep(Instance instance, TrainingWorkspace ws, double gain,
+      double[] attributeWeights, double[] bosTransitionWeights, double[] eosTransitionWeights,
+      double[] transitionWeights, EpochStats stats) {
+    int labelNum = ws.labelNum;
+    ws.ensureCapacity(instance.length());
+    if (stats == null) {
+      computeExpStateScores(instance, labelNum, attributeWeights, ws.stateScores);
+      computeForwardScores(instance, ws);
+      computeBackwardScores(instance, ws);
+      return updateFeatureWeights(instance, ws, gain, attributeWeights, bosTransitionWeights,
+          eosTransitionWeights, transitionWeights);
+    }
 
-        double[][] forwardScores = computeForwardScores(trainInstance, expBosTransitionWeights,
-            expEosTransitionWeights, expTransitionWeighs, statesScores, scaleFactors, labelNum);
-        double[][] backwardScores = computeBackwardScores(trainInstance, expEosTransitionWeights,
-            expTransitionWeighs, statesScores, scaleFactors, labelNum);
+    long time0 = System.nanoTime();
+    computeExpStateScores(instance, labelNum, attributeWeights, ws.stateScores);
+    long time1 = System.nanoTime();
+    computeForwardScores(instance, ws);
+    long time2 = System.nanoTime();
+    computeBackwardScores(instance, ws);
+    long time3 = System.nanoTime();
 
-        norm2 += updateFeatureWeights(trainInstance, expTransitionWeighs, statesScores,
-            forwardScores, backwardScores, scaleFactors, gain, labelNum, attributeWeights,
-            bosTransitionWeights, eosTransitionWeights, transitionWeights);
+    int itemNum = instance.length();
+    double logNorm = 0;
+    for (int itemIndex = 0; itemIndex <= itemNum; itemIndex++) {
+      logNorm -= Math.log(ws.scaleFactors[itemIndex]);
+    }
+    stats.logLikelihood += computeLogProb(instance, ws, logNorm, transitionWeights);
+
+    long time4 = System.nanoTime();
+    double norm2diff = updateFeatureWeights(instance, ws, gain, attributeWeights,
+        bosTransitionWeights, eosTransitionWeights, transitionWeights);
+    long time5 = System.nanoTime();
+
+    stats.instanceNum++;
+    stats.itemNum += itemNum;
+    stats.stateScoreNanos += time1 - time0;
+    stats.forwardNanos += time2 - time1;
+    stats.backwardNanos += time3 - time2;
+    stats.updateNanos += time5 - time4;
+    return norm2diff;
+  }
 
-        double boundary = norm2 * scale * scale * lambda;
-        if (boundary > 1.0) {
-          proj = 1.0 / Math.sqrt(boundary);
-        }
-        ++t;
+  // sums of the sgd steps of an epoch, or of one thread of a hogwild epoch
+  private static class EpochStats {
+    private int instanceNum;
+    private long itemNum;
+    private double logLikelihood;
+    private long stateScoreNanos;
+    private long forwardNanos;
+    private long backwardNanos;
+    private long updateNanos;
+    private double eta;
+    private double decay;
+    private double proj;
+
+    void add(EpochStats that) {
+      instanceNum += that.instanceNum;
+      itemNum += that.itemNum;
+      logLikelihood += that.logLikelihood;
+      stateScoreNanos += that.stateScoreNanos;
+      forwardNanos += that.forwardNanos;
+      backwardNanos += that.backwardNanos;
+      updateNanos += that.updateNanos;
+    }
+
+    void setLearningRate(double eta, double decay, double proj) {
+      this.eta = eta;
+      this.decay = decay;
+      this.proj = proj;
+    }
+  }
 
+  private static double weightNorm(TrainingWeights weights) {
+    double norm2 = 0;
+    for (double[] array : new double[][] { weights.getBosTransitionWeights(),
+        weights.getEosTransitionWeights(), weights.getTransitionWeights(),
+        weights.getAttributeWeights() }) {
+      for (double weight : array) {
+        norm2 += weight * weight;
       }
+    }
+    return Math.sqrt(norm2);
+  }
 
-      if (scale < 1e-20) {
-        for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
-          bosTransitionWeights[labelIndex] *= scale;
-          eosTransitionWeights[labelIndex] *= scale;
+  /**
+   * Learning rate state shared by the threads of a hogwild epoch. The step counter is global, so
+   * eta follows the same schedule as one thread. decay, the product of (1 - eta * lambda) over
+   * the steps since the last reset, is computed in closed form from the step instead of being
+   * multiplied up in order: 1 - eta * lambda = (t0 + t - 1) / (t0 + t), so the product from step
+   * r to t is (t0 + r - 1) / (t0 + t).
+   */
+  private static class HogwildState {
+    private final double t0;
+    private final double lambda;
+    private final AtomicLong step = new AtomicLong();
+    private volatile long resetStep;
+    private volatile double proj = 1.0;
+    private final AtomicLong norm2 = new AtomicLong(Double.doubleToLongBits(0));
+
+    HogwildState(double t0, double lambda) {
+      this.t0 = t0;
+      this.lambda = lambda;
+    }
+
+    double decay(long t) {
+      return (t0 + resetStep - 1) / (t0 + t);
+    }
+
+    double addNorm2(double diff) {
+      while (true) {
+        long bits = norm2.get();
+        double value = Double.longBitsToDouble(bits) + diff;
+        if (norm2.compareAndSet(bits, Double.doubleToLongBits(value))) {
+          return value;
         }
-        for (int fromLabelIndex = 0; fromLabelIndex < labelNum; fromLabelIndex++) {
-          for (int toLabelIndex = 0; toLabelIndex < labelNum; toLabelIndex++) {
-            transitionWeights[fromLabelIndex * labelNum + toLabelIndex] *= scale;
-          }
+      }
+    }
+
+    /**
+     * @return scale after the last step
+     */
+    double scale() {
+      return decay(step.get() - 1) * proj;
+    }
+
+    // after the weights are multiplied by the scale
+    void reset() {
+      resetStep = step.get();
+      proj = 1.0;
+    }
+  }
+
+  /**
+   * one epoch of lock free (hogwild) sgd: the instances are split into threadNum shards which are
+   * trained in parallel, all threads update the shared weight arrays without synchronization. A
+   * few updates can get lost when two threads update the same weight at the same time, which
+   * sgd tolerates because the updates of different sentences are sparse.
+   *
+   * @param pool
+   *          has threadNum threads and is kept for all epochs, the caller shuts it down
+   * @param stats
+   *          gets the sums of all threads, may be null
+   * @return scale of the weights after the epoch
+   */
+  private static double trainEpochHogwild(final HogwildState state, ExecutorService pool,
+      int threadNum, final List<Instance> trainInstances, final int labelNum,
+      final TrainingWeights weights, EpochStats stats) {
+    List<Future<?>> futures = new ArrayList<Future<?>>(threadNum);
+    final EpochStats[] shardStats = new EpochStats[threadNum];
+    int size = trainInstances.size();
+    for (int shard = 0; shard < threadNum; shard++) {
+      final int from = (int) ((long) size * shard / threadNum);
+      final int to = (int) ((long) size * (shard + 1) / threadNum);
+      final EpochStats threadStats = stats == null ? null : new EpochStats();
+      shardStats[shard] = threadStats;
+      futures.add(pool.submit(new Runnable() {
+        @Override
+        public void run() {
+          trainShard(state, trainInstances.subList(from, to), labelNum, weights, threadStats);
         }
-        // for (int attributeIndex = 0; attributeIndex < attributeNum;
-        // attributeIndex++) {
-        // for (int labelIndex = 0; labelIndex < labelNum; labelIndex++)
-        // {
-        // int idx=attributeIndex * labelNum + labelIndex;
-        // if(idx==54655554){
-        // throw new
-        // RuntimeException(String.format("idx(%d)=attributeIndex(%d) * labelNum(%d) + labelIndex(%d)",idx,attributeIndex,labelNum,labelIndex));
-        // }
-        // attributeWeights[idx] *= scale;
-        // }
-        // }
-        for (int idx = 0; idx < attributeWeights.length; idx++) {
-          attributeWeights[idx] *= scale;
+      }));
+    }
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      if (stats != null) {
+        for (EpochStats threadStats : shardStats) {
+          stats.add(threadStats);
         }
-        decay = 1.0;
-        proj = 1.0;
-        // System.out.println("scale weights and reset decay and proj to 1");
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("training interrupted", e);
+    } catch (ExecutionException e) {
+      // stops the other shards, train shuts the pool down
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+      throw new RuntimeException("training thread failed", e.getCause());
+    }
+    return state.scale();
+  }
+
+  private static void trainShard(HogwildState state, List<Instance> instances, int labelNum,
+      TrainingWeights weights, EpochStats stats) {
+    double[] bosTransitionWeights = weights.getBosTransitionWeights();
+    double[] eosTransitionWeights = weights.getEosTransitionWeights();
+    double[] transitionWeights = weights.getTransitionWeights();
+    double[] attributeWeights = weights.getAttributeWeights();
+    TrainingWorkspace ws = new TrainingWorkspace(labelNum);
+    double lambda = state.lambda;
 
-      if (validate) {
-        EvaluationResult statsOnValidateData = evaluate(validateInstances, weights);
-        // System.out.println("statistics on validate data: ");
-        // System.out.println("\n" + statsOnValidateData.toString() +
-        // "\n");
-        tp.doValidate(statsOnValidateData.toString());
+    for (Instance trainInstance : instances) {
+      if (Thread.currentThread().isInterrupted()) {
+        return;
       }
+      long t = state.step.getAndIncrement();
+      double eta = 1.0 / (lambda * (state.t0 + t));
+      double scale = state.decay(t) * state.proj;
+      double gain = eta / scale;
 
-    }
+      ws.updateExpTransitionWeights(bosTransitionWeights, eosTransitionWeights,
+          transitionWeights);
+      double norm2 = state.addNorm2(sgdStep(trainInstance, ws, gain, attributeWeights,
+          bosTransitionWeights, eosTransitionWeights, transitionWeights, stats));
 
-    // System.out.println("validate on all data");
-    EvaluationResult statsOnValidateData = evaluate(instances, weights);
-    tp.doValidate(statsOnValidateData.toString());
-    // System.out.println("statistics on validate data: ");
-    // System.out.println("\n" + statsOnValidateData.toString() + "\n");
+      double boundary = norm2 * scale * scale * lambda;
+      if (boundary > 1.0) {
+        state.proj = 1.0 / Math.sqrt(boundary);
+      }
+    }
   }
 
   private static EvaluationResult evaluate(List<Instance> instances, TrainingWeights weights) {
@@ -977,7 +1231,7 @@ public class SgdCrf {
   public static double getScore(TrainingWeights weights,Instance instance){
     int labelNum = weights.getLabelTexts().length;
     int[] tagIds=instance.labelIds();
-    double[] stateScores = computeStateScores(instance, false, labelNum, weights.getAttributeWeights());
+    double[] stateScores = computeStateScores(instance, labelNum, weights.getAttributeWeightTable());
     double score=0;
     int labelIndex=tagIds[0];
     score=weights.getBosTransitionWeights()[labelIndex] + stateScores[labelIndex];
@@ -998,8 +1252,8 @@ public class SgdCrf {
     int labelNum = weights.getLabelTexts().length;
     int[] tagIndexes = new int[itemNum];
 
-    double[] stateScores = computeStateScores(instance, false, labelNum,
-        weights.getAttributeWeights());
+    double[] stateScores = computeStateScores(instance, labelNum,
+        weights.getAttributeWeightTable());
 
     int[] bestBackIndexes = new int[itemNum * labelNum];
 
@@ -1375,6 +1629,13 @@ public class SgdCrf {
             + "SgdCrf hdfs-train <hdfs_dir> <model_file> <crf_train_properties_file> <feature_dict> [encoding] [hdfsconf1] [hdfsconf2] ...");
     System.err.println("\t" + "SgdCrf test  <test_file> <model_file> [encoding]");
     System.err.println("\t" + "SgdCrf test2  <test_file> <model_file> [encoding]");
+    System.err.println("\t" + "SgdCrf compile <model_file> <compiled_model_file>");
+    System.err.println("\t"
+        + "SgdCrf compile-perfect-hash <model_file> <compiled_model_file> [fingerprint_bits]");
+    System.err.println("\t" + "SgdCrf map <model_file> <mapped_model_file>");
+    System.err
+        .println("\t"
+            + "SgdCrf quantize <model_file> <double|float|short|byte> <mapped_model_file> [CRF++_format_test_file] [encoding]");
     System.err.println("\t" + "SgdCrf tag <model_file> [nBest] [encoding]");
     System.exit(1);
   }
@@ -1392,6 +1653,10 @@ public class SgdCrf {
     params.setCandidatesNum(getIntParam(props, "candidatesNum", 10));
     params.setSamplesNum(getIntParam(props, "samplesNum", 1000));
     params.setT0(getDoubleParam(props, "t0", 0));
+    params.setThreadNum(getIntParam(props, "threadNum", 1));
+    params.setPrintMetrics(getBooleanParam(props, "printMetrics", false));
+    params.setDictType(FeatureDictEnum.valueOf(props.getProperty("dictType",
+        FeatureDictEnum.TROVE_HASHMAP.name()).trim()));
     String templateFile = props.getProperty("templateFile");
     params.setTemplates(readTemplates(templateFile));
     return params;
@@ -1451,6 +1716,9 @@ public class SgdCrf {
         iter.setValue(newAttrId);
       }
     }
+    if (attributeDict instanceof OffHeapFeatureDict) {
+      ((OffHeapFeatureDict) attributeDict).compact();
+    }
 
     for (Instance instance : instances) {
       int[] oldAttrIds = instance.getAttrIds();
@@ -1480,6 +1748,19 @@ public class SgdCrf {
     }
   }
 
+  private static boolean getBooleanParam(Properties props, String key, boolean defaultValue) {
+    if (props.containsKey(key)) {
+      return Boolean.valueOf(props.getProperty(key).trim());
+    } else {
+      return defaultValue;
+    }
+  }
+
+  // the epochs are only measured if the properties ask for their metrics
+  private static TrainingProgress createProgress(TrainingParams params) {
+    return params.isPrintMetrics() ? new PrintTrainingMetrics() : new PrintTrainingProgress();
+  }
+
   private static Instance buildInstance4Explanation(List<String> attributes, int itemNum,
       List<String> labels, Map<Integer, String> featureMap, Template template,
       FeatureDict attributeDict, TObjectIntHashMap<String> labelDict) {
@@ -1509,7 +1790,7 @@ public class SgdCrf {
 
   private static double[] computeStateScores4Explanation(Instance instance, boolean exp,
       FeatureWeightScore[][] details, Map<Integer, String> featureMap, int labelNum,
-      double[] attributeWeights) {
+      AttributeWeights attributeWeights) {
     int itemNum = instance.length();
     int rowSize = instance.rowSize();
     int[] attrIds = instance.getAttrIds();
@@ -1520,13 +1801,12 @@ public class SgdCrf {
         int attributeIndex = attrIds[itemIndex * rowSize + i];
 
         if (attributeIndex >= 0) {
+          attributeWeights.addTo(attributeIndex, stateScores, itemIndex * labelNum);
           for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
-            stateScores[itemIndex * labelNum + labelIndex] += attributeWeights[attributeIndex
-                * labelNum + labelIndex];
             String feature = featureMap.get(attributeIndex);
             details[itemIndex][labelIndex].features.add(feature);
-            details[itemIndex][labelIndex].weights.add(attributeWeights[attributeIndex * labelNum
-                + labelIndex]);
+            details[itemIndex][labelIndex].weights.add(attributeWeights.get(attributeIndex,
+                labelIndex));
           }
         }
       }
@@ -1587,7 +1867,7 @@ public class SgdCrf {
     double[] bosTransitionWeights = model.weights.getBosTransitionWeights();
     double[] transitionWeights = model.weights.getTransitionWeights();
     double[] eosTransitionWeights = model.weights.getEosTransitionWeights();
-    double[] attributeWeights = model.weights.getAttributeWeights();
+    AttributeWeights attributeWeights = model.weights.getAttributeWeightTable();
     Template template = model.weights.getTemplate();
     FeatureDict attributeDict = model.weights.getAttributeDict();
     TObjectIntHashMap<String> labelDict = model.weights.getLabelDict();
@@ -1677,12 +1957,12 @@ public class SgdCrf {
 
     // compute state scores
     int labelNum = model.weights.getLabelDict().size();
-    double[] attributeWeights = model.weights.getAttributeWeights();
+    AttributeWeights attributeWeights = model.weights.getAttributeWeightTable();
     double[] bosTransitionWeights = model.weights.getBosTransitionWeights();
     double[] transitionWeights = model.weights.getTransitionWeights();
     double[] eosTransitionWeights = model.weights.getEosTransitionWeights();
     String[] labelTexts = model.weights.getLabelTexts();
-    double[] stateScores = computeStateScores(instance, false, labelNum, attributeWeights);
+    double[] stateScores = computeStateScores(instance, labelNum, attributeWeights);
 
     int[][][][] backs = new int[itemNum][][][];
 
@@ -1790,6 +2070,62 @@ public class SgdCrf {
     return result;
   }
 
+  /**
+   * replaces the attribute dict of model by a {@link FeatureIndex} with the same ids, so that
+   * {@link CrfDecoder} can look up features without creating Strings. The model can't be trained
+   * any more afterwards.
+   */
+  public static void compileFeatureDict(CrfModel model) {
+    FeatureDict dict = model.weights.getAttributeDict();
+    if (!(dict instanceof CompiledFeatureDict)) {
+      model.weights.setAttributeDict(FeatureIndex.build(dict));
+    }
+  }
+
+  /**
+   * replaces the attribute dict of model by a {@link PerfectHashFeatureDict} with the same ids,
+   * which keeps no feature Strings and takes a fraction of the memory of the other dicts. Unknown
+   * features are rejected by fingerprints of fingerprintBits bits, one of 2^fingerprintBits of
+   * them gets the id of another feature. A model that has one already keeps it. The model can't
+   * be trained any more afterwards.
+   */
+  public static void compilePerfectHashFeatureDict(CrfModel model, int fingerprintBits) {
+    FeatureDict dict = model.weights.getAttributeDict();
+    if (!(dict instanceof PerfectHashFeatureDict)) {
+      model.weights.setAttributeDict(PerfectHashFeatureDict.build(dict, fingerprintBits));
+    }
+  }
+
+  /**
+   * replaces the attribute weights of model by ones stored as encoding, which trades a little
+   * accuracy for memory: FLOAT takes half of the trained doubles, SHORT and BYTE keep integers
+   * with a scale per attribute. The model can't be trained any more afterwards.
+   */
+  public static void convertAttributeWeights(CrfModel model, WeightEncodingEnum encoding) {
+    AttributeWeights weights = model.weights.getAttributeWeightTable();
+    AttributeWeights converted;
+    if (encoding == WeightEncodingEnum.DOUBLE) {
+      if (model.weights.getAttributeWeights() != null) {
+        return;
+      }
+      int labelNum = weights.getLabelNum();
+      double[] attributeWeights = new double[weights.getAttributeNum() * labelNum];
+      for (int i = 0; i < attributeWeights.length; i++) {
+        attributeWeights[i] = weights.get(i / labelNum, i % labelNum);
+      }
+      model.weights.setAttributeWeights(attributeWeights);
+      return;
+    } else if (encoding == WeightEncodingEnum.FLOAT) {
+      converted = FloatAttributeWeights.convert(weights);
+    } else if (encoding == WeightEncodingEnum.SHORT) {
+      converted = QuantizedAttributeWeights.quantize(weights, 16);
+    } else {
+      converted = QuantizedAttributeWeights.quantize(weights, 8);
+    }
+    model.weights.setAttributeWeights(null);
+    model.weights.setAttributeWeightTable(converted);
+  }
+
   public static String[] tagId2Text(int[] tags, CrfModel model) {
     String[] labelTexts = model.weights.getLabelTexts();
     String[] tagTexts = new String[tags.length];
@@ -1848,11 +2184,10 @@ public class SgdCrf {
 
       TrainingParams params = loadParams(configFilename);
       Template template = new Template(params.getTemplates().toArray(new String[0]));
-      TrainingWeights weights = new TrainingWeights(template, FeatureDictEnum.TROVE_HASHMAP);
+      TrainingWeights weights = new TrainingWeights(template, params.getDictType());
       TrainingDataSet dataSet = SgdCrf.readTrainingData(trainFilename, charset, weights,
           params.getMinFeatureFreq());
-      SgdCrf.train(dataSet, 0, params.getIterationNum(), params, weights,
-          new PrintTrainingProgress());
+      SgdCrf.train(dataSet, 0, params.getIterationNum(), params, weights, createProgress(params));
       dataSet = null;// free memory
       SgdCrf.saveModel(params, weights, modelFilename);
       // SgdCrf.train(dataSet, validateNum, iterationNum, param, model);
@@ -1871,12 +2206,11 @@ public class SgdCrf {
 
       TrainingParams params = loadParams(configFilename);
       Template template = new Template(params.getTemplates().toArray(new String[0]));
-      TrainingWeights weights = new TrainingWeights(template, FeatureDictEnum.TROVE_HASHMAP);
+      TrainingWeights weights = new TrainingWeights(template, params.getDictType());
       TagConvertor tc = new BESB1B2MTagConvertor();
       TrainingDataSet dataSet = SgdCrf.readTrainingData2(trainFilename, charset, weights,
           params.getMinFeatureFreq(), tc);
-      SgdCrf.train(dataSet, 0, params.getIterationNum(), params, weights,
-          new PrintTrainingProgress());
+      SgdCrf.train(dataSet, 0, params.getIterationNum(), params, weights, createProgress(params));
       dataSet = null;
       SgdCrf.saveModel(params, weights, modelFilename);
     }
@@ -1989,6 +2323,55 @@ public class SgdCrf {
       EvaluationResult er = SgdCrf.readAndEvaluate(testFilename, charset, model.weights,
           new BESB1B2MTagConvertor());
       System.out.println(er);
+    } else if (command.equals("compile")) {
+      if (args.length != 3) {
+        showUsageAndExit();
+      }
+      CrfModel model = SgdCrf.loadModel(args[1]);
+      SgdCrf.compileFeatureDict(model);
+      SgdCrf.saveCompiledModel(model, args[2]);
+    } else if (command.equals("compile-perfect-hash")) {
+      if (args.length != 3 && args.length != 4) {
+        showUsageAndExit();
+      }
+      int fingerprintBits = PerfectHashFeatureDict.DEFAULT_FINGERPRINT_BITS;
+      if (args.length > 3) {
+        fingerprintBits = Integer.parseInt(args[3]);
+      }
+      CrfModel model = SgdCrf.loadModel(args[1]);
+      SgdCrf.compilePerfectHashFeatureDict(model, fingerprintBits);
+      SgdCrf.saveCompiledModel(model, args[2]);
+    } else if (command.equals("quantize")) {
+      if (args.length != 4 && args.length != 5 && args.length != 6) {
+        showUsageAndExit();
+      }
+      CrfModel model = SgdCrf.loadModel(args[1]);
+      WeightEncodingEnum encoding = WeightEncodingEnum.valueOf(args[2].toUpperCase());
+      EvaluationResult before = null;
+      List<Instance> instances = null;
+      if (args.length > 4) {
+        String charset = "UTF8";
+        if (args.length > 5) {
+          charset = args[5];
+        }
+        instances = SgdCrf.readTestData(args[4], charset, model.weights);
+        before = SgdCrf.evaluate(instances, model.weights);
+      }
+      SgdCrf.convertAttributeWeights(model, encoding);
+      MappedCrfModel.write(model, args[3]);
+      if (instances != null) {
+        EvaluationResult after = SgdCrf.evaluate(instances, model.weights);
+        System.out.println(after);
+        System.out.println(String.format("item accuracy: %.4f%% -> %.4f%% (%+.4f%%)",
+            before.getAccuracy() * 100, after.getAccuracy() * 100,
+            (after.getAccuracy() - before.getAccuracy()) * 100));
+      }
+    } else if (command.equals("map")) {
+      if (args.length != 3) {
+        showUsageAndExit();
+      }
+      CrfModel model = SgdCrf.loadModel(args[1]);
+      MappedCrfModel.write(model, args[2]);
     } else if (command.equals("seg")) {
       if (args.length != 3 && args.length != 2 && args.length != 4) {
         showUsageAndExit();
@@ -0,0 +1,604 @@
+package com.antbrains.crf;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only double-array trie over chars, built once from sorted keys. Unlike
+ * {@link com.antbrains.datrie.DoubleArrayTrie}, which only finds the longest match, it enumerates
+ * all keys that are prefixes of a text position in one walk, which is what a word lattice needs.
+ * <p>
+ * State s moves to t = base[s] + c + 1 with char c if check[t] == s. The keys ending at s are
+ * marked by t = base[s] with check[t] == s and base[t] = -value - 1. The root is state 0. The
+ * arrays are IntBuffers, so a trie can be used in place from a mapped file, like
+ * com.antbrains.wordseg.MappedSegDictionary does.
+ * <p>
+ * Unlike {@link com.antbrains.datrie.DoubleArrayTrie}, which inserts one key at a time and grows
+ * its arrays as it goes, the whole trie is built in one pass over the sorted keys into arrays
+ * sized up front, see {@link #build(List, int[])}.
+ *
+ * @author lili
+ *
+ */
+public class StaticDoubleArrayTrie implements Serializable {
+  private static final long serialVersionUID = -3342105921307164934L;
+
+  private transient IntBuffer base;
+  private transient IntBuffer check;
+  private transient int arraySize;
+  private int size;
+  private int maxKeyLength;
+
+  /**
+   * wraps the arrays of a trie, e.g. mapped from a file
+   *
+   * @throws IllegalArgumentException
+   *           if base and check differ in length
+   */
+  public StaticDoubleArrayTrie(IntBuffer base, IntBuffer check, int size, int maxKeyLength) {
+    init(base, check);
+    this.size = size;
+    this.maxKeyLength = maxKeyLength;
+  }
+
+  private void init(IntBuffer base, IntBuffer check) {
+    if (base.capacity() != check.capacity()) {
+      throw new IllegalArgumentException("base(" + base.capacity() + ") and check("
+          + check.capacity() + ") differ in length");
+    }
+    this.base = base;
+    this.check = check;
+    this.arraySize = check.capacity();
+  }
+
+  /**
+   * @param keys
+   *          distinct keys in String order
+   * @param values
+   *          value of each key, >= 0, or null to use the index of the key
+   */
+  public static StaticDoubleArrayTrie build(List<String> keys, int[] values) {
+    if (values != null && values.length != keys.size()) {
+      throw new IllegalArgumentException("values.length(" + values.length + ") != keys("
+          + keys.size() + ")");
+    }
+    for (int i = 0; i < keys.size(); i++) {
+      String key = keys.get(i);
+      if (i > 0 && keys.get(i - 1).compareTo(key) >= 0) {
+        throw new IllegalArgumentException("keys not sorted or not distinct: " + keys.get(i - 1)
+            + ", " + key);
+      }
+      if (values != null && values[i] < 0) {
+        throw new IllegalArgumentException("negative value of " + key + ": " + values[i]);
+      }
+    }
+    return buildSorted(keys, values);
+  }
+
+  /**
+   * builds a trie of the distinct words, the values are the indexes of the words in String order
+   */
+  public static StaticDoubleArrayTrie build(List<String> words) {
+    String[] keys = sortByFirstChar(words);
+    int distinct = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (distinct == 0 || !keys[distinct - 1].equals(keys[i])) {
+        keys[distinct++] = keys[i];
+      }
+    }
+    if (distinct < keys.length) {
+      keys = Arrays.copyOf(keys, distinct);
+    }
+    // sorted and distinct, no need to check them again
+    return buildSorted(Arrays.asList(keys), null);
+  }
+
+  // a counting sort by the first char, then a sort of the words with each first char, which
+  // compares much less than one sort of all words. Bucket 0 is for the empty word, bucket c + 1
+  // for the first char c.
+  private static String[] sortByFirstChar(List<String> words) {
+    int[] starts = new int[Character.MAX_VALUE + 3];
+    for (String word : words) {
+      starts[bucket(word) + 1]++;
+    }
+    for (int bucket = 1; bucket < starts.length; bucket++) {
+      starts[bucket] += starts[bucket - 1];
+    }
+    String[] keys = new String[words.size()];
+    for (String word : words) {
+      keys[starts[bucket(word)]++] = word;
+    }
+    // each bucket is now [starts[bucket - 1], starts[bucket])
+    int from = 0;
+    for (int bucket = 0; bucket < starts.length - 1; bucket++) {
+      if (starts[bucket] - from > 1) {
+        Arrays.sort(keys, from, starts[bucket]);
+      }
+      from = starts[bucket];
+    }
+    return keys;
+  }
+
+  private static int bucket(String word) {
+    return word.isEmpty() ? 0 : word.charAt(0) + 1;
+  }
+
+  private static StaticDoubleArrayTrie buildSorted(List<String> keys, int[] values) {
+    int maxKeyLength = 0;
+    for (String key : keys) {
+      maxKeyLength = Math.max(maxKeyLength, key.length());
+    }
+    Builder builder = new Builder(keys, values);
+    builder.build();
+    return new StaticDoubleArrayTrie(IntBuffer.wrap(Arrays.copyOf(builder.base, builder.size)),
+        IntBuffer.wrap(Arrays.copyOf(builder.check, builder.size)), keys.size(), maxKeyLength);
+  }
+
+  /**
+   * @return number of keys
+   */
+  public int size() {
+    return size;
+  }
+
+  public int getMaxKeyLength() {
+    return maxKeyLength;
+  }
+
+  /**
+   * @return length of the base and check arrays
+   */
+  public int getArraySize() {
+    return arraySize;
+  }
+
+  public IntBuffer getBase() {
+    return base.duplicate();
+  }
+
+  public IntBuffer getCheck() {
+    return check.duplicate();
+  }
+
+  /**
+   * @return value of key, -1 if it is not in the trie
+   */
+  public int get(CharSequence key) {
+    int s = 0;
+    for (int i = 0; i < key.length(); i++) {
+      s = next(s, key.charAt(i));
+      if (s < 0) {
+        return -1;
+      }
+    }
+    return value(s);
+  }
+
+  /**
+   * finds all keys that are prefixes of text[start, end), shortest first
+   *
+   * @param lengths
+   *          receives the length of each key found, must hold at least
+   *          min(getMaxKeyLength(), end - start) lengths
+   * @param values
+   *          receives the value of each key found if not null, same size as lengths
+   * @return number of keys found
+   */
+  public int commonPrefixSearch(CharSequence text, int start, int end, int[] lengths,
+      int[] values) {
+    int num = 0;
+    int s = 0;
+    for (int i = start; i < end; i++) {
+      s = next(s, text.charAt(i));
+      if (s < 0) {
+        break;
+      }
+      int value = value(s);
+      if (value >= 0) {
+        lengths[num] = i + 1 - start;
+        if (values != null) {
+          values[num] = value;
+        }
+        num++;
+      }
+    }
+    return num;
+  }
+
+  /**
+   * @return length of the longest key that is a prefix of text[start, end), 0 if there is none
+   */
+  public int longestMatch(CharSequence text, int start, int end) {
+    int length = 0;
+    int s = 0;
+    for (int i = start; i < end; i++) {
+      s = next(s, text.charAt(i));
+      if (s < 0) {
+        break;
+      }
+      if (value(s) >= 0) {
+        length = i + 1 - start;
+      }
+    }
+    return length;
+  }
+
+  private int next(int s, char c) {
+    int t = base.get(s) + c + 1;
+    if (t < arraySize && check.get(t) == s) {
+      return t;
+    }
+    return -1;
+  }
+
+  private int value(int s) {
+    int t = base.get(s);
+    if (t >= 0 && t < arraySize && check.get(t) == s && base.get(t) < 0) {
+      return -base.get(t) - 1;
+    }
+    return -1;
+  }
+
+  /**
+   * iterates over the keys and values in the order of their end states, not in key order
+   */
+  public KeyIterator iterator() {
+    return new KeyIterator();
+  }
+
+  public class KeyIterator {
+    private int state = 0; // slot of the current key end
+    private int next = -1;
+
+    private KeyIterator() {
+    }
+
+    public boolean hasNext() {
+      if (next < 0) {
+        next = state + 1;
+        while (next < arraySize && !isKeyEnd(next)) {
+          next++;
+        }
+      }
+      return next < arraySize;
+    }
+
+    public void next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      state = next;
+      next = -1;
+    }
+
+    public String key() {
+      // walk up to the root, the char of a state is its offset from the base of its parent
+      StringBuilder sb = new StringBuilder();
+      int s = check.get(state);
+      while (s != 0) {
+        int parent = check.get(s);
+        sb.append((char) (s - base.get(parent) - 1));
+        s = parent;
+      }
+      return sb.reverse().toString();
+    }
+
+    public int value() {
+      return -base.get(state) - 1;
+    }
+  }
+
+  // slot t is where the key ending at state check[t] stores its value
+  private boolean isKeyEnd(int t) {
+    int s = check.get(t);
+    return s >= 0 && s != t && base.get(s) == t && base.get(t) < 0;
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeObject(toArray(base));
+    out.writeObject(toArray(check));
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    init(IntBuffer.wrap((int[]) in.readObject()), IntBuffer.wrap((int[]) in.readObject()));
+  }
+
+  private static int[] toArray(IntBuffer buffer) {
+    int[] array = new int[buffer.capacity()];
+    IntBuffer buf = buffer.duplicate();
+    buf.clear();
+    buf.get(array);
+    return array;
+  }
+
+  /**
+   * darts style construction: the children of a node are placed at the first base where all
+   * their slots are free, depth first over the sorted keys. The free slots are kept in a linked
+   * list that taken slots are skipped in lazily, so the search for a base only visits free slots,
+   * and like darts' next_check_pos it starts behind the front of the array once that is nearly
+   * full.
+   * <p>
+   * A node with many children spread over the CJK range, like the feature prefix "U05:元/", fits
+   * almost nowhere in the filled part of the array, and trying the free slots one by one took
+   * hundreds of thousands of tries per node. Such nodes test 256 bases at once against a bitmap of
+   * the taken slots, and like cedar they skip the blocks of 256 bases where a node with no more
+   * children didn't fit.
+   */
+  private static class Builder {
+    // nodes with at least this many children search their base 256 slots at a time
+    private static final int WIDE_NODE = 8;
+    private static final int BLOCK_WORDS = 4;
+
+    private final List<String> keys;
+    private final int[] values;
+    private int[] base;
+    private int[] check; // -1 for a free slot
+    private long[] taken; // bit t is set if slot t is taken
+    // links the free slots in ascending order. A taken slot stays in the list until a walk passes
+    // it, see firstFree.
+    private int[] nextFree;
+    private int size = 1;
+    // where the search for a base starts, the slots before it are nearly all used
+    private int nextCheckPos = 1;
+    // codes and key ranges [left, right) of the children of the current node, code 0 for the key
+    // that ends at it
+    private int[] codes = new int[16];
+    private int[] lefts = new int[16];
+    private int[] rights = new int[16];
+    // word offset and bit shift of each code in the taken bitmap, see findWideBase
+    private int[] wordOffsets = new int[0];
+    private int[] bitShifts = new int[0];
+    // fewest children of a node that didn't fit into each block of 256 bases
+    private int[] rejects;
+
+    Builder(List<String> keys, int[] values) {
+      this.keys = keys;
+      this.values = values;
+      int capacity = (int) Math.min(Integer.MAX_VALUE - 8, estimateCapacity(keys));
+      base = new int[capacity];
+      check = new int[capacity];
+      nextFree = new int[capacity];
+      taken = new long[(capacity + 63) >>> 6];
+      rejects = new int[(capacity >>> 8) + 1];
+      Arrays.fill(check, -1);
+      Arrays.fill(rejects, Integer.MAX_VALUE);
+      linkFree(0, capacity);
+    }
+
+    // one slot per trie node and per key end, plus some room for the gaps between siblings and a
+    // full char range above the last base
+    private static long estimateCapacity(List<String> keys) {
+      long slots = 1;
+      String prev = "";
+      for (String key : keys) {
+        int common = 0;
+        int max = Math.min(prev.length(), key.length());
+        while (common < max && prev.charAt(common) == key.charAt(common)) {
+          common++;
+        }
+        slots += key.length() - common + 1;
+        prev = key;
+      }
+      return slots + slots / 8 + Character.MAX_VALUE + 2;
+    }
+
+    // links the new slots [from, to) each to the next one
+    private void linkFree(int from, int to) {
+      for (int t = from; t < to; t++) {
+        nextFree[t] = t + 1;
+      }
+    }
+
+    private void take(int t) {
+      check[t] = 0;
+      taken[t >>> 6] |= 1L << t;
+    }
+
+    // the first free slot >= t. The links of the taken slots on the way are pointed to the result,
+    // so a later walk skips them in one step.
+    private int firstFree(int t) {
+      int free = t;
+      while (free < check.length && check[free] >= 0) {
+        free = nextFree[free];
+      }
+      while (t < free && check[t] >= 0) {
+        int next = nextFree[t];
+        nextFree[t] = free;
+        t = next;
+      }
+      return free;
+    }
+
+    void build() {
+      check[0] = 0;
+      taken[0] = 1;
+      if (keys.isEmpty()) {
+        return;
+      }
+      // depth first with an explicit stack, a key may be longer than the call stack is deep
+      int[] stack = new int[64];
+      stack[0] = 0;
+      stack[1] = 0;
+      stack[2] = keys.size();
+      stack[3] = 0;
+      int top = 4;
+      while (top > 0) {
+        top -= 4;
+        int s = stack[top];
+        int left = stack[top + 1];
+        int right = stack[top + 2];
+        int depth = stack[top + 3];
+        int num = collectChildren(left, right, depth);
+        int begin = findBase(num);
+        base[s] = begin;
+        for (int i = 0; i < num; i++) {
+          take(begin + codes[i]);
+          check[begin + codes[i]] = s;
+        }
+        size = Math.max(size, begin + codes[num - 1] + 1);
+        if (stack.length < top + num * 4) {
+          stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + num * 4));
+        }
+        // pushed in reverse, so the children are placed in key order like darts does
+        for (int i = num - 1; i >= 0; i--) {
+          int t = begin + codes[i];
+          if (codes[i] == 0) {
+            int value = values == null ? lefts[i] : values[lefts[i]];
+            base[t] = -value - 1;
+          } else {
+            stack[top] = t;
+            stack[top + 1] = lefts[i];
+            stack[top + 2] = rights[i];
+            stack[top + 3] = depth + 1;
+            top += 4;
+          }
+        }
+      }
+    }
+
+    // the keys [left, right) share the first depth chars, returns the number of children
+    private int collectChildren(int left, int right, int depth) {
+      int num = 0;
+      int i = left;
+      while (i < right) {
+        String key = keys.get(i);
+        int code = key.length() == depth ? 0 : key.charAt(depth) + 1;
+        int j = i + 1;
+        while (j < right && code != 0 && keys.get(j).charAt(depth) + 1 == code) {
+          j++;
+        }
+        if (num == codes.length) {
+          codes = Arrays.copyOf(codes, num * 2);
+          lefts = Arrays.copyOf(lefts, num * 2);
+          rights = Arrays.copyOf(rights, num * 2);
+        }
+        codes[num] = code;
+        lefts[num] = i;
+        rights[num] = j;
+        num++;
+        i = j;
+      }
+      return num;
+    }
+
+    private int findBase(int num) {
+      int firstCode = codes[0];
+      int lastCode = codes[num - 1];
+      nextCheckPos = firstFree(nextCheckPos);
+      if (num >= WIDE_NODE) {
+        return findWideBase(num);
+      }
+      // the base must be positive, so the first child of a CJK char starts far behind the front
+      int start = Math.max(nextCheckPos, firstCode + 1);
+      int pos = firstFree(start);
+      int tried = 0;
+      while (true) {
+        if (pos >= check.length) {
+          ensureCapacity(pos + 1);
+        }
+        int begin = pos - firstCode;
+        ensureCapacity(begin + lastCode + 1);
+        boolean free = true;
+        for (int i = 1; i < num; i++) {
+          if (check[begin + codes[i]] >= 0) {
+            free = false;
+            break;
+          }
+        }
+        if (free) {
+          // like darts, skip the front next time if it is nearly full
+          if (start == nextCheckPos && pos > start
+              && 1.0 * (pos - start - tried) / (pos - start) >= 0.95) {
+            nextCheckPos = pos;
+          }
+          return begin;
+        }
+        tried++;
+        pos = firstFree(nextFree[pos]);
+      }
+    }
+
+    private int findWideBase(int num) {
+      int firstCode = codes[0];
+      int lastCode = codes[num - 1];
+      if (wordOffsets.length < num) {
+        wordOffsets = new int[codes.length];
+        bitShifts = new int[codes.length];
+      }
+      for (int i = 0; i < num; i++) {
+        wordOffsets[i] = codes[i] >>> 6;
+        bitShifts[i] = codes[i] & 63;
+      }
+      int begin = Math.max(nextCheckPos - firstCode, 1);
+      for (int word = (begin >>> 6) & -BLOCK_WORDS;; word += BLOCK_WORDS) {
+        // the shifts read one word beyond the block
+        ensureCapacity(((word + BLOCK_WORDS + 1) << 6) + lastCode);
+        int block = word / BLOCK_WORDS;
+        if (num >= rejects[block]) {
+          continue;
+        }
+        // bit i of free0 is set if base word * 64 + i fits, and so on
+        long free0 = ~before(begin, word);
+        long free1 = ~before(begin, word + 1);
+        long free2 = ~before(begin, word + 2);
+        long free3 = ~before(begin, word + 3);
+        for (int i = 0; i < num && (free0 | free1 | free2 | free3) != 0; i++) {
+          int w = word + wordOffsets[i];
+          int shift = bitShifts[i];
+          // taken bits of the slots of this child, the left shift in two steps is 0 for shift 0
+          free0 &= ~(taken[w] >>> shift | (taken[w + 1] << 1) << (63 - shift));
+          free1 &= ~(taken[w + 1] >>> shift | (taken[w + 2] << 1) << (63 - shift));
+          free2 &= ~(taken[w + 2] >>> shift | (taken[w + 3] << 1) << (63 - shift));
+          free3 &= ~(taken[w + 3] >>> shift | (taken[w + 4] << 1) << (63 - shift));
+        }
+        if (free0 != 0) {
+          return (word << 6) + Long.numberOfTrailingZeros(free0);
+        } else if (free1 != 0) {
+          return ((word + 1) << 6) + Long.numberOfTrailingZeros(free1);
+        } else if (free2 != 0) {
+          return ((word + 2) << 6) + Long.numberOfTrailingZeros(free2);
+        } else if (free3 != 0) {
+          return ((word + 3) << 6) + Long.numberOfTrailingZeros(free3);
+        }
+        if (begin <= word << 6) {
+          rejects[block] = num;
+        }
+      }
+    }
+
+    // bit i is set if base word * 64 + i is before begin
+    private static long before(int begin, int word) {
+      int from = word << 6;
+      if (begin <= from) {
+        return 0;
+      } else if (begin >= from + 64) {
+        return -1L;
+      }
+      return (1L << (begin & 63)) - 1;
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (check.length < capacity) {
+        int oldCapacity = check.length;
+        int newCapacity = Math.max(capacity, oldCapacity * 2);
+        base = Arrays.copyOf(base, newCapacity);
+        check = Arrays.copyOf(check, newCapacity);
+        Arrays.fill(check, oldCapacity, newCapacity, -1);
+        nextFree = Arrays.copyOf(nextFree, newCapacity);
+        taken = Arrays.copyOf(taken, (newCapacity + 63) >>> 6);
+        int oldBlocks = rejects.length;
+        rejects = Arrays.copyOf(rejects, (newCapacity >>> 8) + 1);
+        Arrays.fill(rejects, oldBlocks, rejects.length, Integer.MAX_VALUE);
+        linkFree(oldCapacity, newCapacity);
+      }
+    }
+  }
+}
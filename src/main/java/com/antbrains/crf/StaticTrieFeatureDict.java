@@ -0,0 +1,74 @@
+package com.antbrains.crf;
+
+import gnu.trove.iterator.TObjectIntIterator;
+
+/**
+ * Read only {@link FeatureDict} of a {@link StaticDoubleArrayTrie}, which is built in one pass
+ * from the sorted features, see {@link DATrieFeatureDict#build(java.util.List, int[])}.
+ *
+ * @author lili
+ *
+ */
+public class StaticTrieFeatureDict implements FeatureDict {
+  private static final long serialVersionUID = -6001925781466420257L;
+  private StaticDoubleArrayTrie trie;
+
+  public StaticTrieFeatureDict(StaticDoubleArrayTrie trie) {
+    this.trie = trie;
+  }
+
+  public StaticDoubleArrayTrie getTrie() {
+    return trie;
+  }
+
+  @Override
+  public int get(String feature, boolean addIfNotExist) {
+    int id = trie.get(feature);
+    if (id < 0 && addIfNotExist) {
+      throw new UnsupportedOperationException("StaticTrieFeatureDict is read only");
+    }
+    return id;
+  }
+
+  @Override
+  public int size() {
+    return trie.size();
+  }
+
+  @Override
+  public TObjectIntIterator<String> iterator() {
+    final StaticDoubleArrayTrie.KeyIterator iter = trie.iterator();
+    return new TObjectIntIterator<String>() {
+
+      @Override
+      public void advance() {
+        iter.next();
+      }
+
+      @Override
+      public boolean hasNext() {
+        return iter.hasNext();
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public String key() {
+        return iter.key();
+      }
+
+      @Override
+      public int setValue(int value) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public int value() {
+        return iter.value();
+      }
+    };
+  }
+}
@@ -48,8 +48,43 @@ public class Template implements Serializable {
     this.patterns = patterns;
   }
 
-  private String expandPattern(String pattern, int itemIndex, List<String> attributes, int rowSize) {
-    StringBuilder sb = new StringBuilder();
+  /**
+   * the items a pattern is expanded against, each item has one or more columns.
+   */
+  interface Items {
+    public int size();
+
+    public void append(StringBuilder sb, int itemIndex, int column);
+  }
+
+  private static class ListItems implements Items {
+    private List<String> attributes;
+    private int rowSize;
+
+    ListItems(List<String> attributes, int rowSize) {
+      this.attributes = attributes;
+      this.rowSize = rowSize;
+    }
+
+    @Override
+    public int size() {
+      return attributes.size() / rowSize;
+    }
+
+    @Override
+    public void append(StringBuilder sb, int itemIndex, int column) {
+      sb.append(attributes.get(itemIndex * rowSize + column));
+    }
+  }
+
+  /**
+   * appends the expansion of the patternIndex-th pattern at itemIndex to sb
+   */
+  void expandPattern(int patternIndex, int itemIndex, Items items, StringBuilder sb) {
+    expandPattern(patterns[patternIndex], itemIndex, items, sb);
+  }
+
+  private void expandPattern(String pattern, int itemIndex, Items items, StringBuilder sb) {
     for (int i = 0; i < pattern.length(); i++) {
       char c = pattern.charAt(i);
       switch (c) {
@@ -62,7 +97,7 @@ public class Template implements Serializable {
         switch (nextChar) {
         case 'x':
           i++;
-          i = getIndex(sb, pattern, i, itemIndex, attributes, rowSize);
+          i = getIndex(sb, pattern, i, itemIndex, items);
           break;
         default:
           throw new IllegalStateException("template error: " + pattern);
@@ -72,11 +107,9 @@ public class Template implements Serializable {
         sb.append(c);
       }
     }
-    return sb.toString();
   }
 
-  private int getIndex(StringBuilder sb, String template, int index, int pos,
-      List<String> attributes, int rowSize) {
+  private int getIndex(StringBuilder sb, String template, int index, int pos, Items items) {
     char firstChar = template.charAt(index++);
     if (firstChar != '[') {
       throw new IllegalStateException("template error: " + template);
@@ -136,14 +169,14 @@ public class Template implements Serializable {
 
     row *= neg;
 
-    int itemNum = attributes.size() / rowSize;
+    int itemNum = items.size();
     int idx = pos + row;
     if (idx < 0) {
       sb.append(BOS[-idx - 1]);
     } else if (idx >= itemNum) {
       sb.append(EOS[idx - itemNum]);
     } else {
-      sb.append(attributes.get(idx * rowSize + col));
+      items.append(sb, idx, col);
     }
     return index;
   }
@@ -153,11 +186,13 @@ public class Template implements Serializable {
       return Collections.emptyList();
     }
     int rowSize = attributes.size() / itemNum;
+    Items items = new ListItems(attributes, rowSize);
     List<String> expandedAttributes = new ArrayList<String>(itemNum * length());
     for (int itemIndex = 0; itemIndex < itemNum; itemIndex++) {
       for (int patternIndex = 0; patternIndex < length(); patternIndex++) {
-        expandedAttributes
-            .add(expandPattern(patterns[patternIndex], itemIndex, attributes, rowSize));
+        StringBuilder sb = new StringBuilder();
+        expandPattern(patterns[patternIndex], itemIndex, items, sb);
+        expandedAttributes.add(sb.toString());
       }
     }
     return expandedAttributes;
@@ -0,0 +1,244 @@
+package com.antbrains.crf;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Keeps the {@link EpochMetrics} of a training and shows them as MBean, so a running training
+ * can be watched with jconsole. The calls of {@link TrainingProgress} are passed on to a
+ * delegate, which may be another {@link TrainingMetricsListener}:
+ *
+ * <pre>
+ * TrainingMetrics metrics = new TrainingMetrics(new PrintTrainingMetrics());
+ * metrics.register();
+ * SgdCrf.train(dataSet, 0, params.getIterationNum(), params, weights, metrics);
+ * </pre>
+ *
+ * @author lili
+ *
+ */
+public class TrainingMetrics implements TrainingMetricsListener, TrainingMetricsMXBean {
+  public static final String DEFAULT_OBJECT_NAME = "com.antbrains.crf:type=TrainingMetrics";
+
+  private final TrainingProgress delegate;
+  private final List<EpochMetrics> epochs = Collections
+      .synchronizedList(new ArrayList<EpochMetrics>());
+  private volatile boolean training;
+  private ObjectName objectName;
+
+  /**
+   * @param delegate
+   *          may be null
+   */
+  public TrainingMetrics(TrainingProgress delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void startTraining() {
+    epochs.clear();
+    training = true;
+    if (delegate != null) {
+      delegate.startTraining();
+    }
+  }
+
+  @Override
+  public void doIter(int iter) {
+    if (delegate != null) {
+      delegate.doIter(iter);
+    }
+  }
+
+  @Override
+  public void doValidate(String s) {
+    if (delegate != null) {
+      delegate.doValidate(s);
+    }
+  }
+
+  @Override
+  public void doEpoch(EpochMetrics metrics) {
+    epochs.add(metrics);
+    if (delegate instanceof TrainingMetricsListener) {
+      ((TrainingMetricsListener) delegate).doEpoch(metrics);
+    }
+  }
+
+  @Override
+  public void finishTraining() {
+    training = false;
+    if (delegate != null) {
+      delegate.finishTraining();
+    }
+  }
+
+  /**
+   * registers this as MBean with {@link #DEFAULT_OBJECT_NAME} on the platform MBeanServer
+   */
+  public void register() throws JMException {
+    this.register(new ObjectName(DEFAULT_OBJECT_NAME));
+  }
+
+  public synchronized void register(ObjectName name) throws JMException {
+    if (objectName != null) {
+      throw new IllegalStateException("already registered as " + objectName);
+    }
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+    objectName = name;
+  }
+
+  public synchronized void unregister() throws JMException {
+    if (objectName == null) {
+      return;
+    }
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    if (server.isRegistered(objectName)) {
+      server.unregisterMBean(objectName);
+    }
+    objectName = null;
+  }
+
+  /**
+   * @return the metrics of the finished epochs
+   */
+  public List<EpochMetrics> getEpochs() {
+    synchronized (epochs) {
+      return new ArrayList<EpochMetrics>(epochs);
+    }
+  }
+
+  /**
+   * @return the metrics of the last finished epoch, null before the first one
+   */
+  public EpochMetrics getLastEpoch() {
+    synchronized (epochs) {
+      return epochs.isEmpty() ? null : epochs.get(epochs.size() - 1);
+    }
+  }
+
+  @Override
+  public boolean isTraining() {
+    return training;
+  }
+
+  @Override
+  public int getEpoch() {
+    EpochMetrics last = this.getLastEpoch();
+    return last == null ? 0 : last.getEpoch();
+  }
+
+  @Override
+  public int getIterationNum() {
+    EpochMetrics last = this.getLastEpoch();
+    return last == null ? 0 : last.getIterationNum();
+  }
+
+  @Override
+  public double getInstancesPerSecond() {
+    EpochMetrics last = this.getLastEpoch();
+    return last == null ? 0 : last.getInstancesPerSecond();
+  }
+
+  @Override
+  public double getLogLikelihood() {
+    EpochMetrics last = this.getLastEpoch();
+    return last == null ? 0 : last.getLogLikelihood();
+  }
+
+  @Override
+  public double getWeightNorm() {
+    EpochMetrics last = this.getLastEpoch();
+    return last == null ? 0 : last.getWeightNorm();
+  }
+
+  @Override
+  public double getEta() {
+    EpochMetrics last = this.getLastEpoch();
+    return last == null ? 0 : last.getEta();
+  }
+
+  @Override
+  public double getDecay() {
+    EpochMetrics last = this.getLastEpoch();
+    return last == null ? 0 : last.getDecay();
+  }
+
+  @Override
+  public double getProj() {
+    EpochMetrics last = this.getLastEpoch();
+    return last == null ? 0 : last.getProj();
+  }
+
+  @Override
+  public double getValidateAccuracy() {
+    EpochMetrics last = this.getLastEpoch();
+    return last == null ? Double.NaN : last.getValidateAccuracy();
+  }
+
+  @Override
+  public long[] getEpochMillis() {
+    List<EpochMetrics> list = this.getEpochs();
+    long[] result = new long[list.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = list.get(i).getElapsedNanos() / 1000000;
+    }
+    return result;
+  }
+
+  @Override
+  public double[] getLogLikelihoods() {
+    List<EpochMetrics> list = this.getEpochs();
+    double[] result = new double[list.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = list.get(i).getLogLikelihood();
+    }
+    return result;
+  }
+
+  @Override
+  public long[] getStateScoreMillis() {
+    List<EpochMetrics> list = this.getEpochs();
+    long[] result = new long[list.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = list.get(i).getStateScoreNanos() / 1000000;
+    }
+    return result;
+  }
+
+  @Override
+  public long[] getForwardMillis() {
+    List<EpochMetrics> list = this.getEpochs();
+    long[] result = new long[list.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = list.get(i).getForwardNanos() / 1000000;
+    }
+    return result;
+  }
+
+  @Override
+  public long[] getBackwardMillis() {
+    List<EpochMetrics> list = this.getEpochs();
+    long[] result = new long[list.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = list.get(i).getBackwardNanos() / 1000000;
+    }
+    return result;
+  }
+
+  @Override
+  public long[] getUpdateMillis() {
+    List<EpochMetrics> list = this.getEpochs();
+    long[] result = new long[list.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = list.get(i).getUpdateNanos() / 1000000;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,42 @@
+package com.antbrains.crf;
+
+/**
+ * JMX view of {@link TrainingMetrics}. The single values are those of the last finished epoch,
+ * the arrays have one element per finished epoch.
+ *
+ * @author lili
+ *
+ */
+public interface TrainingMetricsMXBean {
+  boolean isTraining();
+
+  int getEpoch();
+
+  int getIterationNum();
+
+  double getInstancesPerSecond();
+
+  double getLogLikelihood();
+
+  double getWeightNorm();
+
+  double getEta();
+
+  double getDecay();
+
+  double getProj();
+
+  double getValidateAccuracy();
+
+  long[] getEpochMillis();
+
+  double[] getLogLikelihoods();
+
+  long[] getStateScoreMillis();
+
+  long[] getForwardMillis();
+
+  long[] getBackwardMillis();
+
+  long[] getUpdateMillis();
+}
@@ -79,6 +79,34 @@ public class TrainingParams implements java.io.Serializable {
   private List<String> templates;
   private int iterationNum; // iteration number
   private double t0;
+  // not part of saved models, so models stay readable by older versions
+  private transient int threadNum; // number of sgd threads, default 1
+  private transient boolean printMetrics; // print the metrics of each epoch, default false
+  private transient FeatureDictEnum dictType; // feature dict of the training, default TROVE_HASHMAP
+
+  public FeatureDictEnum getDictType() {
+    return dictType;
+  }
+
+  public void setDictType(FeatureDictEnum dictType) {
+    this.dictType = dictType;
+  }
+
+  public boolean isPrintMetrics() {
+    return printMetrics;
+  }
+
+  public void setPrintMetrics(boolean printMetrics) {
+    this.printMetrics = printMetrics;
+  }
+
+  public int getThreadNum() {
+    return threadNum;
+  }
+
+  public void setThreadNum(int threadNum) {
+    this.threadNum = threadNum;
+  }
 
   public double getT0() {
     return t0;
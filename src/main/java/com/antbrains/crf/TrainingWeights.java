@@ -41,6 +41,24 @@ public class TrainingWeights implements java.io.Serializable, Writable {
 
   public void setAttributeWeights(double[] attributeWeights) {
     this.attributeWeights = attributeWeights;
+    this.attributeWeightTable = null;
+  }
+
+  /**
+   * attribute weights used for tagging. by default a view of {@link #getAttributeWeights()},
+   * models loaded by {@link MappedCrfModel} only have this one.
+   */
+  public AttributeWeights getAttributeWeightTable() {
+    AttributeWeights table = attributeWeightTable;
+    if (table == null && attributeWeights != null) {
+      table = new DoubleAttributeWeights(attributeWeights, labelTexts.length);
+      attributeWeightTable = table;
+    }
+    return table;
+  }
+
+  public void setAttributeWeightTable(AttributeWeights attributeWeightTable) {
+    this.attributeWeightTable = attributeWeightTable;
   }
 
   // weights of each label as start state
@@ -51,6 +69,7 @@ public class TrainingWeights implements java.io.Serializable, Writable {
   private double[] transitionWeights;
   // weights from label to feature, to speed up, using 1d arrary to represent 2d array
   private double[] attributeWeights;
+  private transient AttributeWeights attributeWeightTable;
 
   public Template getTemplate() {
     return template;
@@ -112,6 +131,8 @@ public class TrainingWeights implements java.io.Serializable, Writable {
       this.attributeDict = new DATrieFeatureDict();
     } else if (dictType == FeatureDictEnum.COMPACT_TROVE_MAP) {
       this.attributeDict = new CompactedTroveFeatureDict(102400);
+    } else if (dictType == FeatureDictEnum.OFF_HEAP_HASHMAP) {
+      this.attributeDict = new OffHeapFeatureDict(102400);
     }
   }
 
@@ -127,6 +148,7 @@ public class TrainingWeights implements java.io.Serializable, Writable {
     int len = in.readInt();
     if (this.attributeWeights == null || this.attributeWeights.length != len) {
       this.attributeWeights = new double[len];
+      this.attributeWeightTable = null;
     }
     for (int i = 0; i < len; i++) {
       this.attributeWeights[i] = in.readDouble();
@@ -0,0 +1,61 @@
+package com.antbrains.crf;
+
+/**
+ * Scratch buffers of one sgd training thread. The forward and backward lattices are flat row-major
+ * arrays (item * labelNum + label) and the buffers only grow, so once they fit the longest
+ * instance, training does not allocate per instance any more.
+ *
+ * @author lili
+ *
+ */
+class TrainingWorkspace {
+  final int labelNum;
+  final double[] expBosTransitionWeights;
+  final double[] expEosTransitionWeights;
+  final double[] expTransitionWeights; // from * labelNum + to
+  final double[] probs;
+
+  double[] stateScores = new double[0];
+  double[] forwardScores = new double[0];
+  double[] backwardScores = new double[0];
+  double[] scaleFactors = new double[0];
+
+  TrainingWorkspace(int labelNum) {
+    this.labelNum = labelNum;
+    expBosTransitionWeights = new double[labelNum];
+    expEosTransitionWeights = new double[labelNum];
+    expTransitionWeights = new double[labelNum * labelNum];
+    probs = new double[labelNum];
+  }
+
+  /**
+   * makes the lattices large enough for an instance of itemNum items
+   */
+  void ensureCapacity(int itemNum) {
+    int scoreNum = itemNum * labelNum;
+    if (stateScores.length < scoreNum) {
+      scoreNum = Math.max(scoreNum, stateScores.length * 2);
+      stateScores = new double[scoreNum];
+      forwardScores = new double[scoreNum];
+      backwardScores = new double[scoreNum];
+    }
+    if (scaleFactors.length < itemNum + 1) {
+      scaleFactors = new double[Math.max(itemNum + 1, scaleFactors.length * 2)];
+    }
+  }
+
+  /**
+   * computes the exp of the bos, eos and transition weights. Every sgd step changes all of them,
+   * so this is called before each instance.
+   */
+  void updateExpTransitionWeights(double[] bosTransitionWeights, double[] eosTransitionWeights,
+      double[] transitionWeights) {
+    for (int labelIndex = 0; labelIndex < labelNum; labelIndex++) {
+      expBosTransitionWeights[labelIndex] = Math.exp(bosTransitionWeights[labelIndex]);
+      expEosTransitionWeights[labelIndex] = Math.exp(eosTransitionWeights[labelIndex]);
+    }
+    for (int i = 0; i < labelNum * labelNum; i++) {
+      expTransitionWeights[i] = Math.exp(transitionWeights[i]);
+    }
+  }
+}
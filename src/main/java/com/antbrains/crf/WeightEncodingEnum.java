@@ -0,0 +1,8 @@
+package com.antbrains.crf;
+
+/**
+ * how attribute weights are stored, see {@link SgdCrf#convertAttributeWeights}
+ */
+public enum WeightEncodingEnum {
+  DOUBLE, FLOAT, SHORT, BYTE
+}
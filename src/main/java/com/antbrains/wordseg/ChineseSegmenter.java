@@ -2,152 +2,384 @@ package com.antbrains.wordseg;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
  
 
 import com.antbrains.crf.BESB1B2MTagConvertor;
+import com.antbrains.crf.CrfDecoder;
 import com.antbrains.crf.CrfModel;
 import com.antbrains.crf.SgdCrf;
 import com.antbrains.crf.TagConvertor;
 import com.antbrains.crf.hadoop.FileTools;
-import com.antbrains.wordseg.Token.Type;
-import com.antbrains.wordseg.luceneanalyzer.CharTermAttribute;
-import com.antbrains.wordseg.luceneanalyzer.OffsetAttribute;
-import com.antbrains.wordseg.luceneanalyzer.StandardTokenizer;
-import com.antbrains.wordseg.luceneanalyzer.TypeAttribute;
-import com.antbrains.wordseg.luceneanalyzer.Version;
+import com.antbrains.wordseg.SegmenterListener.Stage;
+
+
+/**
+ * 先用StandardTokenizer切分，再用MMSeg和RMMSeg分词，两者不一致的地方用CRFs消歧
+ * <p>
+ * Thread safe: the model, the dictionaries and the tag convertor are shared and only read after
+ * construction, everything that is modified while segmenting (the tokenizer and its attributes)
+ * lives in a workspace owned by the calling thread. So one instance can serve many threads in
+ * parallel without locks, and no tokenizer is created per call. Don't change
+ * {@link MMSeg#processNumber} or the model once the segmenter is in use. The dictionary can be
+ * updated at runtime by {@link #addWords}, {@link #removeWords} and {@link #reloadDictionary},
+ * which build new tries in the background and then swap them in.
+ *
+ * @author lili
+ *
+ */
+public class ChineseSegmenter {
+  public ChineseSegmenter(CrfModel model, List<String> words) {
+    this.model = model;
+    this.dictionaries = buildDictionaries(normalizeWords(words));
+  }
 
+  /**
+   * the words of mmseg and rmmseg are unknown, so only {@link #reloadDictionary} can update the
+   * dictionary
+   */
+  public ChineseSegmenter(CrfModel model, MMSeg mmseg, RMMSeg rmmseg) {
+    this.model = model;
+    this.dictionaries = new Dictionaries(null, mmseg, rmmseg);
+  }
 
-public class ChineseSegmenter {
-  private ChineseSegmenter(){
-    try{
-      InputStream is = ChineseSegmenter.class.getResourceAsStream("/crf.model");
-      if(is==null) throw new RuntimeException("can't find /crf.model");
-      model=SgdCrf.loadModel(is);
+  /**
+   * system property with the path of a dictionary compiled by {@link MappedSegDictionary}, which
+   * {@link #loadDefault()} maps instead of building the tries of the /segdict.txt resource
+   */
+  public static final String MAPPED_DICT_PROPERTY = "chinesesegmenter.mappedDict";
+
+  /**
+   * loads the segmenter of the /crf.model resource and the /segdict.txt resource, or the compiled
+   * dictionary of {@link #MAPPED_DICT_PROPERTY}, which is warmed up in the background
+   *
+   * @throws Exception
+   *           if a resource is missing or can't be read
+   */
+  public static ChineseSegmenter loadDefault() throws Exception {
+    InputStream is = ChineseSegmenter.class.getResourceAsStream("/crf.model");
+    if (is == null)
+      throw new IOException("can't find /crf.model");
+    CrfModel model;
+    try {
+      model = SgdCrf.loadModel(is);
+    } finally {
+      is.close();
+    }
+    String mappedDict = System.getProperty(MAPPED_DICT_PROPERTY);
+    if (mappedDict != null) {
+      MappedSegDictionary dictionary = MappedSegDictionary.load(mappedDict, true);
+      return new ChineseSegmenter(model, dictionary.createMmseg(), dictionary.createRmmseg());
+    }
+    is = ChineseSegmenter.class.getResourceAsStream("/segdict.txt");
+    if (is == null)
+      throw new IOException("can't find /segdict.txt");
+    List<String> words;
+    try {
+      words = FileTools.read2List(is, "UTF8");
+    } finally {
       is.close();
-      is = ChineseSegmenter.class.getResourceAsStream("/segdict.txt");
-      List<String> words=FileTools.read2List(is, "UTF8");  
-      this.mmseg=new MMSeg(words);
-      this.rmmseg=new RMMSeg(words);
-    }catch(Exception e){
-      
     }
+    return new ChineseSegmenter(model, words);
   }
-  
-  private static ChineseSegmenter instance;
-  static{
-    instance=new ChineseSegmenter();
+
+  // loads the default segmenter by the first getInstance(), not whenever the class is used
+  private static class InstanceHolder {
+    private static final ChineseSegmenter instance = loadInstance();
+
+    private static ChineseSegmenter loadInstance() {
+      try {
+        return loadDefault();
+      } catch (Exception e) {
+        e.printStackTrace();
+        return null;
+      }
+    }
   }
-  public static ChineseSegmenter getInstance(){
-    return instance;
+
+  /**
+   * @return the segmenter of {@link #loadDefault()}, loaded by the first call, null if it can't be
+   *         loaded. Call loadDefault() to get the error.
+   */
+  public static ChineseSegmenter getInstance() {
+    return InstanceHolder.instance;
   }
+
+  /**
+   * @return MMSeg of the current dictionary
+   */
   public MMSeg getMmseg() {
-    return mmseg;
+    return dictionaries.mmseg;
   }
 
+  /**
+   * @return RMMSeg of the current dictionary
+   */
   public RMMSeg getRmmseg() {
-    return rmmseg;
+    return dictionaries.rmmseg;
   }
 
-  private MMSeg mmseg;
-  private RMMSeg rmmseg;
-  private TagConvertor tc = new BESB1B2MTagConvertor();
-  private CrfModel model;
-  public CrfModel getModel() {
-    return model;
+  // replaced as a whole by dictionary updates, a segmentation reads it once and uses that
+  // snapshot throughout
+  private volatile Dictionaries dictionaries;
+  private volatile SegCache cache;
+
+  /**
+   * puts a cache in front of {@link #seg}, or removes it if cache is null. With a cache, seg
+   * gives the same tokens, but like {@link SegBatchResult#getTokens} their offsets are always
+   * relative to the sentence. Dictionary updates clear the cache.
+   */
+  public void setCache(SegCache cache) {
+    this.cache = cache;
   }
 
-  public List<List<Token>> processByLuceneAnalyzer(String sen) {
-    List<List<Token>> result = new ArrayList<List<Token>>();
-    StandardTokenizer tokenizer = new StandardTokenizer(Version.LUCENE_29, new StringReader(sen));
+  public SegCache getCache() {
+    return cache;
+  }
 
-    CharTermAttribute termAtt = (CharTermAttribute) tokenizer.addAttribute(CharTermAttribute.class);
-    OffsetAttribute offsetAtt = (OffsetAttribute) tokenizer.addAttribute(OffsetAttribute.class);
-    TypeAttribute typeAtt = (TypeAttribute) tokenizer.addAttribute(TypeAttribute.class);
+  private volatile DisambiguationCache disambiguationCache;
+
+  /**
+   * caches the CRF decisions between MMSeg and RMMSeg for {@link #seg} and {@link #segBatch}, or
+   * stops caching them if cache is null. Segmenters can share a cache only if they share the model.
+   *
+   * @throws IllegalArgumentException
+   *           if cache was set on a segmenter with another model
+   */
+  public void setDisambiguationCache(DisambiguationCache cache) {
+    if (cache != null) {
+      cache.bind(model);
+    }
+    this.disambiguationCache = cache;
+  }
 
-    List<Token> subSen = new ArrayList<Token>();
-    try {
-      int lastPos = 0;
-      boolean lastIsCn = false;
-      while (tokenizer.incrementToken()) {
-        int start = offsetAtt.startOffset();
-        int end = offsetAtt.endOffset();
-
-        if (lastPos < start) {// 被StandardAnalyzer扔掉的都认为是标点，不用参与分词
-          for (int i = lastPos; i < start; i++) {
-            if (subSen.size() > 0) {
-              result.add(subSen);
-            }
-            subSen = new ArrayList<Token>();
-            subSen.add(new Token(null, sen, i, i + 1, Type.PUNCT));
-          }
-          lastIsCn = false;
-        }
-        lastPos = end;
-
-        String wordType = typeAtt.type();
-
-        Token token = new Token(sen, start, end);
-        if (wordType.equals("<IDEOGRAPHIC>")) {// 汉字
-          token.setType(Type.CWORD);
-          if (!lastIsCn) {
-            if (subSen.size() > 0) {
-              result.add(subSen);
-              subSen = new ArrayList<Token>();
-            }
-            lastIsCn = true;
-          }
-        } else {
-          lastIsCn = false;
-          if (subSen.size() > 0) {
-            result.add(subSen);
-          }
-          subSen = new ArrayList<Token>();
-          if (wordType.equals("<ALPHANUM>")) {
-            token.setType(Type.ALPHA);
-          } else if (wordType.equals("<NUM>")) {
-            token.setType(Type.NUMBER);
-          }
-        }
-        subSen.add(token);
+  public DisambiguationCache getDisambiguationCache() {
+    return disambiguationCache;
+  }
+
+  private volatile SegmenterListener listener;
+
+  /**
+   * reports the stage timings and counts of {@link #seg} and {@link #segBatch} to listener, or
+   * stops reporting if listener is null. Without a listener nothing is timed.
+   *
+   * @see SegmenterMetrics
+   */
+  public void setListener(SegmenterListener listener) {
+    this.listener = listener;
+  }
+
+  public SegmenterListener getListener() {
+    return listener;
+  }
+
+  /**
+   * immutable dictionary snapshot, words is null if only the tries are known
+   */
+  private static class Dictionaries {
+    private final Set<String> words;
+    private final MMSeg mmseg;
+    private final RMMSeg rmmseg;
+
+    Dictionaries(Set<String> words, MMSeg mmseg, RMMSeg rmmseg) {
+      this.words = words;
+      this.mmseg = mmseg;
+      this.rmmseg = rmmseg;
+    }
+  }
 
+  // the words the tries keep: trimmed and at least 2 chars long
+  private static Set<String> normalizeWords(Collection<String> words) {
+    Set<String> result = new HashSet<String>();
+    for (String word : words) {
+      word = word.trim();
+      if (word.length() >= 2) {
+        result.add(word);
       }
-      if (subSen.size() > 0) {
-        result.add(subSen);
+    }
+    return Collections.unmodifiableSet(result);
+  }
+
+  // the constructor and the updates build the tries the same way, from the normalized words
+  private static Dictionaries buildDictionaries(Set<String> words) {
+    List<String> wordList = new ArrayList<String>(words);
+    return new Dictionaries(words, MMSeg.build(wordList), RMMSeg.build(wordList));
+  }
+
+  private final TagConvertor tc = new BESB1B2MTagConvertor();
+  private final CrfModel model;
+
+  private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+    @Override
+    protected Workspace initialValue() {
+      return new Workspace(model);
+    }
+  };
+
+  public CrfModel getModel() {
+    return model;
+  }
+
+  /**
+   * mutable state of one thread, never shared
+   */
+  private static class Workspace {
+    private final ScriptSplitter splitter = new ScriptSplitter();
+    private final CrfDecoder decoder;
+    // tag ids of the two windows of an ambiguity and their scores
+    private final int[][] candidateTagIds = new int[][] { new int[64], new int[64] };
+    private final double[] scores = new double[2];
+    private final StringBuilder keyBuilder = new StringBuilder();
+    private int[][] tagIdsByLength = new int[16][];
+    // plan of a batch, triples of (start, end, op)
+    private int[] ops = new int[1024];
+    private int opNum;
+    private final List<Ambiguity> ambiguities = new ArrayList<Ambiguity>();
+
+    Workspace(CrfModel model) {
+      decoder = new CrfDecoder(model);
+    }
+
+    void addOp(int start, int end, int op) {
+      if (ops.length < opNum + 3) {
+        int[] newOps = new int[ops.length * 2];
+        System.arraycopy(ops, 0, newOps, 0, opNum);
+        ops = newOps;
       }
-    } catch (IOException e) {
-      e.printStackTrace();
+      ops[opNum++] = start;
+      ops[opNum++] = end;
+      ops[opNum++] = op;
     }
-    return result;
+
+    void addToken(Token token, int base) {
+      Token.Type type = token.getType();
+      addOp(base + token.getBeginIndex(), base + token.getEndIndex(), type == null ? OP_NULL_TYPE
+          : type.ordinal());
+    }
+  }
+
+  // ops of a batch plan besides the ordinal of a token type
+  private static final int OP_NULL_TYPE = -1;
+  private static final int OP_AMBIGUITY = -2;
+  private static final int OP_SENTENCE_END = -3;
+  private static final Token.Type[] TOKEN_TYPES = Token.Type.values();
+
+  /**
+   * span where MMSeg and RMMSeg disagree, resolved after the dictionary pass of a batch
+   */
+  private static class Ambiguity {
+    private final String text;
+    private final int base;
+    private final List<Token> window1;
+    private final List<Token> window2;
+    private final List<Token> tokens1;
+    private final List<Token> tokens2;
+    private boolean first;
+
+    Ambiguity(String text, int base, List<Token> window1, List<Token> window2,
+        List<Token> tokens1, List<Token> tokens2) {
+      this.text = text;
+      this.base = base;
+      this.window1 = window1;
+      this.window2 = window2;
+      this.tokens1 = tokens1;
+      this.tokens2 = tokens2;
+    }
+  }
+
+  public List<List<Token>> processByLuceneAnalyzer(String sen) {
+    return workspaces.get().splitter.split(sen);
   }
 
   public List<Token> seg(String sen) {
+    SegmenterListener listener = this.listener;
+    if (listener == null) {
+      return this.seg(sen, null);
+    }
+    long startTime = System.nanoTime();
+    List<Token> result = this.seg(sen, listener);
+    listener.stage(Stage.TOTAL, System.nanoTime() - startTime);
+    return result;
+  }
+
+  private List<Token> seg(String sen, SegmenterListener listener) {
+    SegCache cache = this.cache;
+    if (cache != null && cache.isCacheable(sen)) {
+      return this.segCached(sen, cache, listener);
+    }
+    return this.segRuns(sen, this.dictionaries, listener, null);
+  }
+
+  /**
+   * @param contextStarts
+   *          gets the start in sen of the context of each token if not null, must be at least
+   *          sen.length() long
+   */
+  private List<Token> segRuns(String sen, Dictionaries dictionaries, SegmenterListener listener,
+      int[] contextStarts) {
     List<Token> result = new ArrayList<Token>();
-    // 先用StandardAnalyzer处理一遍
-    List<List<Token>> subSens = this.processByLuceneAnalyzer(sen);
-    for (List<Token> subSen : subSens) {
-      if (subSen.size() < 2) {
-        result.addAll(subSen);
+    // 先按StandardAnalyzer的边界切分
+    ScriptSplitter splitter = workspaces.get().splitter;
+    long startTime = listener == null ? 0 : System.nanoTime();
+    int runNum = splitter.scan(sen);
+    if (listener != null) {
+      listener.stage(Stage.SPLIT, System.nanoTime() - startTime);
+    }
+    for (int run = 0; run < runNum; run++) {
+      int start = splitter.getStart(run);
+      int end = splitter.getEnd(run);
+      int first = result.size();
+      if (splitter.isSentence(run)) {
+        result.addAll(this.segmentSentence(sen.substring(start, end), dictionaries, listener));
       } else {
-        for (Token tk : this.segmentSentence(subSen)) {
-          result.add(tk);
-
-        }
+        result.add(new Token(null, sen, start, end, splitter.getType(run)));
+        start = 0;
+      }
+      if (contextStarts != null) {
+        Arrays.fill(contextStarts, first, result.size(), start);
       }
     }
+    if (listener != null) {
+      listener.sentences(1, sen.length());
+    }
 
     return result;
   }
 
-  private String tokens2String(List<Token> tokens) {
-    StringBuilder sb = new StringBuilder();
-    for (Token tk : tokens) {
-      sb.append(tk.getNormalizedText());
+  private List<Token> segCached(String sen, SegCache cache, SegmenterListener listener) {
+    SegCache.Entry entry = cache.get(sen);
+    if (entry == null) {
+      // the tokens of a miss are the ones of seg without the cache
+      Dictionaries dictionaries = this.dictionaries;
+      int[] contextStarts = new int[sen.length()];
+      List<Token> tokens = this.segRuns(sen, dictionaries, listener, contextStarts);
+      cache.put(sen, new SegCache.Entry(tokens, contextStarts));
+      // an update clears the cache after it replaced the dictionaries, if that happened before
+      // the put, the entry may come from the old dictionary
+      if (this.dictionaries != dictionaries) {
+        cache.remove(sen);
+      }
+      return tokens;
+    }
+    if (listener != null) {
+      listener.sentences(1, sen.length());
     }
-    return sb.toString();
+    return entry.toTokens(sen);
   }
 
   private boolean isEqual(List<Token> tks1, List<Token> tks2) {
@@ -162,7 +394,9 @@ public class ChineseSegmenter {
     return true;
   }
 
-  private List<int[]> compareResult(List<Token> tks1, List<Token> tks2) {
+  private List<int[]> compareResult(List<Token> tks1, List<Token> tks2,
+      SegmenterListener listener) {
+    long startTime = listener == null ? 0 : System.nanoTime();
     List<int[]> result = new ArrayList<int[]>();
     int i = 0;
     int j = 0;
@@ -222,21 +456,260 @@ public class ChineseSegmenter {
       System.out.println();
 
     }
+    if (listener != null) {
+      listener.stage(Stage.ALIGN, System.nanoTime() - startTime);
+      for (int[] arr : result) {
+        listener.ambiguity(arr[1] - arr[0]);
+      }
+    }
     return result;
   }
 
-  private List<Token> segmentSentence(List<Token> tokens) {
-    // 首先用MMSeg和RMMSeg分词，如果不一致，就用CRFs消歧
-    String s = this.tokens2String(tokens);
+  /**
+   * segments all sentences of the batch, each one into the same tokens as {@link #seg}, but
+   * token offsets are always relative to the sentence. The workspace of the calling thread is
+   * reused for the whole batch, and the spans where MMSeg and RMMSeg disagree are collected in a
+   * dictionary pass over all sentences and then scored together by the CRF.
+   */
+  public SegBatchResult segBatch(List<? extends CharSequence> sentences) {
+    return segBatch(sentences.iterator());
+  }
+
+  /**
+   * same as {@link #segBatch(List)}
+   */
+  public SegBatchResult segBatch(Iterator<? extends CharSequence> sentences) {
+    SegmenterListener listener = this.listener;
+    if (listener == null) {
+      return this.segBatch(sentences, this.dictionaries, null);
+    }
+    long startTime = System.nanoTime();
+    SegBatchResult result = this.segBatch(sentences, this.dictionaries, listener);
+    listener.stage(Stage.TOTAL, System.nanoTime() - startTime);
+    return result;
+  }
 
-    List<Token> tks1 = this.mmseg.seg(s);
-    List<Token> tks2 = this.rmmseg.seg(s);
+  private SegBatchResult segBatch(Iterator<? extends CharSequence> sentences,
+      Dictionaries dictionaries, SegmenterListener listener) {
+    Workspace workspace = workspaces.get();
+    workspace.opNum = 0;
+    workspace.ambiguities.clear();
+    try {
+      int sentenceNum = 0;
+      int charNum = 0;
+      while (sentences.hasNext()) {
+        String sen = sentences.next().toString();
+        ScriptSplitter splitter = workspace.splitter;
+        long startTime = listener == null ? 0 : System.nanoTime();
+        int runNum = splitter.scan(sen);
+        if (listener != null) {
+          listener.stage(Stage.SPLIT, System.nanoTime() - startTime);
+        }
+        for (int run = 0; run < runNum; run++) {
+          int start = splitter.getStart(run);
+          int end = splitter.getEnd(run);
+          if (splitter.isSentence(run)) {
+            this.planSentence(sen.substring(start, end), start, dictionaries, workspace,
+                listener);
+          } else {
+            Token.Type type = splitter.getType(run);
+            workspace.addOp(start, end, type == null ? OP_NULL_TYPE : type.ordinal());
+          }
+        }
+        workspace.addOp(0, 0, OP_SENTENCE_END);
+        sentenceNum++;
+        charNum += sen.length();
+      }
+
+      for (Ambiguity ambiguity : workspace.ambiguities) {
+        ambiguity.first = this.isFirstBetter(ambiguity.text, ambiguity.window1,
+            ambiguity.window2, workspace, listener);
+      }
+      if (listener != null) {
+        listener.sentences(sentenceNum, charNum);
+      }
+
+      SegBatchResult result = new SegBatchResult();
+      int[] ops = workspace.ops;
+      for (int i = 0; i < workspace.opNum; i += 3) {
+        int op = ops[i + 2];
+        if (op == OP_SENTENCE_END) {
+          result.endSentence();
+        } else if (op == OP_AMBIGUITY) {
+          Ambiguity ambiguity = workspace.ambiguities.get(ops[i]);
+          for (Token tk : ambiguity.first ? ambiguity.tokens1 : ambiguity.tokens2) {
+            result.addToken(ambiguity.base + tk.getBeginIndex(), ambiguity.base + tk.getEndIndex(),
+                null);
+          }
+        } else {
+          result.addToken(ops[i], ops[i + 1], op == OP_NULL_TYPE ? null : TOKEN_TYPES[op]);
+        }
+      }
+      return result;
+    } finally {
+      workspace.ambiguities.clear();
+    }
+  }
+
+  // the dictionary pass of segmentSentence, ambiguous spans are left to segBatch
+  private void planSentence(String s, int base, Dictionaries dictionaries, Workspace workspace,
+      SegmenterListener listener) {
+    long startTime = listener == null ? 0 : System.nanoTime();
+    List<Token> tks1 = dictionaries.mmseg.seg(s);
+    List<Token> tks2 = dictionaries.rmmseg.seg(s);
+    if (listener != null) {
+      listener.stage(Stage.MATCH, System.nanoTime() - startTime);
+    }
+
+    if (this.isEqual(tks1, tks2)) {
+      for (Token tk : tks1) {
+        workspace.addToken(tk, base);
+      }
+      return;
+    }
+
+    List<int[]> diff = this.compareResult(tks1, tks2, listener);
+    int lastPos = 0;
+    for (int[] arr : diff) {
+      for (int i = lastPos; i < arr[2]; i++) {
+        workspace.addToken(tks1.get(i), base);
+      }
+      int[] window = this.contextWindow(tks1, tks2, arr);
+      workspace.addOp(workspace.ambiguities.size(), 0, OP_AMBIGUITY);
+      workspace.ambiguities.add(new Ambiguity(s, base, tks1.subList(window[0], window[1]), tks2
+          .subList(window[2], window[3]), tks1.subList(arr[2], arr[4] + 1), tks2.subList(arr[3],
+          arr[5] + 1)));
+      lastPos = arr[4] + 1;
+    }
+    for (int i = lastPos; i < tks1.size(); i++) {
+      workspace.addToken(tks1.get(i), base);
+    }
+  }
+
+  /**
+   * window1 and window2 cover the same characters of s, so the features and state scores are
+   * computed once and only the two label paths are scored. Same decision as comparing
+   * SgdCrf.getScore(String[], TagConvertor, CrfModel) of the words of both windows.
+   *
+   * @return true if window1 scores at least as high as window2
+   */
+  private boolean isFirstBetter(String s, List<Token> window1, List<Token> window2,
+      Workspace workspace, SegmenterListener listener) {
+    int start = window1.get(0).getBeginIndex();
+    int end = window1.get(window1.size() - 1).getEndIndex();
+    DisambiguationCache cache = this.disambiguationCache;
+    if (cache == null) {
+      return this.scoreFirstBetter(s, start, end, window1, window2, workspace, listener);
+    }
+    // window text and the word lengths of both candidates, lengths are stored as chars
+    StringBuilder sb = workspace.keyBuilder;
+    sb.setLength(0);
+    sb.append(s, start, end).append('\0');
+    for (Token tk : window1) {
+      sb.append((char) tk.getLength());
+    }
+    sb.append('\0');
+    for (Token tk : window2) {
+      sb.append((char) tk.getLength());
+    }
+    String key = sb.toString();
+    Boolean firstBetter = cache.get(key);
+    if (firstBetter == null) {
+      firstBetter = this.scoreFirstBetter(s, start, end, window1, window2, workspace, listener);
+      cache.put(key, firstBetter);
+    }
+    return firstBetter;
+  }
+
+  private boolean scoreFirstBetter(String s, int start, int end, List<Token> window1,
+      List<Token> window2, Workspace workspace, SegmenterListener listener) {
+    long startTime = listener == null ? 0 : System.nanoTime();
+    this.setTagIds(window1, 0, end - start, workspace);
+    this.setTagIds(window2, 1, end - start, workspace);
+    double[] scores = workspace.scores;
+    workspace.decoder.getScores(s, start, end, workspace.candidateTagIds, scores);
+    if (listener != null) {
+      listener.stage(Stage.DISAMBIGUATE, System.nanoTime() - startTime);
+    }
+    return scores[0] >= scores[1];
+  }
+
+  private void setTagIds(List<Token> tokens, int candidate, int length, Workspace workspace) {
+    int[] tagIds = workspace.candidateTagIds[candidate];
+    if (tagIds.length < length) {
+      tagIds = new int[Math.max(length, tagIds.length * 2)];
+      workspace.candidateTagIds[candidate] = tagIds;
+    }
+    int pos = 0;
+    for (Token tk : tokens) {
+      int[] wordTagIds = this.getTagIds(tk.getLength(), workspace);
+      System.arraycopy(wordTagIds, 0, tagIds, pos, wordTagIds.length);
+      pos += wordTagIds.length;
+    }
+  }
+
+  // BESB1B2M tags of a word only depend on its length
+  private int[] getTagIds(int length, Workspace workspace) {
+    if (workspace.tagIdsByLength.length <= length) {
+      int[][] newTagIds = new int[Math.max(length + 1, workspace.tagIdsByLength.length * 2)][];
+      System.arraycopy(workspace.tagIdsByLength, 0, newTagIds, 0,
+          workspace.tagIdsByLength.length);
+      workspace.tagIdsByLength = newTagIds;
+    }
+    int[] tagIds = workspace.tagIdsByLength[length];
+    if (tagIds == null) {
+      char[] word = new char[length];
+      Arrays.fill(word, '字');
+      String[] tags = tc.tokens2Tags(new String[] { new String(word) });
+      tagIds = new int[tags.length];
+      for (int i = 0; i < tags.length; i++) {
+        tagIds[i] = model.weights.getLabelDict().get(tags[i]);
+      }
+      workspace.tagIdsByLength[length] = tagIds;
+    }
+    return tagIds;
+  }
+
+  // token ranges [start1, end1) of tks1 and [start2, end2) of tks2 scored to resolve arr
+  private int[] contextWindow(List<Token> tks1, List<Token> tks2, int[] arr) {
+    boolean hasLeftContext = arr[2] > 0;
+    boolean hasRightContext = arr[4] < tks1.size() - 2;
+    if (hasLeftContext) {
+      if (tks1.get(arr[2] - 1).getLength() != tks2.get(arr[3] - 1).getLength()) {
+        hasLeftContext = false;
+      }
+    }
+    if (hasRightContext) {
+      if (tks1.get(arr[4] + 2).getLength() != tks2.get(arr[5] + 2).getLength()) {
+        hasRightContext = false;
+      }
+    }
+    int start1 = hasLeftContext ? arr[2] - 1 : arr[2];
+    int end1 = hasRightContext ? arr[4] + 2 : arr[4] + 1;
+    // 如果上文有歧义，暂时不考虑上下文，主要原因是实现起来有些繁琐，而且上下文影响不是很大
+    // 比如：一千 年 来人 类 历史
+    // 一 千年 来 人类 历史
+    // 当考虑 “来人类” 的时候 ，左边的上下文是不确定的
+    int start2 = hasLeftContext ? arr[3] - 1 : arr[3];
+    int end2 = hasRightContext ? arr[5] + 2 : arr[5] + 1;
+    return new int[] { start1, end1, start2, end2 };
+  }
+
+  private List<Token> segmentSentence(String s, Dictionaries dictionaries,
+      SegmenterListener listener) {
+    // 首先用MMSeg和RMMSeg分词，如果不一致，就用CRFs消歧
+    long startTime = listener == null ? 0 : System.nanoTime();
+    List<Token> tks1 = dictionaries.mmseg.seg(s);
+    List<Token> tks2 = dictionaries.rmmseg.seg(s);
+    if (listener != null) {
+      listener.stage(Stage.MATCH, System.nanoTime() - startTime);
+    }
 
     if (this.isEqual(tks1, tks2)) {
       return tks1;
     }
 
-    List<int[]> diff = this.compareResult(tks1, tks2);
+    List<int[]> diff = this.compareResult(tks1, tks2, listener);
     List<Token> result = new ArrayList<Token>();
     int lastPos = 0;
     for (int[] arr : diff) {
@@ -244,34 +717,11 @@ public class ChineseSegmenter {
         result.add(tks1.get(i));
       }
 
-      boolean hasLeftContext = arr[2] > 0;
-      boolean hasRightContext = arr[4] < tks1.size() - 2;
-      if (hasLeftContext) {
-        if (tks1.get(arr[2] - 1).getLength() != tks2.get(arr[3] - 1).getLength()) {
-          hasLeftContext = false;
-        }
-      }
-      if (hasRightContext) {
-        if (tks1.get(arr[4] + 2).getLength() != tks2.get(arr[5] + 2).getLength()) {
-          hasRightContext = false;
-        }
-      }
-      int start1 = hasLeftContext ? arr[2] - 1 : arr[2];
-      int end1 = hasRightContext ? arr[4] + 2 : arr[4] + 1;
-      // 如果上文有歧义，暂时不考虑上下文，主要原因是实现起来有些繁琐，而且上下文影响不是很大
-      // 比如：一千 年 来人 类 历史
-      // 一 千年 来 人类 历史
-      // 当考虑 “来人类” 的时候 ，左边的上下文是不确定的
-      int start2 = hasLeftContext ? arr[3] - 1 : arr[3];
-      int end2 = hasRightContext ? arr[5] + 2 : arr[5] + 1;
-
-      List<Token> subList1 = tks1.subList(start1, end1);
-      List<Token> subList2 = tks2.subList(start2, end2);
-      
-
-      double score1 = SgdCrf.getScore(this.token2Array(subList1), tc, model);
-      double score2 = SgdCrf.getScore(this.token2Array(subList2), tc, model);
-      if (score1 >= score2) {
+      int[] window = this.contextWindow(tks1, tks2, arr);
+      List<Token> subList1 = tks1.subList(window[0], window[1]);
+      List<Token> subList2 = tks2.subList(window[2], window[3]);
+
+      if (this.isFirstBetter(s, subList1, subList2, workspaces.get(), listener)) {
         result.addAll(tks1.subList(arr[2], arr[4] + 1));
       } else {
         result.addAll(tks2.subList(arr[3], arr[5] + 1));
@@ -285,14 +735,127 @@ public class ChineseSegmenter {
     return result;
 
   }
-  
-  
-  private String[] token2Array(List<Token> tokens){
-    String[] result=new String[tokens.size()];
-    int i=0;
-    for(Token token:tokens){
-      result[i++]=token.getOrigText();
+
+  /**
+   * new word set of a dictionary update, computed on the updater thread
+   */
+  private static abstract class WordSetChange {
+    abstract Set<String> apply(Set<String> words) throws Exception;
+  }
+
+  // builds the tries of dictionary updates in the background, one at a time, so concurrent
+  // updates don't lose each other's words
+  private static class DictionaryUpdater {
+    private static final ExecutorService executor = Executors
+        .newSingleThreadExecutor(new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "dictionary-updater");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  }
+
+  /**
+   * adds words to the dictionary. New tries are built in the background and replace the old ones
+   * atomically: seg and segBatch calls never block, a call uses either the old or the new
+   * dictionary. Needs a segmenter that knows its words, see
+   * {@link #ChineseSegmenter(CrfModel, MMSeg, RMMSeg)}.
+   *
+   * @return completes when the new dictionary is in use
+   */
+  public Future<DictionaryUpdate> addWords(final Collection<String> words) {
+    return this.updateDictionary(new WordSetChange() {
+      @Override
+      Set<String> apply(Set<String> oldWords) {
+        Set<String> result = new HashSet<String>(checkWords(oldWords));
+        result.addAll(normalizeWords(words));
+        return Collections.unmodifiableSet(result);
+      }
+    });
+  }
+
+  /**
+   * removes words from the dictionary, see {@link #addWords}
+   */
+  public Future<DictionaryUpdate> removeWords(final Collection<String> words) {
+    return this.updateDictionary(new WordSetChange() {
+      @Override
+      Set<String> apply(Set<String> oldWords) {
+        Set<String> result = new HashSet<String>(checkWords(oldWords));
+        result.removeAll(normalizeWords(words));
+        return Collections.unmodifiableSet(result);
+      }
+    });
+  }
+
+  /**
+   * replaces the dictionary by words, see {@link #addWords}
+   */
+  public Future<DictionaryUpdate> reloadDictionary(final List<String> words) {
+    return this.updateDictionary(new WordSetChange() {
+      @Override
+      Set<String> apply(Set<String> oldWords) {
+        return normalizeWords(words);
+      }
+    });
+  }
+
+  /**
+   * replaces the dictionary by the words of a file, one word per line. The file is read in the
+   * background too, if it can't be read the dictionary is kept and the future fails.
+   */
+  public Future<DictionaryUpdate> reloadDictionary(final String dictPath, final String encoding) {
+    return this.updateDictionary(new WordSetChange() {
+      @Override
+      Set<String> apply(Set<String> oldWords) throws IOException {
+        return normalizeWords(FileTools.readFile2List(dictPath, encoding));
+      }
+    });
+  }
+
+  private static Set<String> checkWords(Set<String> words) {
+    if (words == null) {
+      throw new IllegalStateException("words of the dictionary unknown, use reloadDictionary");
+    }
+    return words;
+  }
+
+  private Future<DictionaryUpdate> updateDictionary(final WordSetChange change) {
+    return DictionaryUpdater.executor.submit(new Callable<DictionaryUpdate>() {
+      @Override
+      public DictionaryUpdate call() throws Exception {
+        // only this thread replaces the dictionaries, so nothing can change them meanwhile
+        Dictionaries oldDictionaries = dictionaries;
+        Set<String> words = change.apply(oldDictionaries.words);
+        long allocatedBytes = allocatedBytes();
+        long start = System.nanoTime();
+        Dictionaries newDictionaries = buildDictionaries(words);
+        long buildTime = (System.nanoTime() - start) / 1000000;
+        if (allocatedBytes >= 0) {
+          allocatedBytes = allocatedBytes() - allocatedBytes;
+        }
+        dictionaries = newDictionaries;
+        SegCache cache = ChineseSegmenter.this.cache;
+        if (cache != null) {
+          cache.clear();
+        }
+        return new DictionaryUpdate(oldDictionaries.words == null ? -1 : oldDictionaries.words
+            .size(), words.size(), buildTime, allocatedBytes);
+      }
+    });
+  }
+
+  // bytes allocated by the current thread so far, -1 if the jvm can't tell
+  private static long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+      if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+        return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
     }
-    return result;
+    return -1;
   }
 }
@@ -0,0 +1,90 @@
+package com.antbrains.wordseg;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import com.antbrains.wordseg.luceneanalyzer.CharTermAttribute;
+import com.antbrains.wordseg.luceneanalyzer.OffsetAttribute;
+import com.antbrains.wordseg.luceneanalyzer.PositionIncrementAttribute;
+import com.antbrains.wordseg.luceneanalyzer.Tokenizer;
+import com.antbrains.wordseg.luceneanalyzer.TypeAttribute;
+
+/**
+ * Tokenizer of the words of {@link ChineseSegmenter}, one per {@link #incrementToken()}, for
+ * analysis chains. The input is segmented chunk by chunk by a {@link StreamSegmenter}, and the
+ * attributes are filled in place, so after {@link #reset(Reader)} the buffers are reused for the
+ * next document. Punctuation and whitespace are not returned, like StandardTokenizer does. The
+ * type of a token is {@link #WORD_TYPE} for words of the dictionaries, else the name of its
+ * {@link Token.Type} in angle brackets, like &lt;ALPHA&gt;.
+ *
+ * @author lili
+ *
+ */
+public final class ChineseTokenizer extends Tokenizer {
+  public static final String WORD_TYPE = "<WORD>";
+  private static final String[] TOKEN_TYPES;
+  static {
+    Token.Type[] types = Token.Type.values();
+    TOKEN_TYPES = new String[types.length];
+    for (int i = 0; i < types.length; i++) {
+      TOKEN_TYPES[i] = "<" + types[i].name() + ">";
+    }
+  }
+
+  private final StreamSegmenter stream;
+
+  private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+  private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+  private final PositionIncrementAttribute posIncrAtt = addAttribute(PositionIncrementAttribute.class);
+  private final TypeAttribute typeAtt = addAttribute(TypeAttribute.class);
+
+  public ChineseTokenizer(Reader input) {
+    this(ChineseSegmenter.getInstance(), input);
+  }
+
+  public ChineseTokenizer(ChineseSegmenter segmenter, Reader input) {
+    this(segmenter, input, StreamSegmenter.DEFAULT_MAX_CHUNK_LENGTH);
+  }
+
+  /**
+   * @param maxChunkLength
+   *          see {@link StreamSegmenter#StreamSegmenter(ChineseSegmenter, Reader, int)}
+   */
+  public ChineseTokenizer(ChineseSegmenter segmenter, Reader input, int maxChunkLength) {
+    super(input);
+    stream = new StreamSegmenter(segmenter, this.input, maxChunkLength);
+  }
+
+  @Override
+  public boolean incrementToken() throws IOException {
+    clearAttributes();
+    while (stream.incrementToken()) {
+      Token.Type type = stream.getType();
+      if (type == Token.Type.PUNCT) {
+        continue;
+      }
+      int start = stream.getStart();
+      int end = stream.getEnd();
+      termAtt.append(stream.getChunk(), start, end);
+      int offset = (int) stream.getOffset();
+      offsetAtt.setOffset(correctOffset(offset), correctOffset(offset + end - start));
+      posIncrAtt.setPositionIncrement(1);
+      typeAtt.setType(type == null ? WORD_TYPE : TOKEN_TYPES[type.ordinal()]);
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public void end() {
+    // set final offset
+    int finalOffset = correctOffset((int) stream.getReadLength());
+    offsetAtt.setOffset(finalOffset, finalOffset);
+  }
+
+  @Override
+  public void reset(Reader reader) throws IOException {
+    super.reset(reader);
+    stream.reset(reader);
+  }
+}
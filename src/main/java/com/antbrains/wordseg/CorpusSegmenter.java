@@ -0,0 +1,277 @@
+package com.antbrains.wordseg;
+
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.antbrains.crf.BESB1B2MTagConvertor;
+import com.antbrains.crf.CrfModel;
+import com.antbrains.crf.SgdCrf;
+import com.antbrains.crf.TagConvertor;
+
+/**
+ * Segments a large corpus file with all cores. The input is decoded in chunks from a
+ * {@link FileChannel} and cut into tasks of about {@link #TASK_CHARS} chars of whole lines, which
+ * a fixed pool of workers segments. At most 2 tasks per worker are in flight, so memory stays
+ * bounded, and results are written in the order of the input: one line per input line, words
+ * separated by tab.
+ * <p>
+ * By default lines are segmented by {@link ChineseSegmenter#segBatch}, with "crf" by
+ * {@link SgdCrf#segment} only.
+ *
+ * @author lili
+ *
+ */
+public class CorpusSegmenter {
+  public static final int TASK_CHARS = 256 * 1024;
+  private static final int READ_BUFFER_SIZE = 4 * 1024 * 1024;
+  private static final long REPORT_INTERVAL = 10000;
+
+  private final ChineseSegmenter segmenter;
+  private final CrfModel model;
+  private final TagConvertor tc = new BESB1B2MTagConvertor();
+  private final int threadNum;
+
+  private long charNum;
+  private long sentenceNum;
+
+  /**
+   * segments by segmenter
+   */
+  public CorpusSegmenter(ChineseSegmenter segmenter, int threadNum) {
+    this.segmenter = segmenter;
+    this.model = null;
+    this.threadNum = threadNum;
+  }
+
+  /**
+   * segments by the crf model only
+   */
+  public CorpusSegmenter(CrfModel model, int threadNum) {
+    this.segmenter = null;
+    this.model = model;
+    this.threadNum = threadNum;
+  }
+
+  public long getCharNum() {
+    return charNum;
+  }
+
+  public long getSentenceNum() {
+    return sentenceNum;
+  }
+
+  public void segment(String inFile, String outFile, String charset) throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(threadNum);
+    FileInputStream fis = null;
+    Writer writer = null;
+    try {
+      fis = new FileInputStream(inFile);
+      writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outFile), charset),
+          READ_BUFFER_SIZE);
+      LineChunkReader reader = new LineChunkReader(fis.getChannel(), Charset.forName(charset));
+      ArrayDeque<Future<String>> pending = new ArrayDeque<Future<String>>();
+      long startTime = System.currentTimeMillis();
+      long lastReport = startTime;
+      List<String> lines;
+      while (!(lines = reader.readLines(TASK_CHARS)).isEmpty()) {
+        for (String line : lines) {
+          charNum += line.length();
+        }
+        sentenceNum += lines.size();
+        pending.add(pool.submit(this.createTask(lines)));
+        if (pending.size() >= threadNum * 2) {
+          writer.write(pending.poll().get());
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastReport >= REPORT_INTERVAL) {
+          System.out.println(report(now - startTime));
+          lastReport = now;
+        }
+      }
+      while (!pending.isEmpty()) {
+        writer.write(pending.poll().get());
+      }
+      writer.flush();
+      System.out.println(report(System.currentTimeMillis() - startTime));
+    } finally {
+      pool.shutdownNow();
+      if (writer != null) {
+        writer.close();
+      }
+      if (fis != null) {
+        fis.close();
+      }
+    }
+  }
+
+  private String report(long time) {
+    double seconds = Math.max(time, 1) / 1000.0;
+    return String.format("%d sentences, %d chars in %.1fs: %.0f sentences/s, %.0f chars/s",
+        sentenceNum, charNum, seconds, sentenceNum / seconds, charNum / seconds);
+  }
+
+  private Callable<String> createTask(final List<String> lines) {
+    return new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        StringBuilder sb = new StringBuilder(TASK_CHARS * 2);
+        if (segmenter != null) {
+          SegBatchResult result = segmenter.segBatch(lines);
+          for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            int end = result.getFirstToken(i + 1);
+            for (int token = result.getFirstToken(i); token < end; token++) {
+              if (token > result.getFirstToken(i)) {
+                sb.append('\t');
+              }
+              sb.append(line, result.getStart(token), result.getEnd(token));
+            }
+            sb.append('\n');
+          }
+        } else {
+          for (String line : lines) {
+            if (line.length() > 0) {
+              boolean isFirst = true;
+              for (String word : SgdCrf.segment(line, model, tc)) {
+                if (isFirst) {
+                  isFirst = false;
+                } else {
+                  sb.append('\t');
+                }
+                sb.append(word);
+              }
+            }
+            sb.append('\n');
+          }
+        }
+        return sb.toString();
+      }
+    };
+  }
+
+  /**
+   * reads whole lines from a channel, decoding a buffer of bytes at a time
+   */
+  private static class LineChunkReader {
+    private final FileChannel channel;
+    private final CharsetDecoder decoder;
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(READ_BUFFER_SIZE);
+    private final StringBuilder line = new StringBuilder();
+    private boolean eof;
+    private boolean finished;
+
+    LineChunkReader(FileChannel channel, Charset charset) {
+      this.channel = channel;
+      this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      chars.flip();
+    }
+
+    /**
+     * @return whole lines of about maxChars chars in total, empty at the end of the input
+     */
+    List<String> readLines(int maxChars) throws IOException {
+      List<String> lines = new ArrayList<String>();
+      int charNum = 0;
+      while (charNum < maxChars) {
+        if (!chars.hasRemaining() && !fill()) {
+          if (line.length() > 0) {
+            lines.add(line.toString());
+            line.setLength(0);
+          }
+          break;
+        }
+        char[] array = chars.array();
+        int end = chars.limit();
+        int pos = chars.position();
+        int lineEnd = pos;
+        while (lineEnd < end && array[lineEnd] != '\n') {
+          lineEnd++;
+        }
+        line.append(array, pos, lineEnd - pos);
+        if (lineEnd < end) {
+          int length = line.length();
+          if (length > 0 && line.charAt(length - 1) == '\r') {
+            line.setLength(length - 1);
+          }
+          lines.add(line.toString());
+          charNum += line.length() + 1;
+          line.setLength(0);
+          lineEnd++;
+        }
+        chars.position(lineEnd);
+      }
+      return lines;
+    }
+
+    private boolean fill() throws IOException {
+      if (finished) {
+        return false;
+      }
+      chars.clear();
+      while (chars.position() == 0 && !finished) {
+        if (!eof && channel.read(bytes) < 0) {
+          eof = true;
+        }
+        bytes.flip();
+        decoder.decode(bytes, chars, eof);
+        bytes.compact();
+        if (eof) {
+          decoder.flush(chars);
+          finished = true;
+        }
+      }
+      chars.flip();
+      return chars.hasRemaining();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2 || args.length > 6) {
+      System.err.println("Usage: CorpusSegmenter <input_file> <output_file> [thread_num] [encoding] [crf <model_file>]");
+      System.exit(1);
+    }
+    int threadNum = Runtime.getRuntime().availableProcessors();
+    if (args.length > 2) {
+      threadNum = Integer.parseInt(args[2]);
+    }
+    String charset = "UTF8";
+    if (args.length > 3) {
+      charset = args[3];
+    }
+    CorpusSegmenter corpusSegmenter;
+    if (args.length > 4) {
+      if (args.length != 6 || !args[4].equals("crf")) {
+        System.err.println("Usage: CorpusSegmenter <input_file> <output_file> [thread_num] [encoding] [crf <model_file>]");
+        System.exit(1);
+      }
+      corpusSegmenter = new CorpusSegmenter(SgdCrf.loadModel(args[5]), threadNum);
+    } else {
+      ChineseSegmenter segmenter = ChineseSegmenter.getInstance();
+      if (segmenter == null) {
+        System.err.println("can't load the default ChineseSegmenter");
+        System.exit(1);
+      }
+      corpusSegmenter = new CorpusSegmenter(segmenter, threadNum);
+    }
+    corpusSegmenter.segment(args[0], args[1], charset);
+  }
+}
@@ -0,0 +1,54 @@
+package com.antbrains.wordseg;
+
+/**
+ * Result of a runtime dictionary update of {@link ChineseSegmenter}, with the cost of building
+ * the new tries while the old ones are still in use.
+ *
+ * @author lili
+ *
+ */
+public class DictionaryUpdate {
+  private final int oldWordNum;
+  private final int wordNum;
+  private final long buildTime;
+  private final long allocatedBytes;
+
+  DictionaryUpdate(int oldWordNum, int wordNum, long buildTime, long allocatedBytes) {
+    this.oldWordNum = oldWordNum;
+    this.wordNum = wordNum;
+    this.buildTime = buildTime;
+    this.allocatedBytes = allocatedBytes;
+  }
+
+  /**
+   * @return number of words before the update, -1 if unknown
+   */
+  public int getOldWordNum() {
+    return oldWordNum;
+  }
+
+  public int getWordNum() {
+    return wordNum;
+  }
+
+  /**
+   * @return milliseconds to build the forward and reverse tries
+   */
+  public long getBuildTime() {
+    return buildTime;
+  }
+
+  /**
+   * @return bytes allocated to build the new tries, an upper bound of the memory they add while
+   *         the old ones are still in use, -1 if the jvm can't measure it
+   */
+  public long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d -> %d words, built in %dms, allocated %dKB", oldWordNum, wordNum,
+        buildTime, allocatedBytes / 1024);
+  }
+}
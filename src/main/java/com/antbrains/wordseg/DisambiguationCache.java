@@ -0,0 +1,176 @@
+package com.antbrains.wordseg;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.antbrains.crf.CrfModel;
+
+/**
+ * Bounded cache of the CRF decisions of {@link ChineseSegmenter} where MMSeg and RMMSeg disagree.
+ * The same ambiguous fragments, like "结合成" or "一千年来", come up in many different sentences,
+ * so unlike {@link SegCache} it also helps on long and new sentences. The key is the text of the
+ * context window and the word lengths of both candidates, the value which one won.
+ * <p>
+ * The decision only depends on the key and the model, so a cache belongs to the model of the first
+ * segmenter it is set on and can't be shared with segmenters of other models. The entries stay
+ * valid when the dictionary is updated: a new dictionary gives new candidates and thus new keys.
+ * The cache is split into stripes by hash, each one an LRU map with its own lock.
+ *
+ * @author lili
+ *
+ */
+public class DisambiguationCache {
+  private final Stripe[] stripes;
+  private final int maxEntries;
+  private CrfModel model;
+
+  public DisambiguationCache(int maxEntries) {
+    this(maxEntries, 64);
+  }
+
+  /**
+   * @param stripeNum
+   *          number of stripes, rounded up to a power of 2
+   */
+  public DisambiguationCache(int maxEntries, int stripeNum) {
+    if (maxEntries <= 0 || stripeNum <= 0) {
+      throw new IllegalArgumentException("maxEntries(" + maxEntries + ") and stripeNum("
+          + stripeNum + ") must be positive");
+    }
+    int n = 1;
+    while (n < stripeNum) {
+      n <<= 1;
+    }
+    stripes = new Stripe[n];
+    for (int i = 0; i < n; i++) {
+      stripes[i] = new Stripe(Math.max(1, maxEntries / n));
+    }
+    this.maxEntries = maxEntries;
+  }
+
+  private static class Stripe extends LinkedHashMap<String, Boolean> {
+    private static final long serialVersionUID = 1L;
+    private final int maxEntries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    Stripe(int maxEntries) {
+      super(16, 0.75f, true);
+      this.maxEntries = maxEntries;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+      if (size() > maxEntries) {
+        evictions++;
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * binds the cache to model if it has none yet
+   *
+   * @throws IllegalArgumentException
+   *           if the cache already holds the decisions of another model
+   */
+  synchronized void bind(CrfModel model) {
+    if (this.model == null) {
+      this.model = model;
+    } else if (this.model != model) {
+      throw new IllegalArgumentException("the cache holds the decisions of another model");
+    }
+  }
+
+  private Stripe stripe(String key) {
+    int h = key.hashCode();
+    h ^= h >>> 16;
+    return stripes[h & (stripes.length - 1)];
+  }
+
+  /**
+   * @return whether the first candidate won, null if the key isn't cached
+   */
+  Boolean get(String key) {
+    Stripe stripe = stripe(key);
+    synchronized (stripe) {
+      Boolean firstBetter = stripe.get(key);
+      if (firstBetter == null) {
+        stripe.misses++;
+      } else {
+        stripe.hits++;
+      }
+      return firstBetter;
+    }
+  }
+
+  void put(String key, boolean firstBetter) {
+    Stripe stripe = stripe(key);
+    synchronized (stripe) {
+      stripe.put(key, firstBetter);
+    }
+  }
+
+  public void clear() {
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        stripe.clear();
+      }
+    }
+  }
+
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  public int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  public long getHitCount() {
+    long hits = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        hits += stripe.hits;
+      }
+    }
+    return hits;
+  }
+
+  public long getMissCount() {
+    long misses = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        misses += stripe.misses;
+      }
+    }
+    return misses;
+  }
+
+  public long getEvictionCount() {
+    long evictions = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        evictions += stripe.evictions;
+      }
+    }
+    return evictions;
+  }
+
+  @Override
+  public String toString() {
+    long hits = getHitCount();
+    long misses = getMissCount();
+    return String.format("%d of %d entries, hits %d, misses %d (%.1f%% hit), evictions %d",
+        size(), maxEntries, hits, misses, 100.0 * hits / Math.max(1, hits + misses),
+        getEvictionCount());
+  }
+}
@@ -0,0 +1,225 @@
+package com.antbrains.wordseg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.antbrains.crf.BESB1B2MTagConvertor;
+import com.antbrains.crf.CrfDecoder;
+import com.antbrains.crf.CrfModel;
+import com.antbrains.crf.StaticDoubleArrayTrie;
+import com.antbrains.crf.TagConvertor;
+import com.antbrains.crf.TrainingWeights;
+
+/**
+ * Segments runs of Chinese characters by the best path through a word lattice. The candidate
+ * words at a position are the single character and every dictionary word starting there, found
+ * in one common prefix walk of a {@link StaticDoubleArrayTrie}. Each candidate is labeled with
+ * its BESB1B2M tags, and one Viterbi search over the CRF state scores of the run, computed once,
+ * picks the segmentation with the highest CRF score. {@link ChineseSegmenter} only chooses
+ * between MMSeg and RMMSeg where they disagree, here all dictionary segmentations compete.
+ * <p>
+ * Thread safe like {@link ChineseSegmenter}: the trie and the model are only read, the decoder
+ * and the lattice buffers live in a workspace of the calling thread.
+ *
+ * @author lili
+ *
+ */
+public class LatticeSegmenter {
+  private final CrfModel model;
+  private final StaticDoubleArrayTrie trie;
+  private final int labelNum;
+  // tag ids of a word of each length, 1 to the longest word
+  private final int[][] tagIdsByLength;
+  // sum of the transition weights inside a word of each length
+  private final double[] wordTransitionScores;
+
+  private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+    @Override
+    protected Workspace initialValue() {
+      return new Workspace(model, tagIdsByLength.length);
+    }
+  };
+
+  /**
+   * @param words
+   *          dictionary, words shorter than 2 chars are ignored like {@link RMMSeg} does
+   */
+  public LatticeSegmenter(CrfModel model, List<String> words) {
+    this(model, buildTrie(words));
+  }
+
+  public LatticeSegmenter(CrfModel model, StaticDoubleArrayTrie trie) {
+    this.model = model;
+    this.trie = trie;
+    TrainingWeights weights = model.weights;
+    this.labelNum = weights.getLabelTexts().length;
+    int maxLength = Math.max(1, trie.getMaxKeyLength());
+    this.tagIdsByLength = new int[maxLength + 1][];
+    this.wordTransitionScores = new double[maxLength + 1];
+    TagConvertor tc = new BESB1B2MTagConvertor();
+    double[] transitionWeights = weights.getTransitionWeights();
+    for (int length = 1; length <= maxLength; length++) {
+      char[] word = new char[length];
+      Arrays.fill(word, '字');
+      String[] tags = tc.tokens2Tags(new String[] { new String(word) });
+      int[] tagIds = new int[tags.length];
+      for (int i = 0; i < tags.length; i++) {
+        if (!weights.getLabelDict().containsKey(tags[i])) {
+          throw new IllegalArgumentException("model has no label " + tags[i]);
+        }
+        tagIds[i] = weights.getLabelDict().get(tags[i]);
+        if (i > 0) {
+          wordTransitionScores[length] += transitionWeights[tagIds[i - 1] * labelNum + tagIds[i]];
+        }
+      }
+      tagIdsByLength[length] = tagIds;
+    }
+  }
+
+  private static StaticDoubleArrayTrie buildTrie(List<String> words) {
+    List<String> keys = new ArrayList<String>(words.size());
+    for (String word : words) {
+      word = word.trim();
+      if (word.length() >= 2) {
+        keys.add(word);
+      }
+    }
+    return StaticDoubleArrayTrie.build(keys);
+  }
+
+  public CrfModel getModel() {
+    return model;
+  }
+
+  public StaticDoubleArrayTrie getTrie() {
+    return trie;
+  }
+
+  /**
+   * mutable state of one thread, never shared
+   */
+  private static class Workspace {
+    private final ScriptSplitter splitter = new ScriptSplitter();
+    private final CrfDecoder decoder;
+    private final int[] lengths;
+    // lattice of a run of n chars, (n + 1) * labelNum entries: best score of the prefix [0, j)
+    // whose last word ends with tag t at j * labelNum + t, with the length of that word and the
+    // last tag of the word before it
+    private double[] bestScores = new double[0];
+    private int[] backLengths = new int[0];
+    private int[] backTags = new int[0];
+
+    Workspace(CrfModel model, int maxLength) {
+      decoder = new CrfDecoder(model);
+      lengths = new int[maxLength];
+    }
+
+    void ensureCapacity(int size) {
+      if (bestScores.length < size) {
+        size = Math.max(size, bestScores.length * 2);
+        bestScores = new double[size];
+        backLengths = new int[size];
+        backTags = new int[size];
+      }
+    }
+  }
+
+  public List<Token> seg(String sen) {
+    Workspace workspace = workspaces.get();
+    List<Token> result = new ArrayList<Token>();
+    ScriptSplitter splitter = workspace.splitter;
+    int runNum = splitter.scan(sen);
+    for (int run = 0; run < runNum; run++) {
+      int start = splitter.getStart(run);
+      int end = splitter.getEnd(run);
+      if (splitter.isSentence(run)) {
+        this.segmentRun(sen.substring(start, end), workspace, result);
+      } else {
+        result.add(new Token(null, sen, start, end, splitter.getType(run)));
+      }
+    }
+    return result;
+  }
+
+  // s is one run of Chinese characters, the words get offsets in the run like
+  // ChineseSegmenter.seg gives them
+  private void segmentRun(String s, Workspace workspace, List<Token> result) {
+    int n = s.length();
+    int labelNum = this.labelNum;
+    TrainingWeights weights = model.weights;
+    double[] bosTransitionWeights = weights.getBosTransitionWeights();
+    double[] eosTransitionWeights = weights.getEosTransitionWeights();
+    double[] transitionWeights = weights.getTransitionWeights();
+
+    double[] stateScores = workspace.decoder.getStateScores(s, 0, n);
+    workspace.ensureCapacity((n + 1) * labelNum);
+    double[] bestScores = workspace.bestScores;
+    int[] backLengths = workspace.backLengths;
+    int[] backTags = workspace.backTags;
+    int[] lengths = workspace.lengths;
+    Arrays.fill(bestScores, 0, (n + 1) * labelNum, Double.NEGATIVE_INFINITY);
+
+    for (int start = 0; start < n; start++) {
+      int num = trie.commonPrefixSearch(s, start, n, lengths, null);
+      // the single char is always a candidate, the dictionary words have 2 or more chars
+      int length = 1;
+      for (int k = -1; k < num; k++) {
+        if (k >= 0) {
+          length = lengths[k];
+          if (length < 2) {
+            continue;
+          }
+        }
+        int[] tagIds = tagIdsByLength[length];
+        double enterScore;
+        int enterTag = -1;
+        if (start == 0) {
+          enterScore = bosTransitionWeights[tagIds[0]];
+        } else {
+          enterScore = Double.NEGATIVE_INFINITY;
+          int offset = start * labelNum;
+          for (int tag = 0; tag < labelNum; tag++) {
+            double score = bestScores[offset + tag] + transitionWeights[tag * labelNum + tagIds[0]];
+            if (score > enterScore) {
+              enterScore = score;
+              enterTag = tag;
+            }
+          }
+        }
+        double score = enterScore + wordTransitionScores[length];
+        for (int i = 0; i < length; i++) {
+          score += stateScores[(start + i) * labelNum + tagIds[i]];
+        }
+        int index = (start + length) * labelNum + tagIds[length - 1];
+        if (score > bestScores[index]) {
+          bestScores[index] = score;
+          backLengths[index] = length;
+          backTags[index] = enterTag;
+        }
+      }
+    }
+
+    double maxScore = Double.NEGATIVE_INFINITY;
+    int lastTag = -1;
+    for (int tag = 0; tag < labelNum; tag++) {
+      double score = bestScores[n * labelNum + tag] + eosTransitionWeights[tag];
+      if (score > maxScore) {
+        maxScore = score;
+        lastTag = tag;
+      }
+    }
+
+    int resultSize = result.size();
+    int end = n;
+    while (end > 0) {
+      int index = end * labelNum + lastTag;
+      int length = backLengths[index];
+      result.add(new Token(s, end - length, end));
+      lastTag = backTags[index];
+      end -= length;
+    }
+    Collections.reverse(result.subList(resultSize, result.size()));
+  }
+}
@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map.Entry;
 
+import com.antbrains.crf.StaticDoubleArrayTrie;
 import com.antbrains.crf.hadoop.FileTools;
 import com.antbrains.datrie.DoubleArrayTrie;
 
@@ -17,11 +18,37 @@ import com.antbrains.datrie.DoubleArrayTrie;
  */
 public class MMSeg {
   private DoubleArrayTrie trie;
+  // used instead of trie if not null
+  private StaticDoubleArrayTrie staticTrie;
 
   public MMSeg(DoubleArrayTrie trie) {
     this.trie = trie;
   }
 
+  /**
+   * @param trie
+   *          words, e.g. of a {@link MappedSegDictionary}
+   */
+  public MMSeg(StaticDoubleArrayTrie trie) {
+    this.staticTrie = trie;
+  }
+
+  /**
+   * builds the trie of words in one pass over the sorted words, instead of inserting them one by
+   * one like {@link #MMSeg(List)}. Words are trimmed and words shorter than 2 chars are dropped,
+   * they are never longest matches.
+   */
+  public static MMSeg build(List<String> words) {
+    List<String> keys = new ArrayList<String>(words.size());
+    for (String word : words) {
+      word = word.trim();
+      if (word.length() >= 2) {
+        keys.add(word);
+      }
+    }
+    return new MMSeg(StaticDoubleArrayTrie.build(keys));
+  }
+
   public MMSeg(List<String> wordList) {
     trie = new DoubleArrayTrie();
     for (String word : wordList) {
@@ -50,7 +77,7 @@ public class MMSeg {
     List<Token> tokens = new ArrayList<Token>();
     for (int i = 0; i < sen.length(); i++) {
       String ch = sen.substring(i, i + 1);
-      int len = trie.find(sen, i)[0];
+      int len = this.longestMatch(sen, i);
       if (processNumber && cnNumbers.contains(ch)) { // 处理汉字里的数字，阿拉伯数字在前面lucene的分析器已经处理过了
         int j = i + 1;
         for (; j < sen.length(); j++) {
@@ -77,4 +104,11 @@ public class MMSeg {
     return tokens;
   }
 
+  private int longestMatch(String s, int start) {
+    if (staticTrie != null) {
+      return staticTrie.longestMatch(s, start, s.length());
+    }
+    return trie.find(s, start)[0];
+  }
+
 }
@@ -0,0 +1,230 @@
+package com.antbrains.wordseg;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.antbrains.crf.StaticDoubleArrayTrie;
+import com.antbrains.crf.hadoop.FileTools;
+
+/**
+ * Segmentation dictionary compiled offline into the forward and reverse tries of {@link MMSeg}
+ * and {@link RMMSeg}. Loading maps the file and uses the double arrays in place, so nothing is
+ * inserted or built at startup and processes mapping the same file share its pages.
+ * <p>
+ * Layout, little endian, every section starts at a multiple of 8:
+ *
+ * <pre>
+ * int magic, int version, int wordNum, int forward maxKeyLength, int reverse maxKeyLength, int 0
+ * sections, each one a long byte length followed by the data:
+ *   int[] base, int[] check of the forward trie
+ *   int[] base, int[] check of the reverse trie, whose keys are the reversed words
+ * </pre>
+ *
+ * Words are trimmed and words shorter than 2 chars are dropped, like {@link RMMSeg} does.
+ *
+ * @author lili
+ *
+ */
+public class MappedSegDictionary {
+  public static final int MAGIC = 0x44474553; // "SEGD"
+  public static final int VERSION = 1;
+
+  private static final int HEADER_LENGTH = 24;
+
+  private final StaticDoubleArrayTrie forwardTrie;
+  private final StaticDoubleArrayTrie reverseTrie;
+  private final MappedByteBuffer mapped;
+
+  private MappedSegDictionary(StaticDoubleArrayTrie forwardTrie,
+      StaticDoubleArrayTrie reverseTrie, MappedByteBuffer mapped) {
+    this.forwardTrie = forwardTrie;
+    this.reverseTrie = reverseTrie;
+    this.mapped = mapped;
+  }
+
+  /**
+   * compiles the dictionary words into fileName
+   */
+  public static void write(List<String> words, String fileName) throws IOException {
+    List<String> forwardWords = new ArrayList<String>(words.size());
+    List<String> reverseWords = new ArrayList<String>(words.size());
+    for (String word : words) {
+      word = word.trim();
+      if (word.length() >= 2) {
+        forwardWords.add(word);
+        reverseWords.add(RMMSeg.reverseString(word));
+      }
+    }
+    StaticDoubleArrayTrie forwardTrie = StaticDoubleArrayTrie.build(forwardWords);
+    StaticDoubleArrayTrie reverseTrie = StaticDoubleArrayTrie.build(reverseWords);
+
+    long length = HEADER_LENGTH;
+    for (StaticDoubleArrayTrie trie : new StaticDoubleArrayTrie[] { forwardTrie, reverseTrie }) {
+      // base and check sections
+      for (int i = 0; i < 2; i++) {
+        length = ((length + 7) & ~7L) + 8 + 4L * trie.getArraySize();
+      }
+    }
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("dictionary too large: " + length + " bytes");
+    }
+    ByteBuffer buffer = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC);
+    buffer.putInt(VERSION);
+    buffer.putInt(forwardTrie.size());
+    buffer.putInt(forwardTrie.getMaxKeyLength());
+    buffer.putInt(reverseTrie.getMaxKeyLength());
+    buffer.putInt(0);
+    putInts(buffer, forwardTrie.getBase());
+    putInts(buffer, forwardTrie.getCheck());
+    putInts(buffer, reverseTrie.getBase());
+    putInts(buffer, reverseTrie.getCheck());
+    buffer.flip();
+
+    RandomAccessFile raf = new RandomAccessFile(fileName, "rw");
+    try {
+      raf.setLength(0);
+      FileChannel channel = raf.getChannel();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * maps a compiled dictionary, the pages are read when the tries first touch them
+   *
+   * @param warmUp
+   *          whether to read all pages in a background thread
+   * @throws IOException
+   *           if the file can't be read or isn't a valid compiled dictionary
+   */
+  public static MappedSegDictionary load(String fileName, boolean warmUp) throws IOException {
+    MappedByteBuffer mapped;
+    RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      if (channel.size() < HEADER_LENGTH) {
+        throw new IOException("not a compiled segmentation dictionary: " + fileName);
+      }
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("dictionary too large: " + fileName);
+      }
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      raf.close();
+    }
+    ByteBuffer buffer = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.getInt() != MAGIC) {
+      throw new IOException("not a compiled segmentation dictionary: " + fileName);
+    }
+    int version = buffer.getInt();
+    if (version != VERSION) {
+      throw new IOException("unsupported segmentation dictionary version(" + version + "): "
+          + fileName);
+    }
+    int wordNum = buffer.getInt();
+    int forwardMaxKeyLength = buffer.getInt();
+    int reverseMaxKeyLength = buffer.getInt();
+    buffer.getInt();
+    try {
+      StaticDoubleArrayTrie forwardTrie = new StaticDoubleArrayTrie(nextInts(buffer, fileName),
+          nextInts(buffer, fileName), wordNum, forwardMaxKeyLength);
+      StaticDoubleArrayTrie reverseTrie = new StaticDoubleArrayTrie(nextInts(buffer, fileName),
+          nextInts(buffer, fileName), wordNum, reverseMaxKeyLength);
+      MappedSegDictionary dictionary = new MappedSegDictionary(forwardTrie, reverseTrie, mapped);
+      if (warmUp) {
+        dictionary.startWarmUp();
+      }
+      return dictionary;
+    } catch (IllegalArgumentException e) {
+      throw new IOException(e.getMessage() + ": " + fileName);
+    }
+  }
+
+  /**
+   * reads all pages of the file in a daemon thread, so the first segmentations don't wait for
+   * page faults
+   *
+   * @return the started thread
+   */
+  public Thread startWarmUp() {
+    Thread thread = new Thread("segdict-warmup") {
+      @Override
+      public void run() {
+        mapped.load();
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  public int getWordNum() {
+    return forwardTrie.size();
+  }
+
+  public StaticDoubleArrayTrie getForwardTrie() {
+    return forwardTrie;
+  }
+
+  public StaticDoubleArrayTrie getReverseTrie() {
+    return reverseTrie;
+  }
+
+  public MMSeg createMmseg() {
+    return new MMSeg(forwardTrie);
+  }
+
+  public RMMSeg createRmmseg() {
+    return new RMMSeg(reverseTrie);
+  }
+
+  private static void putInts(ByteBuffer buffer, IntBuffer ints) {
+    while (buffer.position() % 8 != 0) {
+      buffer.put((byte) 0);
+    }
+    buffer.putLong(ints.capacity() * 4L);
+    for (int i = 0; i < ints.capacity(); i++) {
+      buffer.putInt(ints.get(i));
+    }
+  }
+
+  private static IntBuffer nextInts(ByteBuffer buffer, String fileName) throws IOException {
+    int position = (buffer.position() + 7) & ~7;
+    if (position + 8 > buffer.limit()) {
+      throw new IOException("truncated segmentation dictionary: " + fileName);
+    }
+    buffer.position(position);
+    long byteLength = buffer.getLong();
+    if (byteLength < 0 || byteLength % 4 != 0 || byteLength > buffer.remaining()) {
+      throw new IOException("truncated segmentation dictionary: " + fileName);
+    }
+    ByteBuffer slice = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    slice.limit((int) byteLength);
+    buffer.position(buffer.position() + (int) byteLength);
+    return slice.asIntBuffer();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2 || args.length > 3) {
+      System.err.println("Usage: MappedSegDictionary <dict_file> <compiled_file> [encoding]");
+      System.exit(1);
+    }
+    String encoding = args.length > 2 ? args[2] : "UTF8";
+    long start = System.currentTimeMillis();
+    List<String> words = FileTools.readFile2List(args[0], encoding);
+    write(words, args[1]);
+    System.out.println("compiled " + words.size() + " lines in "
+        + (System.currentTimeMillis() - start) + "ms");
+  }
+}
@@ -7,6 +7,7 @@ import java.util.List;
 import java.util.Stack;
 import java.util.Map.Entry;
 
+import com.antbrains.crf.StaticDoubleArrayTrie;
 import com.antbrains.crf.hadoop.FileTools;
 import com.antbrains.datrie.DoubleArrayTrie;
 
@@ -18,8 +19,10 @@ import com.antbrains.datrie.DoubleArrayTrie;
  */
 public class RMMSeg {
   private DoubleArrayTrie trie;
+  // used instead of trie if not null
+  private StaticDoubleArrayTrie staticTrie;
 
-  private String reverseString(String s) {
+  static String reverseString(String s) {
     StringBuilder sb = new StringBuilder(s.length());
     for (int i = s.length() - 1; i >= 0; i--) {
       sb.append(s.charAt(i));
@@ -31,6 +34,29 @@ public class RMMSeg {
     this.trie = trie;
   }
 
+  /**
+   * @param trie
+   *          words of the reversed words, e.g. of a {@link MappedSegDictionary}
+   */
+  public RMMSeg(StaticDoubleArrayTrie trie) {
+    this.staticTrie = trie;
+  }
+
+  /**
+   * builds the trie of the reversed words in one pass over them sorted, instead of inserting them
+   * one by one like {@link #RMMSeg(List)}
+   */
+  public static RMMSeg build(List<String> words) {
+    List<String> keys = new ArrayList<String>(words.size());
+    for (String word : words) {
+      word = word.trim();
+      if (word.length() >= 2) {
+        keys.add(reverseString(word));
+      }
+    }
+    return new RMMSeg(StaticDoubleArrayTrie.build(keys));
+  }
+
   public RMMSeg(List<String> wordList) {
     trie = new DoubleArrayTrie();
     for (String word : wordList) {
@@ -55,14 +81,14 @@ public class RMMSeg {
   public boolean processNumber = false;
 
   public List<Token> seg(String sentence) {
-    String s = this.reverseString(sentence);
+    String s = reverseString(sentence);
     List<Token> tokens = new ArrayList<Token>();
     Stack<Token> stack = new Stack<Token>();
     int length = sentence.length();
 
     for (int i = 0; i < s.length(); i++) {
       String ch = s.substring(i, i + 1);
-      int len = trie.find(s, i)[0];
+      int len = this.longestMatch(s, i);
       if (processNumber && cnNumbers.contains(ch)) { // 处理汉字里的数字，阿拉伯数字在前面lucene的分析器已经处理过了
         int j = i + 1;
         for (; j < s.length(); j++) {
@@ -91,4 +117,11 @@ public class RMMSeg {
     return tokens;
   }
 
+  private int longestMatch(String s, int start) {
+    if (staticTrie != null) {
+      return staticTrie.longestMatch(s, start, s.length());
+    }
+    return trie.find(s, start)[0];
+  }
+
 }
@@ -0,0 +1,82 @@
+package com.antbrains.wordseg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.antbrains.wordseg.Token.Type;
+import com.antbrains.wordseg.luceneanalyzer.ScriptRunScanner;
+import com.antbrains.wordseg.luceneanalyzer.StandardTokenizer;
+
+/**
+ * Splits a sentence into runs of Chinese characters, which are segmented further, and single
+ * alphanumeric, number and punctuation tokens, with the boundaries of StandardTokenizer. The runs
+ * are found by a {@link ScriptRunScanner}, which is reused for every sentence, so an instance
+ * must only be used by one thread.
+ *
+ * @author lili
+ *
+ */
+class ScriptSplitter {
+  private final ScriptRunScanner scanner = new ScriptRunScanner();
+
+  /**
+   * @return number of runs of sen, their offsets and types stay valid until the next scan
+   */
+  int scan(String sen) {
+    int runNum = scanner.scan(sen);
+    // the chars after the last token were never returned, keep it that way
+    while (runNum > 0 && scanner.getType(runNum - 1) == ScriptRunScanner.GAP) {
+      runNum--;
+    }
+    return runNum;
+  }
+
+  int getStart(int run) {
+    return scanner.getStart(run);
+  }
+
+  int getEnd(int run) {
+    return scanner.getEnd(run);
+  }
+
+  /**
+   * @return true for runs of 2 or more Chinese characters, the ones to segment
+   */
+  boolean isSentence(int run) {
+    return scanner.getFirstToken(run + 1) - scanner.getFirstToken(run) > 1;
+  }
+
+  /**
+   * @return the type split gives the tokens of the run
+   */
+  Type getType(int run) {
+    switch (scanner.getType(run)) {
+    case StandardTokenizer.IDEOGRAPHIC:
+      return Type.CWORD;
+    case StandardTokenizer.ALPHANUM:
+      return Type.ALPHA;
+    case StandardTokenizer.NUM:
+      return Type.NUMBER;
+    case ScriptRunScanner.GAP: // 被StandardAnalyzer扔掉的都认为是标点，不用参与分词
+      return Type.PUNCT;
+    default:
+      return null;
+    }
+  }
+
+  List<List<Token>> split(String sen) {
+    int runNum = this.scan(sen);
+    List<List<Token>> result = new ArrayList<List<Token>>(runNum);
+    for (int run = 0; run < runNum; run++) {
+      Type type = this.getType(run);
+      int end = scanner.getFirstToken(run + 1);
+      List<Token> subSen = new ArrayList<Token>(end - scanner.getFirstToken(run));
+      for (int token = scanner.getFirstToken(run); token < end; token++) {
+        subSen.add(new Token(null, sen, scanner.getTokenStart(token), scanner.getTokenEnd(token),
+            type));
+      }
+      result.add(subSen);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,113 @@
+package com.antbrains.wordseg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Columnar result of {@link ChineseSegmenter#segBatch}: instead of a List&lt;Token&gt; per sentence
+ * the tokens of all sentences are stored in flat arrays. Token t of the batch is
+ * sentence[getStart(t), getEnd(t)) and the tokens of sentence i are
+ * [getFirstToken(i), getFirstToken(i + 1)).
+ *
+ * @author lili
+ *
+ */
+public class SegBatchResult {
+  private static final Token.Type[] TYPES = Token.Type.values();
+
+  private int sentenceNum;
+  private int[] firstTokens = new int[16]; // sentenceNum + 1 entries
+  private int tokenNum;
+  private int[] offsets = new int[256]; // start and end of each token
+  private byte[] types = new byte[128]; // ordinal of Token.Type, -1 for null
+
+  SegBatchResult() {
+  }
+
+  void addToken(int start, int end, Token.Type type) {
+    if (offsets.length < (tokenNum + 1) * 2) {
+      int[] newOffsets = new int[offsets.length * 2];
+      System.arraycopy(offsets, 0, newOffsets, 0, tokenNum * 2);
+      offsets = newOffsets;
+      byte[] newTypes = new byte[types.length * 2];
+      System.arraycopy(types, 0, newTypes, 0, tokenNum);
+      types = newTypes;
+    }
+    offsets[tokenNum * 2] = start;
+    offsets[tokenNum * 2 + 1] = end;
+    types[tokenNum] = type == null ? -1 : (byte) type.ordinal();
+    tokenNum++;
+  }
+
+  void endSentence() {
+    if (firstTokens.length < sentenceNum + 2) {
+      int[] newFirstTokens = new int[firstTokens.length * 2];
+      System.arraycopy(firstTokens, 0, newFirstTokens, 0, sentenceNum + 1);
+      firstTokens = newFirstTokens;
+    }
+    sentenceNum++;
+    firstTokens[sentenceNum] = tokenNum;
+  }
+
+  /**
+   * @return number of sentences
+   */
+  public int size() {
+    return sentenceNum;
+  }
+
+  public int getTokenNum() {
+    return tokenNum;
+  }
+
+  /**
+   * @param sentenceIndex
+   *          0 to size(), size() gives getTokenNum()
+   */
+  public int getFirstToken(int sentenceIndex) {
+    if (sentenceIndex < 0 || sentenceIndex > sentenceNum) {
+      throw new IndexOutOfBoundsException("sentence " + sentenceIndex + " of " + sentenceNum);
+    }
+    return firstTokens[sentenceIndex];
+  }
+
+  public int getStart(int token) {
+    checkToken(token);
+    return offsets[token * 2];
+  }
+
+  public int getEnd(int token) {
+    checkToken(token);
+    return offsets[token * 2 + 1];
+  }
+
+  /**
+   * @return the type {@link ChineseSegmenter#seg} gives the token, null for words cut by the
+   *         dictionaries
+   */
+  public Token.Type getType(int token) {
+    checkToken(token);
+    byte type = types[token];
+    return type < 0 ? null : TYPES[type];
+  }
+
+  /**
+   * @return tokens of one sentence, the same text and types as {@link ChineseSegmenter#seg}
+   *         gives, with offsets relative to sentence
+   */
+  public List<Token> getTokens(int sentenceIndex, String sentence) {
+    int end = getFirstToken(sentenceIndex + 1);
+    List<Token> tokens = new ArrayList<Token>(end - firstTokens[sentenceIndex]);
+    for (int token = firstTokens[sentenceIndex]; token < end; token++) {
+      tokens.add(new Token(null, sentence, offsets[token * 2], offsets[token * 2 + 1],
+          getType(token)));
+    }
+    return tokens;
+  }
+
+  private void checkToken(int token) {
+    if (token < 0 || token >= tokenNum) {
+      throw new IndexOutOfBoundsException("token " + token + " of " + tokenNum);
+    }
+  }
+}
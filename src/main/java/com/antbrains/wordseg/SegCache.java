@@ -0,0 +1,299 @@
+package com.antbrains.wordseg;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache of segmentation results in front of {@link ChineseSegmenter#seg}, for traffic
+ * where a few sentences, like the head of a query log, come again and again. Its size is given in
+ * bytes and a result is stored as the offsets and types of its tokens, not as a List of Tokens.
+ * The tokens are rebuilt with the same contexts and offsets as without the cache.
+ * <p>
+ * The cache is split into stripes by the hash of the sentence, each one with its own lock and a
+ * share of the bytes, so threads rarely wait for each other. A stripe is a segmented LRU: new
+ * results go to a probation segment, and those that are hit again move to a protected segment of
+ * 80% of the stripe, so one pass of sentences that are only seen once can't flush the frequent
+ * ones.
+ *
+ * @author lili
+ *
+ */
+public class SegCache {
+  // object headers, references and array headers of an entry, besides its chars and offsets
+  private static final int ENTRY_OVERHEAD = 128;
+  private static final Token.Type[] TYPES = Token.Type.values();
+
+  private final Stripe[] stripes;
+  private final int maxSentenceLength;
+  private final long maxBytes;
+
+  /**
+   * @param maxBytes
+   *          estimated memory of all entries
+   */
+  public SegCache(long maxBytes) {
+    this(maxBytes, 64, 256);
+  }
+
+  /**
+   * @param stripeNum
+   *          number of stripes, rounded up to a power of 2
+   * @param maxSentenceLength
+   *          longer sentences are not cached
+   */
+  public SegCache(long maxBytes, int stripeNum, int maxSentenceLength) {
+    if (maxBytes <= 0 || stripeNum <= 0) {
+      throw new IllegalArgumentException("maxBytes(" + maxBytes + ") and stripeNum(" + stripeNum
+          + ") must be positive");
+    }
+    int n = 1;
+    while (n < stripeNum) {
+      n <<= 1;
+    }
+    stripes = new Stripe[n];
+    for (int i = 0; i < n; i++) {
+      stripes[i] = new Stripe(maxBytes / n);
+    }
+    this.maxBytes = maxBytes;
+    this.maxSentenceLength = maxSentenceLength;
+  }
+
+  /**
+   * cached tokens of one sentence. The tokens of a dictionary run have the run as context and
+   * offsets relative to it, the others the sentence.
+   */
+  static class Entry {
+    private final int[] offsets; // start and end of each token, relative to its context
+    private final int[] contexts; // start and end of the context of each token in the sentence
+    private final byte[] types; // ordinal of Token.Type, -1 for null
+
+    /**
+     * @param contextStarts
+     *          start of the context of each token in the sentence
+     */
+    Entry(List<Token> tokens, int[] contextStarts) {
+      offsets = new int[tokens.size() * 2];
+      contexts = new int[tokens.size() * 2];
+      types = new byte[tokens.size()];
+      for (int i = 0; i < types.length; i++) {
+        Token token = tokens.get(i);
+        offsets[i * 2] = token.getBeginIndex();
+        offsets[i * 2 + 1] = token.getEndIndex();
+        contexts[i * 2] = contextStarts[i];
+        contexts[i * 2 + 1] = contextStarts[i] + token.getContext().length();
+        Token.Type type = token.getType();
+        types[i] = type == null ? -1 : (byte) type.ordinal();
+      }
+    }
+
+    List<Token> toTokens(String sentence) {
+      List<Token> tokens = new ArrayList<Token>(types.length);
+      String context = sentence;
+      int contextStart = 0;
+      int contextEnd = sentence.length();
+      for (int i = 0; i < types.length; i++) {
+        // the tokens of a run share its context, like without the cache
+        if (contexts[i * 2] != contextStart || contexts[i * 2 + 1] != contextEnd) {
+          contextStart = contexts[i * 2];
+          contextEnd = contexts[i * 2 + 1];
+          context = sentence.substring(contextStart, contextEnd);
+        }
+        tokens.add(new Token(null, context, offsets[i * 2], offsets[i * 2 + 1],
+            types[i] < 0 ? null : TYPES[types[i]]));
+      }
+      return tokens;
+    }
+
+    int getBytes(String sentence) {
+      return ENTRY_OVERHEAD + sentence.length() * 2 + offsets.length * 4 + contexts.length * 4
+          + types.length;
+    }
+  }
+
+  private static class Stripe {
+    private final long maxBytes;
+    private final long maxProtectedBytes;
+    // access ordered, eldest first
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<String, Entry>(16,
+        0.75f, true);
+    private final LinkedHashMap<String, Entry> protectedEntries = new LinkedHashMap<String, Entry>(
+        16, 0.75f, true);
+    private long probationBytes;
+    private long protectedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    Stripe(long maxBytes) {
+      this.maxBytes = maxBytes;
+      this.maxProtectedBytes = maxBytes * 4 / 5;
+    }
+
+    synchronized Entry get(String sentence) {
+      Entry entry = protectedEntries.get(sentence);
+      if (entry == null) {
+        entry = probation.remove(sentence);
+        if (entry == null) {
+          misses++;
+          return null;
+        }
+        // hit twice, protect it, the eldest protected ones go back to probation
+        int bytes = entry.getBytes(sentence);
+        probationBytes -= bytes;
+        protectedEntries.put(sentence, entry);
+        protectedBytes += bytes;
+        Iterator<Map.Entry<String, Entry>> iter = protectedEntries.entrySet().iterator();
+        while (protectedBytes > maxProtectedBytes) {
+          Map.Entry<String, Entry> eldest = iter.next();
+          iter.remove();
+          bytes = eldest.getValue().getBytes(eldest.getKey());
+          protectedBytes -= bytes;
+          probation.put(eldest.getKey(), eldest.getValue());
+          probationBytes += bytes;
+        }
+      }
+      hits++;
+      return entry;
+    }
+
+    synchronized void put(String sentence, Entry entry) {
+      int bytes = entry.getBytes(sentence);
+      if (bytes > maxBytes || protectedEntries.containsKey(sentence)) {
+        return;
+      }
+      Entry old = probation.put(sentence, entry);
+      if (old != null) {
+        probationBytes -= old.getBytes(sentence);
+      }
+      probationBytes += bytes;
+      Iterator<Map.Entry<String, Entry>> iter = probation.entrySet().iterator();
+      while (probationBytes + protectedBytes > maxBytes && iter.hasNext()) {
+        Map.Entry<String, Entry> eldest = iter.next();
+        iter.remove();
+        probationBytes -= eldest.getValue().getBytes(eldest.getKey());
+        evictions++;
+      }
+    }
+
+    synchronized void remove(String sentence) {
+      Entry entry = probation.remove(sentence);
+      if (entry != null) {
+        probationBytes -= entry.getBytes(sentence);
+      }
+      entry = protectedEntries.remove(sentence);
+      if (entry != null) {
+        protectedBytes -= entry.getBytes(sentence);
+      }
+    }
+
+    synchronized void clear() {
+      probation.clear();
+      protectedEntries.clear();
+      probationBytes = 0;
+      protectedBytes = 0;
+    }
+  }
+
+  private Stripe stripe(String sentence) {
+    int h = sentence.hashCode();
+    h ^= h >>> 16;
+    return stripes[h & (stripes.length - 1)];
+  }
+
+  boolean isCacheable(String sentence) {
+    return sentence.length() <= maxSentenceLength;
+  }
+
+  Entry get(String sentence) {
+    return stripe(sentence).get(sentence);
+  }
+
+  void put(String sentence, Entry entry) {
+    stripe(sentence).put(sentence, entry);
+  }
+
+  void remove(String sentence) {
+    stripe(sentence).remove(sentence);
+  }
+
+  public void clear() {
+    for (Stripe stripe : stripes) {
+      stripe.clear();
+    }
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * @return estimated memory of the entries
+   */
+  public long getBytes() {
+    long bytes = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        bytes += stripe.probationBytes + stripe.protectedBytes;
+      }
+    }
+    return bytes;
+  }
+
+  public int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.probation.size() + stripe.protectedEntries.size();
+      }
+    }
+    return size;
+  }
+
+  public long getHitCount() {
+    long hits = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        hits += stripe.hits;
+      }
+    }
+    return hits;
+  }
+
+  /**
+   * @return lookups of cacheable sentences that weren't cached
+   */
+  public long getMissCount() {
+    long misses = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        misses += stripe.misses;
+      }
+    }
+    return misses;
+  }
+
+  /**
+   * @return entries dropped to stay within the size, not counting {@link #clear()}
+   */
+  public long getEvictionCount() {
+    long evictions = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        evictions += stripe.evictions;
+      }
+    }
+    return evictions;
+  }
+
+  @Override
+  public String toString() {
+    long hits = getHitCount();
+    long misses = getMissCount();
+    return String.format("%d entries, %dKB of %dKB, hits %d, misses %d (%.1f%% hit), evictions %d",
+        size(), getBytes() / 1024, maxBytes / 1024, hits, misses, 100.0 * hits
+            / Math.max(1, hits + misses), getEvictionCount());
+  }
+}
@@ -0,0 +1,44 @@
+package com.antbrains.wordseg;
+
+/**
+ * Receives what {@link ChineseSegmenter} does, set by
+ * {@link ChineseSegmenter#setListener(SegmenterListener)}. It is called on the segmenting threads,
+ * in the middle of segmentation, so it must be thread safe and fast. {@link SegmenterMetrics}
+ * aggregates the calls into counters and histograms.
+ *
+ * @author lili
+ *
+ */
+public interface SegmenterListener {
+  public static enum Stage {
+    /** the whole seg or segBatch call */
+    TOTAL,
+    /** splitting a sentence into script runs */
+    SPLIT,
+    /** MMSeg and RMMSeg of a run of Chinese characters */
+    MATCH,
+    /** aligning the words of MMSeg and RMMSeg of a run where they differ */
+    ALIGN,
+    /** the CRF scoring of one ambiguous span, not called for answers of a DisambiguationCache */
+    DISAMBIGUATE,
+  }
+
+  /**
+   * @param nanos
+   *          time of one execution of the stage
+   */
+  void stage(Stage stage, long nanos);
+
+  /**
+   * sentences that were segmented, including those taken from a SegCache
+   */
+  void sentences(int sentenceNum, int charNum);
+
+  /**
+   * a span where MMSeg and RMMSeg disagree
+   *
+   * @param length
+   *          chars of the span
+   */
+  void ambiguity(int length);
+}
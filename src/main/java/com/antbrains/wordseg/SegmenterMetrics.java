@@ -0,0 +1,304 @@
+package com.antbrains.wordseg;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A {@link SegmenterListener} that counts sentences, chars and ambiguous spans and keeps a
+ * latency histogram per stage. Recording is lock free: a few atomic increments per call, no
+ * allocation. Histogram buckets are log-linear, 4 per power of 2, so percentiles are exact up to
+ * 25%.
+ *
+ * <pre>
+ * SegmenterMetrics metrics = new SegmenterMetrics();
+ * segmenter.setListener(metrics);
+ * metrics.register();
+ * </pre>
+ *
+ * @author lili
+ *
+ */
+public class SegmenterMetrics implements SegmenterListener, SegmenterMetricsMXBean {
+  public static final String DEFAULT_OBJECT_NAME = "com.antbrains.wordseg:type=SegmenterMetrics";
+  /** lengths of ambiguous spans counted one by one, longer ones are counted in the last one */
+  public static final int MAX_AMBIGUITY_LENGTH = 32;
+
+  private static final Stage[] STAGES = Stage.values();
+
+  private final Histogram[] histograms = new Histogram[STAGES.length];
+  private final AtomicLong sentenceCount = new AtomicLong();
+  private final AtomicLong charCount = new AtomicLong();
+  private final AtomicLong ambiguityCount = new AtomicLong();
+  private final AtomicLong ambiguityLengthSum = new AtomicLong();
+  private final AtomicLongArray ambiguityLengthCounts = new AtomicLongArray(
+      MAX_AMBIGUITY_LENGTH + 1);
+
+  private ObjectName objectName;
+
+  public SegmenterMetrics() {
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new Histogram();
+    }
+  }
+
+  @Override
+  public void stage(Stage stage, long nanos) {
+    histograms[stage.ordinal()].record(nanos);
+  }
+
+  @Override
+  public void sentences(int sentenceNum, int charNum) {
+    sentenceCount.addAndGet(sentenceNum);
+    charCount.addAndGet(charNum);
+  }
+
+  @Override
+  public void ambiguity(int length) {
+    ambiguityCount.incrementAndGet();
+    ambiguityLengthSum.addAndGet(length);
+    ambiguityLengthCounts.incrementAndGet(Math.min(length, MAX_AMBIGUITY_LENGTH));
+  }
+
+  /**
+   * registers this as MBean with {@link #DEFAULT_OBJECT_NAME} on the platform MBeanServer
+   */
+  public void register() throws JMException {
+    this.register(new ObjectName(DEFAULT_OBJECT_NAME));
+  }
+
+  /**
+   * registers this as MBean on the platform MBeanServer, use different names for the metrics of
+   * different segmenters
+   */
+  public synchronized void register(ObjectName name) throws JMException {
+    if (objectName != null) {
+      throw new IllegalStateException("already registered as " + objectName);
+    }
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+    objectName = name;
+  }
+
+  public synchronized void unregister() throws JMException {
+    if (objectName == null) {
+      return;
+    }
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    if (server.isRegistered(objectName)) {
+      server.unregisterMBean(objectName);
+    }
+    objectName = null;
+  }
+
+  public long getCount(Stage stage) {
+    return histograms[stage.ordinal()].count.get();
+  }
+
+  public long getMeanNanos(Stage stage) {
+    Histogram histogram = histograms[stage.ordinal()];
+    long count = histogram.count.get();
+    return count == 0 ? 0 : histogram.sum.get() / count;
+  }
+
+  /**
+   * @param percentile
+   *          between 0 and 100
+   * @return the upper bound of the bucket of the percentile, 0 if the stage was never timed
+   */
+  public long getPercentileNanos(Stage stage, double percentile) {
+    return histograms[stage.ordinal()].getPercentile(percentile);
+  }
+
+  public long getMaxNanos(Stage stage) {
+    return histograms[stage.ordinal()].max.get();
+  }
+
+  @Override
+  public long getSentenceCount() {
+    return sentenceCount.get();
+  }
+
+  @Override
+  public long getCharCount() {
+    return charCount.get();
+  }
+
+  @Override
+  public long getAmbiguityCount() {
+    return ambiguityCount.get();
+  }
+
+  @Override
+  public double getMeanAmbiguityLength() {
+    long count = ambiguityCount.get();
+    return count == 0 ? 0 : (double) ambiguityLengthSum.get() / count;
+  }
+
+  @Override
+  public long[] getAmbiguityLengthCounts() {
+    long[] counts = new long[ambiguityLengthCounts.length()];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = ambiguityLengthCounts.get(i);
+    }
+    return counts;
+  }
+
+  @Override
+  public long getCrfInvocationCount() {
+    return this.getCount(Stage.DISAMBIGUATE);
+  }
+
+  @Override
+  public Map<String, Long> getStageCounts() {
+    Map<String, Long> result = new LinkedHashMap<String, Long>();
+    for (Stage stage : STAGES) {
+      result.put(stage.name(), this.getCount(stage));
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> getStageMeanNanos() {
+    Map<String, Long> result = new LinkedHashMap<String, Long>();
+    for (Stage stage : STAGES) {
+      result.put(stage.name(), this.getMeanNanos(stage));
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> getStageMedianNanos() {
+    return this.getStagePercentiles(50);
+  }
+
+  @Override
+  public Map<String, Long> getStage99thPercentileNanos() {
+    return this.getStagePercentiles(99);
+  }
+
+  private Map<String, Long> getStagePercentiles(double percentile) {
+    Map<String, Long> result = new LinkedHashMap<String, Long>();
+    for (Stage stage : STAGES) {
+      result.put(stage.name(), this.getPercentileNanos(stage, percentile));
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> getStageMaxNanos() {
+    Map<String, Long> result = new LinkedHashMap<String, Long>();
+    for (Stage stage : STAGES) {
+      result.put(stage.name(), this.getMaxNanos(stage));
+    }
+    return result;
+  }
+
+  /**
+   * clears all counters, calls recorded at the same time may be partly lost
+   */
+  @Override
+  public void reset() {
+    for (Histogram histogram : histograms) {
+      histogram.reset();
+    }
+    sentenceCount.set(0);
+    charCount.set(0);
+    ambiguityCount.set(0);
+    ambiguityLengthSum.set(0);
+    for (int i = 0; i < ambiguityLengthCounts.length(); i++) {
+      ambiguityLengthCounts.set(i, 0);
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("sentences: ").append(this.getSentenceCount());
+    sb.append(", chars: ").append(this.getCharCount());
+    sb.append(", ambiguities: ").append(this.getAmbiguityCount());
+    sb.append(String.format(" (mean length %.2f)", this.getMeanAmbiguityLength()));
+    sb.append(", crf invocations: ").append(this.getCrfInvocationCount());
+    for (Stage stage : STAGES) {
+      sb.append("\n").append(stage.name()).append(": count ").append(this.getCount(stage));
+      sb.append(", mean ").append(this.getMeanNanos(stage));
+      sb.append("ns, p50 ").append(this.getPercentileNanos(stage, 50));
+      sb.append("ns, p99 ").append(this.getPercentileNanos(stage, 99));
+      sb.append("ns, max ").append(this.getMaxNanos(stage)).append("ns");
+    }
+    return sb.toString();
+  }
+
+  // values below 4 have a bucket each, above that each power of 2 is split into 4 buckets
+  private static class Histogram {
+    private static final int BUCKET_NUM = 248;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_NUM);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    static int getBucket(long value) {
+      if (value < 4) {
+        return value < 0 ? 0 : (int) value;
+      }
+      int highestBit = 63 - Long.numberOfLeadingZeros(value);
+      int subBucket = (int) (value >>> (highestBit - 2)) & 3;
+      return (highestBit - 1) * 4 + subBucket;
+    }
+
+    static long getUpperBound(int bucket) {
+      if (bucket < 4) {
+        return bucket;
+      }
+      int highestBit = bucket / 4 + 1;
+      long subBucket = bucket % 4;
+      return ((5 + subBucket) << (highestBit - 2)) - 1;
+    }
+
+    void record(long value) {
+      buckets.incrementAndGet(getBucket(value));
+      count.incrementAndGet();
+      sum.addAndGet(value);
+      long currentMax = max.get();
+      while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+        currentMax = max.get();
+      }
+    }
+
+    long getPercentile(double percentile) {
+      long total = 0;
+      long[] counts = new long[BUCKET_NUM];
+      for (int i = 0; i < BUCKET_NUM; i++) {
+        counts[i] = buckets.get(i);
+        total += counts[i];
+      }
+      if (total == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(total * percentile / 100);
+      long seen = 0;
+      for (int i = 0; i < BUCKET_NUM; i++) {
+        seen += counts[i];
+        if (seen >= rank && counts[i] > 0) {
+          return Math.min(getUpperBound(i), max.get());
+        }
+      }
+      return max.get();
+    }
+
+    void reset() {
+      for (int i = 0; i < BUCKET_NUM; i++) {
+        buckets.set(i, 0);
+      }
+      count.set(0);
+      sum.set(0);
+      max.set(0);
+    }
+  }
+}
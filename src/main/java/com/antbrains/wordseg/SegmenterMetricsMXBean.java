@@ -0,0 +1,44 @@
+package com.antbrains.wordseg;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link SegmenterMetrics}. The stage maps are keyed by the names of
+ * {@link SegmenterListener.Stage}, times are in nanoseconds.
+ *
+ * @author lili
+ *
+ */
+public interface SegmenterMetricsMXBean {
+  long getSentenceCount();
+
+  long getCharCount();
+
+  long getAmbiguityCount();
+
+  double getMeanAmbiguityLength();
+
+  /**
+   * @return element i is the number of ambiguous spans of i chars, the last element counts the
+   *         longer ones too
+   */
+  long[] getAmbiguityLengthCounts();
+
+  /**
+   * @return the number of spans scored by the CRF, ambiguities answered by a DisambiguationCache
+   *         are not included
+   */
+  long getCrfInvocationCount();
+
+  Map<String, Long> getStageCounts();
+
+  Map<String, Long> getStageMeanNanos();
+
+  Map<String, Long> getStageMedianNanos();
+
+  Map<String, Long> getStage99thPercentileNanos();
+
+  Map<String, Long> getStageMaxNanos();
+
+  void reset();
+}
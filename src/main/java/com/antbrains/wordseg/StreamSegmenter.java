@@ -0,0 +1,252 @@
+package com.antbrains.wordseg;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Segments a document from a Reader of any size with a {@link ChineseSegmenter}, chunk by chunk,
+ * so only one chunk and its tokens are held in memory. The tokens are the ones
+ * {@link ChineseSegmenter#segBatch} gives for the whole document as one sentence; use it as an
+ * Iterator, where
+ * {@link #getOffset()} gives the start of the last token in the document, or push all tokens to
+ * a {@link TokenSink}.
+ * <p>
+ * A chunk is cut after the last whitespace or sentence end (。！？、!?) in a full buffer. No word,
+ * number or script run spans over those, so the tokens are the same as segmenting the whole
+ * document at once. Only a stretch of maxChunkLength chars without any of them is cut at the
+ * buffer end, which may change the words at the cut. Each chunk is segmented with the
+ * dictionary of the segmenter at that time.
+ *
+ * @author lili
+ *
+ */
+public class StreamSegmenter implements Iterator<Token>, Closeable {
+  public static final int DEFAULT_MAX_CHUNK_LENGTH = 8192;
+  private static final String SENTENCE_ENDS = "。！？、!?";
+
+  private final ChineseSegmenter segmenter;
+  private Reader reader;
+  private final char[] buffer;
+  private int length; // chars in buffer
+  private long bufferOffset; // offset of buffer[0] in the document
+  private boolean eof;
+
+  private String chunk;
+  private long chunkOffset;
+  private SegBatchResult result;
+  private int tokenNum; // tokens of result, then one for each char of the trailing gap
+  private int nextToken;
+  private int current; // last returned token
+  private long offset = -1;
+
+  public StreamSegmenter(ChineseSegmenter segmenter, Reader reader) {
+    this(segmenter, reader, DEFAULT_MAX_CHUNK_LENGTH);
+  }
+
+  /**
+   * @param maxChunkLength
+   *          size of the char buffer, at least 16
+   */
+  public StreamSegmenter(ChineseSegmenter segmenter, Reader reader, int maxChunkLength) {
+    if (maxChunkLength < 16) {
+      throw new IllegalArgumentException("maxChunkLength(" + maxChunkLength
+          + ") must be at least 16");
+    }
+    this.segmenter = segmenter;
+    this.reader = reader;
+    this.buffer = new char[maxChunkLength];
+  }
+
+  /**
+   * pushes all remaining tokens to the sink
+   */
+  public void segment(TokenSink sink) throws IOException {
+    while (this.nextChunk()) {
+      this.advance();
+      sink.accept(this.getToken(), offset);
+    }
+  }
+
+  /**
+   * @throws RuntimeException
+   *           wrapping the IOException of the reader
+   */
+  @Override
+  public boolean hasNext() {
+    try {
+      return this.nextChunk();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @return the next token, its context is the chunk it was cut from and its offsets are
+   *         relative to the chunk
+   */
+  @Override
+  public Token next() {
+    if (!this.hasNext()) {
+      throw new NoSuchElementException();
+    }
+    this.advance();
+    return this.getToken();
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @return start of the last token in the document, -1 before the first one
+   */
+  public long getOffset() {
+    return offset;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  /**
+   * starts over with a new document, reusing the buffer
+   */
+  public void reset(Reader reader) {
+    this.reader = reader;
+    length = 0;
+    bufferOffset = 0;
+    eof = false;
+    chunk = null;
+    result = null;
+    tokenNum = 0;
+    nextToken = 0;
+    offset = -1;
+  }
+
+  /**
+   * moves to the next token without creating a Token, false at the end of the document
+   */
+  boolean incrementToken() throws IOException {
+    if (!this.nextChunk()) {
+      return false;
+    }
+    this.advance();
+    return true;
+  }
+
+  private void advance() {
+    current = nextToken++;
+    offset = chunkOffset + this.getStart(current);
+  }
+
+  /**
+   * @return the chunk of the current token
+   */
+  String getChunk() {
+    return chunk;
+  }
+
+  /**
+   * @return start of the current token in its chunk
+   */
+  int getStart() {
+    return this.getStart(current);
+  }
+
+  /**
+   * @return end of the current token in its chunk
+   */
+  int getEnd() {
+    return current < result.getTokenNum() ? result.getEnd(current) : this.getStart(current) + 1;
+  }
+
+  Token.Type getType() {
+    return current < result.getTokenNum() ? result.getType(current) : Token.Type.PUNCT;
+  }
+
+  /**
+   * @return chars read from the reader so far, the length of the document at its end
+   */
+  long getReadLength() {
+    return bufferOffset + length;
+  }
+
+  private int getStart(int token) {
+    if (token < result.getTokenNum()) {
+      return result.getStart(token);
+    }
+    return chunk.length() - (tokenNum - token);
+  }
+
+  private Token getToken() {
+    return new Token(null, chunk, this.getStart(), this.getEnd(), this.getType());
+  }
+
+  // makes sure tokens are left in the current chunk, false at the end of the document
+  private boolean nextChunk() throws IOException {
+    while (result == null || nextToken >= tokenNum) {
+      while (!eof && length < buffer.length) {
+        int n = reader.read(buffer, length, buffer.length - length);
+        if (n < 0) {
+          eof = true;
+        } else {
+          length += n;
+        }
+      }
+      if (length == 0) {
+        chunk = null;
+        result = null;
+        return false;
+      }
+      int cut = eof ? length : this.findCut();
+      chunk = new String(buffer, 0, cut);
+      chunkOffset = bufferOffset;
+      System.arraycopy(buffer, cut, buffer, 0, length - cut);
+      length -= cut;
+      bufferOffset += cut;
+      result = segmenter.segBatch(Collections.singletonList(chunk));
+      nextToken = 0;
+      tokenNum = result.getTokenNum();
+      if (!eof || length > 0) {
+        // the chars after the last token of a sentence are dropped, but not in the middle of the
+        // document, where they are punctuation tokens like the ones between tokens
+        int lastEnd = tokenNum == 0 ? 0 : result.getEnd(tokenNum - 1);
+        tokenNum += cut - lastEnd;
+      }
+    }
+    return true;
+  }
+
+  // the last safe cut of the full buffer, or its end
+  private int findCut() {
+    for (int i = length - 1; i > 0; i--) {
+      if (isBreak(buffer[i - 1]) && !isExtend(buffer[i])) {
+        return i;
+      }
+    }
+    return Character.isHighSurrogate(buffer[length - 1]) ? length - 1 : length;
+  }
+
+  private static boolean isBreak(char c) {
+    return Character.isWhitespace(c) || Character.isSpaceChar(c) || SENTENCE_ENDS.indexOf(c) >= 0;
+  }
+
+  // marks and format chars stick to the char before them
+  private static boolean isExtend(char c) {
+    switch (Character.getType(c)) {
+    case Character.NON_SPACING_MARK:
+    case Character.ENCLOSING_MARK:
+    case Character.COMBINING_SPACING_MARK:
+    case Character.FORMAT:
+      return true;
+    default:
+      return false;
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package com.antbrains.wordseg;
+
+import java.io.IOException;
+
+/**
+ * Receives the tokens of {@link StreamSegmenter#segment(TokenSink)} one by one.
+ *
+ * @author lili
+ *
+ */
+public interface TokenSink {
+  /**
+   * @param token
+   *          its context is the chunk of the document it was cut from, and its offsets are
+   *          relative to the chunk
+   * @param offset
+   *          start of the token in the whole document
+   */
+  void accept(Token token, long offset) throws IOException;
+}
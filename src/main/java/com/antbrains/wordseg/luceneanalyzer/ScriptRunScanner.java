@@ -0,0 +1,200 @@
+package com.antbrains.wordseg.luceneanalyzer;
+
+/**
+ * Splits a String into the runs the segmenter needs: runs of ideographs, the other tokens of
+ * {@link StandardTokenizer}, and the chars it skips, one run each. It runs the DFA of
+ * {@link StandardTokenizerImpl} directly over the String in one pass, so the boundaries are the
+ * same, but without the Reader, the refill buffer and the attributes of a TokenStream, and with
+ * the ideographs merged into runs as they are found. The runs are stored in int arrays that are
+ * reused for the next String, so an instance must only be used by one thread.
+ */
+public final class ScriptRunScanner {
+  /** type of a char StandardTokenizer skips, like punctuation and whitespace */
+  public static final int GAP = -1;
+
+  // the tables of the generated scanner
+  private static final char[] CMAP = StandardTokenizerImpl.ZZ_CMAP;
+  private static final int[] ROWMAP = StandardTokenizerImpl.ZZ_ROWMAP;
+  private static final int[] TRANS = StandardTokenizerImpl.ZZ_TRANS;
+  private static final int[] ATTRIBUTE = StandardTokenizerImpl.ZZ_ATTRIBUTE;
+  // token type of each accepting state, GAP for the ignore action
+  private static final int[] STATE_TYPES;
+  // char class to the token type of the char alone, if no char can follow it in a token
+  private static final int[] SINGLE_TYPES;
+  private static final int NOT_SINGLE = -2;
+  static {
+    int[] action = StandardTokenizerImpl.ZZ_ACTION;
+    STATE_TYPES = new int[action.length];
+    for (int state = 0; state < action.length; state++) {
+      switch (action[state]) {
+      case 2:
+        STATE_TYPES[state] = StandardTokenizerImpl.WORD_TYPE;
+        break;
+      case 3:
+        STATE_TYPES[state] = StandardTokenizerImpl.NUMERIC_TYPE;
+        break;
+      case 4:
+        STATE_TYPES[state] = StandardTokenizerImpl.KATAKANA_TYPE;
+        break;
+      case 5:
+        STATE_TYPES[state] = StandardTokenizerImpl.SOUTH_EAST_ASIAN_TYPE;
+        break;
+      case 6:
+        STATE_TYPES[state] = StandardTokenizerImpl.IDEOGRAPHIC_TYPE;
+        break;
+      case 7:
+        STATE_TYPES[state] = StandardTokenizerImpl.HIRAGANA_TYPE;
+        break;
+      case 8:
+        STATE_TYPES[state] = StandardTokenizerImpl.HANGUL_TYPE;
+        break;
+      default:
+        STATE_TYPES[state] = GAP;
+      }
+    }
+    int classNum = 0;
+    for (char c : CMAP) {
+      classNum = Math.max(classNum, c + 1);
+    }
+    SINGLE_TYPES = new int[classNum];
+    for (int c = 0; c < classNum; c++) {
+      int state = TRANS[ROWMAP[0] + c];
+      // accepting and no transitions out
+      SINGLE_TYPES[c] = state >= 0 && (ATTRIBUTE[state] & 9) == 9 ? STATE_TYPES[state]
+          : NOT_SINGLE;
+    }
+  }
+
+  private int maxTokenLength = StandardTokenizer.DEFAULT_MAX_TOKEN_LENGTH;
+  private int runNum;
+  private int[] runs = new int[64 * 4]; // start, end, type and first token of each run
+  private int tokenNum;
+  private int[] tokenEnds = new int[64];
+
+  /**
+   * tokens longer than this are skipped like by StandardTokenizer, their chars become gaps
+   */
+  public void setMaxTokenLength(int length) {
+    this.maxTokenLength = length;
+  }
+
+  public int getMaxTokenLength() {
+    return maxTokenLength;
+  }
+
+  /**
+   * @return number of runs of s
+   */
+  public int scan(String s) {
+    runNum = 0;
+    tokenNum = 0;
+    int n = s.length();
+    int lastIdeographEnd = -1; // end of the ideograph run that can still grow
+    int pos = 0;
+    while (pos < n) {
+      int type = SINGLE_TYPES[CMAP[s.charAt(pos)]];
+      int end = pos + 1;
+      if (type == NOT_SINGLE) {
+        // longest match of the DFA, like StandardTokenizerImpl.getNextToken
+        int state = 0;
+        int accepted = -1;
+        for (int i = pos; i < n;) {
+          state = TRANS[ROWMAP[state] + CMAP[s.charAt(i++)]];
+          if (state < 0) {
+            break;
+          }
+          int attributes = ATTRIBUTE[state];
+          if ((attributes & 1) == 1) {
+            accepted = state;
+            end = i;
+            if ((attributes & 8) == 8) {
+              break;
+            }
+          }
+        }
+        // the scanner matches any single char
+        type = accepted < 0 ? GAP : STATE_TYPES[accepted];
+      }
+      if (type == GAP || end - pos > maxTokenLength) {
+        for (int i = pos; i < end; i++) {
+          this.addRun(i, i + 1, GAP);
+        }
+        lastIdeographEnd = -1;
+      } else if (type == StandardTokenizerImpl.IDEOGRAPHIC_TYPE) {
+        if (lastIdeographEnd == pos) {
+          runs[(runNum - 1) * 4 + 1] = end;
+          this.addToken(end);
+        } else {
+          this.addRun(pos, end, type);
+        }
+        lastIdeographEnd = end;
+      } else {
+        this.addRun(pos, end, type);
+        lastIdeographEnd = -1;
+      }
+      pos = end;
+    }
+    return runNum;
+  }
+
+  private void addRun(int start, int end, int type) {
+    if (runs.length < (runNum + 1) * 4) {
+      int[] newRuns = new int[runs.length * 2];
+      System.arraycopy(runs, 0, newRuns, 0, runNum * 4);
+      runs = newRuns;
+    }
+    int i = runNum * 4;
+    runs[i] = start;
+    runs[i + 1] = end;
+    runs[i + 2] = type;
+    runs[i + 3] = tokenNum;
+    runNum++;
+    this.addToken(end);
+  }
+
+  private void addToken(int end) {
+    if (tokenEnds.length == tokenNum) {
+      int[] newTokenEnds = new int[tokenNum * 2];
+      System.arraycopy(tokenEnds, 0, newTokenEnds, 0, tokenNum);
+      tokenEnds = newTokenEnds;
+    }
+    tokenEnds[tokenNum++] = end;
+  }
+
+  public int getRunNum() {
+    return runNum;
+  }
+
+  public int getStart(int run) {
+    return runs[run * 4];
+  }
+
+  public int getEnd(int run) {
+    return runs[run * 4 + 1];
+  }
+
+  /**
+   * @return one of the types of {@link StandardTokenizer}, like {@link StandardTokenizer#IDEOGRAPHIC},
+   *         or {@link #GAP}
+   */
+  public int getType(int run) {
+    return runs[run * 4 + 2];
+  }
+
+  /**
+   * @return the tokens of StandardTokenizer in the run are getFirstToken(run) to
+   *         getFirstToken(run + 1), more than one only for ideographs; getFirstToken(getRunNum())
+   *         is the number of all tokens
+   */
+  public int getFirstToken(int run) {
+    return run == runNum ? tokenNum : runs[run * 4 + 3];
+  }
+
+  public int getTokenStart(int token) {
+    return token == 0 ? 0 : tokenEnds[token - 1];
+  }
+
+  public int getTokenEnd(int token) {
+    return tokenEnds[token];
+  }
+}
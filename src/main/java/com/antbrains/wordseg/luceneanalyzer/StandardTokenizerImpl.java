@@ -191,12 +191,12 @@ public final class StandardTokenizerImpl implements StandardTokenizerInterface {
   /**
    * Translates characters to character classes
    */
-  private static final char[] ZZ_CMAP = zzUnpackCMap(ZZ_CMAP_PACKED);
+  static final char[] ZZ_CMAP = zzUnpackCMap(ZZ_CMAP_PACKED);
 
   /**
    * Translates DFA states to action switch labels.
    */
-  private static final int[] ZZ_ACTION = zzUnpackAction();
+  static final int[] ZZ_ACTION = zzUnpackAction();
 
   private static final String ZZ_ACTION_PACKED_0 = "\1\0\23\1\1\2\1\3\1\4\1\1\1\5\1\6"
       + "\1\7\1\10\15\0\1\2\1\0\1\2\10\0\1\3" + "\15\0\1\2\57\0";
@@ -225,7 +225,7 @@ public final class StandardTokenizerImpl implements StandardTokenizerInterface {
   /**
    * Translates a state to a row index in the transition table
    */
-  private static final int[] ZZ_ROWMAP = zzUnpackRowMap();
+  static final int[] ZZ_ROWMAP = zzUnpackRowMap();
 
   private static final String ZZ_ROWMAP_PACKED_0 = "\0\0\0\147\0\316\0\u0135\0\u019c\0\u0203\0\u026a\0\u02d1"
       + "\0\u0338\0\u039f\0\u0406\0\u046d\0\u04d4\0\u053b\0\u05a2\0\u0609"
@@ -263,7 +263,7 @@ public final class StandardTokenizerImpl implements StandardTokenizerInterface {
   /**
    * The transition table of the DFA
    */
-  private static final int[] ZZ_TRANS = zzUnpackTrans();
+  static final int[] ZZ_TRANS = zzUnpackTrans();
 
   private static final String ZZ_TRANS_PACKED_0 = "\1\2\1\3\1\2\1\4\1\2\1\5\1\2\1\6"
       + "\1\2\1\7\1\2\1\10\3\2\1\11\5\2\1\12" + "\3\2\1\13\11\2\1\14\2\2\1\15\43\2\1\16"
@@ -455,7 +455,7 @@ public final class StandardTokenizerImpl implements StandardTokenizerInterface {
   /**
    * ZZ_ATTRIBUTE[aState] contains the attributes of state <code>aState</code>
    */
-  private static final int[] ZZ_ATTRIBUTE = zzUnpackAttribute();
+  static final int[] ZZ_ATTRIBUTE = zzUnpackAttribute();
 
   private static final String ZZ_ATTRIBUTE_PACKED_0 = "\1\0\1\11\27\1\2\11\1\1\15\0\1\1\1\0"
       + "\1\1\10\0\1\1\15\0\1\1\57\0";
@@ -0,0 +1,149 @@
+package com.antbrains;
+
+import gnu.trove.iterator.TObjectIntIterator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import com.antbrains.crf.DATrieFeatureDict;
+import com.antbrains.crf.FeatureDict;
+import com.antbrains.crf.SgdCrf;
+import com.antbrains.crf.StaticTrieFeatureDict;
+import com.antbrains.crf.hadoop.FileTools;
+import com.antbrains.wordseg.MMSeg;
+import com.antbrains.wordseg.RMMSeg;
+import com.antbrains.wordseg.Token;
+
+/**
+ * compares building tries by inserting keys one by one with the one pass build from sorted keys,
+ * for the features of a model and for a segmentation dictionary. The times are the fastest of a
+ * few rounds, so both are compiled by the jit.
+ */
+public class TestBulkTrie {
+
+  private static String toString(List<Token> tokens) {
+    StringBuilder sb = new StringBuilder();
+    for (Token token : tokens) {
+      sb.append(token.getOrigText()).append(" ");
+    }
+    return sb.toString();
+  }
+
+  // the inserting trie doesn't expose its arrays, so the length of its longest int[] is read by
+  // reflection, -1 if it has none
+  private static int arrayLength(DATrieFeatureDict dict) throws Exception {
+    Field datrie = DATrieFeatureDict.class.getDeclaredField("datrie");
+    datrie.setAccessible(true);
+    Object trie = datrie.get(dict);
+    int length = -1;
+    for (Field field : trie.getClass().getDeclaredFields()) {
+      if (field.getType() == int[].class && !Modifier.isStatic(field.getModifiers())) {
+        field.setAccessible(true);
+        int[] array = (int[]) field.get(trie);
+        if (array != null) {
+          length = Math.max(length, array.length);
+        }
+      }
+    }
+    return length;
+  }
+
+  private static byte[] serialize(Serializable object) throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(baos);
+    oos.writeObject(object);
+    oos.close();
+    return baos.toByteArray();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      System.out.println("Usage TestBulkTrie <model_file> <dict_file> <sentence_file>");
+      System.exit(-1);
+    }
+    FeatureDict features = SgdCrf.loadModel(args[0]).weights.getAttributeDict();
+    System.out.println(features.size() + " features");
+
+    DATrieFeatureDict incremental = null;
+    StaticTrieFeatureDict bulk = null;
+    long insertTime = Long.MAX_VALUE;
+    long bulkTime = Long.MAX_VALUE;
+    for (int round = 0; round < 5; round++) {
+      long start = System.currentTimeMillis();
+      incremental = new DATrieFeatureDict();
+      TObjectIntIterator<String> iter = features.iterator();
+      while (iter.hasNext()) {
+        iter.advance();
+        incremental.get(iter.key(), true);
+      }
+      insertTime = Math.min(insertTime, System.currentTimeMillis() - start);
+      start = System.currentTimeMillis();
+      bulk = DATrieFeatureDict.build(features);
+      bulkTime = Math.min(bulkTime, System.currentTimeMillis() - start);
+    }
+    byte[] incrementalBytes = serialize(incremental);
+    byte[] bulkBytes = serialize(bulk);
+    System.out.println("insert: " + insertTime + "ms, array size " + arrayLength(incremental)
+        + ", serialized " + incrementalBytes.length + " bytes");
+    System.out.println("bulk: " + bulkTime + "ms, array size " + bulk.getTrie().getArraySize()
+        + ", serialized " + bulkBytes.length + " bytes");
+
+    StaticTrieFeatureDict copy = (StaticTrieFeatureDict) new ObjectInputStream(
+        new ByteArrayInputStream(bulkBytes)).readObject();
+
+    int wrong = 0;
+    TObjectIntIterator<String> iter = features.iterator();
+    while (iter.hasNext()) {
+      iter.advance();
+      if (bulk.get(iter.key(), false) != iter.value()
+          || copy.get(iter.key(), false) != iter.value()) {
+        wrong++;
+      }
+    }
+    int iterated = 0;
+    iter = bulk.iterator();
+    while (iter.hasNext()) {
+      iter.advance();
+      iterated++;
+      if (features.get(iter.key(), false) != iter.value()) {
+        wrong++;
+      }
+    }
+    System.out.println("iterated: " + iterated + ", wrong: " + wrong);
+
+    List<String> words = FileTools.readFile2List(args[1], "UTF8");
+    MMSeg mmseg = null;
+    RMMSeg rmmseg = null;
+    MMSeg bulkMmseg = null;
+    RMMSeg bulkRmmseg = null;
+    insertTime = Long.MAX_VALUE;
+    bulkTime = Long.MAX_VALUE;
+    // the dictionary is small, so it takes more rounds until both are compiled
+    for (int round = 0; round < 50; round++) {
+      long start = System.currentTimeMillis();
+      mmseg = new MMSeg(words);
+      rmmseg = new RMMSeg(words);
+      insertTime = Math.min(insertTime, System.currentTimeMillis() - start);
+      start = System.currentTimeMillis();
+      bulkMmseg = MMSeg.build(words);
+      bulkRmmseg = RMMSeg.build(words);
+      bulkTime = Math.min(bulkTime, System.currentTimeMillis() - start);
+    }
+    System.out.println("dict insert: " + insertTime + "ms, bulk: " + bulkTime + "ms");
+    int wrongSeg = 0;
+    List<String> sentences = FileTools.readFile2List(args[2], "UTF8");
+    for (String sen : sentences) {
+      if (!toString(mmseg.seg(sen)).equals(toString(bulkMmseg.seg(sen)))
+          || !toString(rmmseg.seg(sen)).equals(toString(bulkRmmseg.seg(sen)))) {
+        wrongSeg++;
+      }
+    }
+    System.out.println("sentences: " + sentences.size() + ", wrong: " + wrongSeg);
+  }
+}
@@ -0,0 +1,94 @@
+package com.antbrains;
+
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+
+import com.antbrains.crf.hadoop.FileTools;
+import com.antbrains.wordseg.ChineseSegmenter;
+import com.antbrains.wordseg.ChineseTokenizer;
+import com.antbrains.wordseg.SegBatchResult;
+import com.antbrains.wordseg.Token;
+import com.antbrains.wordseg.luceneanalyzer.CharTermAttribute;
+import com.antbrains.wordseg.luceneanalyzer.OffsetAttribute;
+import com.antbrains.wordseg.luceneanalyzer.TypeAttribute;
+
+/**
+ * tokenizes each sentence with one reused {@link ChineseTokenizer}, the words and offsets must be
+ * the ones of segBatch without punctuation; then compares the bytes allocated per sentence with
+ * seg
+ */
+public class TestChineseTokenizer {
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.out.println("Usage TestChineseTokenizer <sentence_file>");
+      System.exit(-1);
+    }
+    List<String> sentences = FileTools.readFile2List(args[0], "UTF8");
+    ChineseSegmenter segmenter = ChineseSegmenter.getInstance();
+    ChineseTokenizer tokenizer = new ChineseTokenizer(segmenter, new StringReader(""));
+    CharTermAttribute termAtt = tokenizer.addAttribute(CharTermAttribute.class);
+    OffsetAttribute offsetAtt = tokenizer.addAttribute(OffsetAttribute.class);
+    TypeAttribute typeAtt = tokenizer.addAttribute(TypeAttribute.class);
+
+    int tokenNum = 0;
+    int wrong = 0;
+    for (String sen : sentences) {
+      SegBatchResult expected = segmenter.segBatch(Collections.singletonList(sen));
+      tokenizer.reset(new StringReader(sen));
+      tokenizer.reset();
+      for (int token = 0; token < expected.getTokenNum(); token++) {
+        Token.Type type = expected.getType(token);
+        if (type == Token.Type.PUNCT) {
+          continue;
+        }
+        tokenNum++;
+        String expectedType = type == null ? ChineseTokenizer.WORD_TYPE : "<" + type.name() + ">";
+        if (!tokenizer.incrementToken() || offsetAtt.startOffset() != expected.getStart(token)
+            || offsetAtt.endOffset() != expected.getEnd(token)
+            || !termAtt.toString().equals(sen.substring(expected.getStart(token),
+                expected.getEnd(token))) || !typeAtt.type().equals(expectedType)) {
+          wrong++;
+        }
+      }
+      if (tokenizer.incrementToken()) {
+        wrong++;
+      }
+      tokenizer.end();
+      if (offsetAtt.endOffset() != sen.length()) {
+        wrong++;
+      }
+    }
+    System.out.println("tokens: " + tokenNum + ", wrong: " + wrong);
+
+    for (int round = 0; round < 3; round++) {
+      long bytes = allocatedBytes();
+      long start = System.currentTimeMillis();
+      for (String sen : sentences) {
+        segmenter.seg(sen);
+      }
+      System.out.println(String.format("seg: %dms, %d bytes per sentence",
+          System.currentTimeMillis() - start, (allocatedBytes() - bytes) / sentences.size()));
+
+      bytes = allocatedBytes();
+      start = System.currentTimeMillis();
+      for (String sen : sentences) {
+        tokenizer.reset(new StringReader(sen));
+        tokenizer.reset();
+        while (tokenizer.incrementToken()) {
+        }
+        tokenizer.end();
+      }
+      System.out.println(String.format("tokenizer: %dms, %d bytes per sentence",
+          System.currentTimeMillis() - start, (allocatedBytes() - bytes) / sentences.size()));
+    }
+    tokenizer.close();
+  }
+}
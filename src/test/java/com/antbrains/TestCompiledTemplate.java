@@ -0,0 +1,75 @@
+package com.antbrains;
+
+import java.util.List;
+
+import com.antbrains.crf.BESB1B2MTagConvertor;
+import com.antbrains.crf.CompiledTemplate;
+import com.antbrains.crf.CrfDecoder;
+import com.antbrains.crf.CrfModel;
+import com.antbrains.crf.FeatureIndex;
+import com.antbrains.crf.Instance;
+import com.antbrains.crf.SgdCrf;
+import com.antbrains.crf.TagConvertor;
+import com.antbrains.crf.hadoop.FileTools;
+
+public class TestCompiledTemplate {
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.out.println("Usage TestCompiledTemplate <model_file> <sentence_file>");
+      System.exit(-1);
+    }
+    CrfModel model = SgdCrf.loadModel(args[0]);
+    List<String> sentences = FileTools.readFile2List(args[1], "UTF8");
+    TagConvertor tc = new BESB1B2MTagConvertor();
+
+    FeatureIndex index = FeatureIndex.build(model.weights.getAttributeDict());
+    CompiledTemplate compiled = new CompiledTemplate(model.weights.getTemplate());
+    char[] buf = new char[compiled.getMaxFeatureLength()];
+    CrfDecoder stringDecoder = new CrfDecoder(model);
+    CrfModel compiledModel = SgdCrf.loadModel(args[0]);
+    SgdCrf.compileFeatureDict(compiledModel);
+    CrfDecoder compiledDecoder = new CrfDecoder(compiledModel);
+    int[] tags = new int[1024];
+    int[] stringTags = new int[1024];
+    int wrongIds = 0;
+    int wrongTags = 0;
+    long features = 0;
+    for (String sen : sentences) {
+      if (sen.length() == 0) {
+        continue;
+      }
+      Instance instance = SgdCrf.buildInstance(new String[] { sen }, tc,
+          model.weights.getAttributeDict(), model.weights.getLabelDict(),
+          model.weights.getTemplate(), false, false);
+      int[] attrIds = instance.getAttrIds();
+      char[] text = sen.toCharArray();
+      for (int itemIndex = 0, attrIndex = 0; itemIndex < text.length; itemIndex++) {
+        for (int patternIndex = 0; patternIndex < compiled.size(); patternIndex++) {
+          int len = compiled.expand(patternIndex, itemIndex, text, 0, text.length, buf);
+          if (index.get(buf, len) != attrIds[attrIndex]) {
+            System.out.println("id not equal: " + new String(buf, 0, len));
+            wrongIds++;
+          }
+          attrIndex++;
+          features++;
+        }
+      }
+      if (tags.length < sen.length()) {
+        tags = new int[sen.length()];
+        stringTags = new int[sen.length()];
+      }
+      stringDecoder.decode(sen, 0, sen.length(), stringTags);
+      compiledDecoder.decode(sen, 0, sen.length(), tags);
+      for (int i = 0; i < sen.length(); i++) {
+        if (tags[i] != stringTags[i]) {
+          wrongTags++;
+          System.out.println("tags not equal: " + sen);
+          break;
+        }
+      }
+    }
+    System.out.println("features: " + features + ", wrong ids: " + wrongIds + ", wrong tags: "
+        + wrongTags);
+  }
+}
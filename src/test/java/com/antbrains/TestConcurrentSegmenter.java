@@ -0,0 +1,63 @@
+package com.antbrains;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.antbrains.crf.hadoop.FileTools;
+import com.antbrains.wordseg.ChineseSegmenter;
+import com.antbrains.wordseg.Token;
+
+public class TestConcurrentSegmenter {
+
+  private static String toString(List<Token> tokens) {
+    StringBuilder sb = new StringBuilder();
+    for (Token token : tokens) {
+      sb.append(token.getOrigText()).append(" ");
+    }
+    return sb.toString();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.out.println("Usage TestConcurrentSegmenter <sentence_file> <thread_num>");
+      System.exit(-1);
+    }
+    final List<String> sentences = FileTools.readFile2List(args[0], "UTF8");
+    int threadNum = Integer.parseInt(args[1]);
+    final ChineseSegmenter segmenter = ChineseSegmenter.getInstance();
+    final List<String> expected = new ArrayList<String>(sentences.size());
+    for (String sen : sentences) {
+      expected.add(toString(segmenter.seg(sen)));
+    }
+
+    final AtomicInteger wrong = new AtomicInteger();
+    List<Thread> threads = new ArrayList<Thread>();
+    long start = System.currentTimeMillis();
+    for (int t = 0; t < threadNum; t++) {
+      final int offset = t;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < sentences.size(); i++) {
+              int index = (i + offset * 97) % sentences.size();
+              String actual = TestConcurrentSegmenter.toString(segmenter.seg(sentences.get(index)));
+              if (!actual.equals(expected.get(index))) {
+                wrong.incrementAndGet();
+                System.out.println("not equal: " + sentences.get(index));
+              }
+            }
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    System.out.println("threads: " + threadNum + ", time: " + (System.currentTimeMillis() - start)
+        + "ms, wrong: " + wrong.get());
+  }
+}
@@ -0,0 +1,105 @@
+package com.antbrains;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.antbrains.crf.hadoop.FileTools;
+import com.antbrains.wordseg.ChineseSegmenter;
+import com.antbrains.wordseg.DictionaryUpdate;
+import com.antbrains.wordseg.Token;
+
+/**
+ * segments with several threads while the main thread adds and removes a word, every result must
+ * be the one of the dictionary without or with the word
+ */
+public class TestDictionaryUpdate {
+
+  private static String toString(List<Token> tokens) {
+    StringBuilder sb = new StringBuilder();
+    for (Token token : tokens) {
+      sb.append(token.getOrigText()).append(" ");
+    }
+    return sb.toString();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      System.out.println("Usage TestDictionaryUpdate <sentence_file> <new_word> <thread_num>");
+      System.exit(-1);
+    }
+    final List<String> sentences = FileTools.readFile2List(args[0], "UTF8");
+    final List<String> newWords = Arrays.asList(args[1]);
+    int threadNum = Integer.parseInt(args[2]);
+    InputStream is = TestDictionaryUpdate.class.getResourceAsStream("/segdict.txt");
+    List<String> words = FileTools.read2List(is, "UTF8");
+    is.close();
+    // untrimmed and 1 char entries, the constructor and the updates must drop them alike
+    for (int i = 0; i < words.size(); i += 50) {
+      words.set(i, " " + words.get(i) + "\t");
+    }
+    words.add("的");
+    final ChineseSegmenter segmenter = new ChineseSegmenter(ChineseSegmenter.getInstance()
+        .getModel(), words);
+    List<String> newDict = new ArrayList<String>(words);
+    newDict.addAll(newWords);
+    ChineseSegmenter newSegmenter = new ChineseSegmenter(segmenter.getModel(), newDict);
+
+    final List<String> expected = new ArrayList<String>(sentences.size());
+    final List<String> newExpected = new ArrayList<String>(sentences.size());
+    int changed = 0;
+    for (String sen : sentences) {
+      expected.add(toString(segmenter.seg(sen)));
+      newExpected.add(toString(newSegmenter.seg(sen)));
+      if (!expected.get(expected.size() - 1).equals(newExpected.get(newExpected.size() - 1))) {
+        changed++;
+      }
+    }
+    System.out.println(changed + " sentences segmented differently with " + args[1]);
+
+    final AtomicInteger wrong = new AtomicInteger();
+    final AtomicInteger segNum = new AtomicInteger();
+    final boolean[] stop = new boolean[1];
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < threadNum; t++) {
+      final int offset = t;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          int i = offset * 97;
+          while (!stop[0]) {
+            int index = i++ % sentences.size();
+            String actual = TestDictionaryUpdate.toString(segmenter.seg(sentences.get(index)));
+            if (!actual.equals(expected.get(index)) && !actual.equals(newExpected.get(index))) {
+              wrong.incrementAndGet();
+              System.out.println("not equal: " + sentences.get(index));
+            }
+            segNum.incrementAndGet();
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (int round = 0; round < 5; round++) {
+      DictionaryUpdate update = segmenter.addWords(newWords).get();
+      System.out.println("add: " + update);
+      update = segmenter.removeWords(newWords).get();
+      System.out.println("remove: " + update);
+    }
+    stop[0] = true;
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (int i = 0; i < sentences.size(); i++) {
+      if (!toString(segmenter.seg(sentences.get(i))).equals(expected.get(i))) {
+        wrong.incrementAndGet();
+        System.out.println("not restored: " + sentences.get(i));
+      }
+    }
+    System.out.println("segmented " + segNum.get() + " sentences during the updates, wrong: "
+        + wrong.get());
+  }
+}
@@ -0,0 +1,81 @@
+package com.antbrains;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.antbrains.crf.hadoop.FileTools;
+import com.antbrains.wordseg.ChineseSegmenter;
+import com.antbrains.wordseg.DisambiguationCache;
+import com.antbrains.wordseg.Token;
+
+/**
+ * segments the first half of the sentences to fill a {@link DisambiguationCache}, then the other
+ * half with and without it: the results must be equal, and the hit rate shows how often the
+ * ambiguities of new sentences were seen before. A segmenter with another model must not take the
+ * cache.
+ */
+public class TestDisambiguationCache {
+
+  private static String toString(List<Token> tokens) {
+    StringBuilder sb = new StringBuilder();
+    for (Token token : tokens) {
+      sb.append(token.getOrigText()).append(" ");
+    }
+    return sb.toString();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.out.println("Usage TestDisambiguationCache <sentence_file> <max_entries>");
+      System.exit(-1);
+    }
+    List<String> sentences = FileTools.readFile2List(args[0], "UTF8");
+    ChineseSegmenter segmenter = ChineseSegmenter.getInstance();
+    List<String> train = sentences.subList(0, sentences.size() / 2);
+    List<String> test = sentences.subList(sentences.size() / 2, sentences.size());
+
+    List<String> expected = new ArrayList<String>(test.size());
+    for (String sen : test) {
+      expected.add(toString(segmenter.seg(sen)));
+    }
+
+    for (int round = 0; round < 3; round++) {
+      segmenter.setDisambiguationCache(null);
+      long start = System.currentTimeMillis();
+      for (String sen : test) {
+        segmenter.seg(sen);
+      }
+      System.out.println("no cache: " + (System.currentTimeMillis() - start) + "ms");
+
+      DisambiguationCache cache = new DisambiguationCache(Integer.parseInt(args[1]));
+      segmenter.setDisambiguationCache(cache);
+      for (String sen : train) {
+        segmenter.seg(sen);
+      }
+      System.out.println("filled: " + cache);
+      long hits = cache.getHitCount();
+      long misses = cache.getMissCount();
+      int wrong = 0;
+      start = System.currentTimeMillis();
+      for (int i = 0; i < test.size(); i++) {
+        if (!toString(segmenter.seg(test.get(i))).equals(expected.get(i))) {
+          wrong++;
+        }
+      }
+      long time = System.currentTimeMillis() - start;
+      hits = cache.getHitCount() - hits;
+      misses = cache.getMissCount() - misses;
+      System.out.println(String.format("cache: %dms, new sentences hit %.1f%% of %d, wrong %d",
+          time, 100.0 * hits / Math.max(1, hits + misses), hits + misses, wrong));
+    }
+
+    // a second load gives another model, even from the same file
+    ChineseSegmenter other = ChineseSegmenter.loadDefault();
+    try {
+      other.setDisambiguationCache(segmenter.getDisambiguationCache());
+      System.out.println("cache of another model accepted");
+    } catch (IllegalArgumentException e) {
+      System.out.println("cache of another model rejected");
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package com.antbrains;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.antbrains.crf.hadoop.FileTools;
+import com.antbrains.wordseg.ChineseSegmenter;
+import com.antbrains.wordseg.LatticeSegmenter;
+import com.antbrains.wordseg.Token;
+
+/**
+ * compares the word precision, recall and speed of {@link LatticeSegmenter} and
+ * {@link ChineseSegmenter} on a test file in crf++ format
+ */
+public class TestLatticeSegmenter {
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.out.println("Usage TestLatticeSegmenter <test_file>");
+      System.exit(-1);
+    }
+    List<String> sentences = new ArrayList<String>();
+    List<Set<Long>> golds = new ArrayList<Set<Long>>();
+    readTestFile(args[0], sentences, golds);
+
+    ChineseSegmenter segmenter = ChineseSegmenter.getInstance();
+    InputStream is = TestLatticeSegmenter.class.getResourceAsStream("/segdict.txt");
+    List<String> words = FileTools.read2List(is, "UTF8");
+    is.close();
+    LatticeSegmenter lattice = new LatticeSegmenter(segmenter.getModel(), words);
+
+    System.out.println(sentences.size() + " sentences");
+    for (int round = 0; round < 3; round++) {
+      evaluate("seg", segmenter, null, sentences, golds);
+      evaluate("lattice", null, lattice, sentences, golds);
+    }
+  }
+
+  private static void evaluate(String name, ChineseSegmenter segmenter, LatticeSegmenter lattice,
+      List<String> sentences, List<Set<Long>> golds) {
+    List<List<Token>> results = new ArrayList<List<Token>>(sentences.size());
+    long start = System.nanoTime();
+    for (String sen : sentences) {
+      results.add(segmenter != null ? segmenter.seg(sen) : lattice.seg(sen));
+    }
+    long time = System.nanoTime() - start;
+
+    long goldNum = 0;
+    long predictNum = 0;
+    long correct = 0;
+    for (int i = 0; i < sentences.size(); i++) {
+      String sen = sentences.get(i);
+      Set<Long> gold = golds.get(i);
+      goldNum += gold.size();
+      int pos = 0;
+      for (Token token : results.get(i)) {
+        String text = token.getOrigText();
+        int begin = sen.indexOf(text, pos);
+        predictNum++;
+        if (begin < 0) {
+          continue;
+        }
+        pos = begin + text.length();
+        if (gold.contains(span(begin, pos))) {
+          correct++;
+        }
+      }
+    }
+    double p = 1.0 * correct / predictNum;
+    double r = 1.0 * correct / goldNum;
+    System.out.println(String.format("%-8s p=%.4f r=%.4f f=%.4f time=%dms", name, p, r, 2 * p * r
+        / (p + r), time / 1000000));
+  }
+
+  private static long span(int begin, int end) {
+    return ((long) begin << 32) | end;
+  }
+
+  private static void readTestFile(String path, List<String> sentences, List<Set<Long>> golds)
+      throws Exception {
+    StringBuilder sb = new StringBuilder();
+    Set<Long> gold = new HashSet<Long>();
+    int wordBegin = 0;
+    List<String> lines = FileTools.readFile2List(path, "UTF8");
+    lines.add("");
+    for (String line : lines) {
+      line = line.trim();
+      if (line.isEmpty()) {
+        if (sb.length() > 0) {
+          sentences.add(sb.toString());
+          golds.add(gold);
+          sb.setLength(0);
+          gold = new HashSet<Long>();
+        }
+        wordBegin = 0;
+        continue;
+      }
+      String[] arr = line.split("\t");
+      String tag = arr[arr.length - 1];
+      if (tag.equals("B") || tag.equals("S")) {
+        wordBegin = sb.length();
+      }
+      sb.append(arr[0]);
+      if (tag.equals("E") || tag.equals("S")) {
+        gold.add(span(wordBegin, sb.length()));
+      }
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package com.antbrains;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.antbrains.crf.BESB1B2MTagConvertor;
+import com.antbrains.crf.CrfDecoder;
+import com.antbrains.crf.CrfModel;
+import com.antbrains.crf.Explanation;
+import com.antbrains.crf.Instance;
+import com.antbrains.crf.MappedCrfModel;
+import com.antbrains.crf.SgdCrf;
+import com.antbrains.crf.TagConvertor;
+import com.antbrains.crf.WeightEncodingEnum;
+import com.antbrains.crf.hadoop.FileTools;
+
+public class TestMappedCrfModel {
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      System.out.println("Usage TestMappedCrfModel <model_file> <mapped_model_file> <sentence_file>");
+      System.exit(-1);
+    }
+    long start = System.currentTimeMillis();
+    CrfModel model = SgdCrf.loadModel(args[0]);
+    System.out.println("load: " + (System.currentTimeMillis() - start) + "ms");
+    MappedCrfModel.write(model, args[1]);
+    start = System.currentTimeMillis();
+    CrfModel mapped = MappedCrfModel.load(args[1]);
+    System.out.println("map: " + (System.currentTimeMillis() - start) + "ms");
+
+    List<String> sentences = FileTools.readFile2List(args[2], "UTF8");
+    TagConvertor tc = new BESB1B2MTagConvertor();
+    CrfDecoder decoder = new CrfDecoder(mapped);
+    // explain must work without the double[] of the attribute weights, also on quantized ones
+    CrfModel quantized = SgdCrf.loadModel(args[0]);
+    SgdCrf.convertAttributeWeights(quantized, WeightEncodingEnum.BYTE);
+    int[] tags = new int[1024];
+    int wrongTags = 0;
+    int wrongScores = 0;
+    int wrongExplains = 0;
+    for (String sen : sentences) {
+      if (sen.length() == 0) {
+        continue;
+      }
+      Instance instance = SgdCrf.buildInstance(new String[] { sen }, tc,
+          model.weights.getAttributeDict(), model.weights.getLabelDict(),
+          model.weights.getTemplate(), false, false);
+      int[] expected = SgdCrf.tagId(instance, model.weights);
+      Instance mappedInstance = SgdCrf.buildInstance(new String[] { sen }, tc,
+          mapped.weights.getAttributeDict(), mapped.weights.getLabelDict(),
+          mapped.weights.getTemplate(), false, false);
+      int[] actual = SgdCrf.tagId(mappedInstance, mapped.weights);
+      if (tags.length < sen.length()) {
+        tags = new int[sen.length()];
+      }
+      decoder.decode(sen, 0, sen.length(), tags);
+      for (int i = 0; i < expected.length; i++) {
+        if (expected[i] != actual[i] || expected[i] != tags[i]) {
+          wrongTags++;
+          System.out.println("tags not equal: " + sen);
+          break;
+        }
+      }
+      String[] tokens = SgdCrf.segment(sen, model, tc).toArray(new String[0]);
+      if (SgdCrf.getScore(tokens, tc, model) != SgdCrf.getScore(tokens, tc, mapped)) {
+        wrongScores++;
+        System.out.println("score not equal: " + sen);
+      }
+      Instance quantizedInstance = SgdCrf.buildInstance(new String[] { sen }, tc,
+          quantized.weights.getAttributeDict(), quantized.weights.getLabelDict(),
+          quantized.weights.getTemplate(), false, false);
+      int[] quantizedTags = SgdCrf.tagId(quantizedInstance, quantized.weights);
+      Explanation explanation = SgdCrf.explain(sen, mapped);
+      Explanation quantizedExplanation = SgdCrf.explain(sen, quantized);
+      if (!Arrays.equals(expected, explanation.bestTagIds)
+          || !Arrays.equals(quantizedTags, quantizedExplanation.bestTagIds)) {
+        wrongExplains++;
+        System.out.println("explanation not equal: " + sen);
+      }
+    }
+    System.out.println("wrong tags: " + wrongTags + ", wrong scores: " + wrongScores
+        + ", wrong explanations: " + wrongExplains);
+  }
+}
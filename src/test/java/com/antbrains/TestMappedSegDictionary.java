@@ -0,0 +1,59 @@
+package com.antbrains;
+
+import java.io.InputStream;
+import java.util.List;
+
+import com.antbrains.crf.CrfModel;
+import com.antbrains.crf.hadoop.FileTools;
+import com.antbrains.wordseg.ChineseSegmenter;
+import com.antbrains.wordseg.MappedSegDictionary;
+import com.antbrains.wordseg.MMSeg;
+import com.antbrains.wordseg.RMMSeg;
+import com.antbrains.wordseg.Token;
+
+public class TestMappedSegDictionary {
+
+  private static String toString(List<Token> tokens) {
+    StringBuilder sb = new StringBuilder();
+    for (Token token : tokens) {
+      sb.append(token.getOrigText()).append(" ");
+    }
+    return sb.toString();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.out.println("Usage TestMappedSegDictionary <sentence_file> <compiled_file>");
+      System.exit(-1);
+    }
+    List<String> sentences = FileTools.readFile2List(args[0], "UTF8");
+    CrfModel model = ChineseSegmenter.loadDefault().getModel();
+
+    long start = System.currentTimeMillis();
+    InputStream is = TestMappedSegDictionary.class.getResourceAsStream("/segdict.txt");
+    List<String> words = FileTools.read2List(is, "UTF8");
+    is.close();
+    ChineseSegmenter segmenter = new ChineseSegmenter(model, new MMSeg(words), new RMMSeg(words));
+    System.out.println("insert: " + (System.currentTimeMillis() - start) + "ms");
+
+    start = System.currentTimeMillis();
+    MappedSegDictionary.write(words, args[1]);
+    System.out.println("compile: " + (System.currentTimeMillis() - start) + "ms");
+
+    start = System.currentTimeMillis();
+    MappedSegDictionary dictionary = MappedSegDictionary.load(args[1], false);
+    ChineseSegmenter mapped = new ChineseSegmenter(model, dictionary.createMmseg(),
+        dictionary.createRmmseg());
+    System.out.println("map: " + (System.currentTimeMillis() - start) + "ms, "
+        + dictionary.getWordNum() + " words");
+
+    int wrong = 0;
+    for (String sen : sentences) {
+      if (!toString(segmenter.seg(sen)).equals(toString(mapped.seg(sen)))) {
+        wrong++;
+        System.out.println("not equal: " + sen);
+      }
+    }
+    System.out.println("sentences: " + sentences.size() + ", wrong: " + wrong);
+  }
+}
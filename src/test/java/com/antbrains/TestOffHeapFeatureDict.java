@@ -0,0 +1,168 @@
+package com.antbrains;
+
+import gnu.trove.iterator.TObjectIntIterator;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.antbrains.crf.CrfModel;
+import com.antbrains.crf.FeatureDict;
+import com.antbrains.crf.OffHeapFeatureDict;
+import com.antbrains.crf.SgdCrf;
+import com.antbrains.crf.TroveFeatureDict;
+
+import de.ruedigermoeller.serialization.FSTObjectInput;
+import de.ruedigermoeller.serialization.FSTObjectOutput;
+
+public class TestOffHeapFeatureDict {
+
+  private static long usedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  // differences between the entries of the dict and the expected map
+  private static int compare(FeatureDict dict, TObjectIntHashMap<String> expected) {
+    int diff = Math.abs(dict.size() - expected.size());
+    int num = 0;
+    TObjectIntIterator<String> iter = dict.iterator();
+    while (iter.hasNext()) {
+      iter.advance();
+      num++;
+      if (expected.get(iter.key()) != iter.value()) {
+        diff++;
+      }
+    }
+    if (num != expected.size()) {
+      diff++;
+    }
+    TObjectIntIterator<String> expectedIter = expected.iterator();
+    while (expectedIter.hasNext()) {
+      expectedIter.advance();
+      if (dict.get(expectedIter.key(), false) != expectedIter.value()) {
+        diff++;
+      }
+    }
+    return diff;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.out.println("Usage TestOffHeapFeatureDict <model_file>");
+      System.exit(-1);
+    }
+    CrfModel model = SgdCrf.loadModel(args[0]);
+    List<String> keys = new ArrayList<String>(model.weights.getAttributeDict().size() + 4);
+    TObjectIntIterator<String> modelIter = model.weights.getAttributeDict().iterator();
+    while (modelIter.hasNext()) {
+      modelIter.advance();
+      keys.add(modelIter.key());
+    }
+    model = null;
+    // supplementary chars, an unpaired surrogate and the empty key
+    keys.add("U00:𠀀");
+    keys.add("U00:\uD840x");
+    keys.add("U01:é\uDC00");
+    keys.add("");
+    System.out.println("features: " + keys.size());
+
+    long before = usedHeap();
+    long start = System.nanoTime();
+    TroveFeatureDict trove = new TroveFeatureDict(102400);
+    for (String key : keys) {
+      trove.get(new String(key), true);
+    }
+    long troveTime = (System.nanoTime() - start) / 1000000;
+    long troveBytes = usedHeap() - before;
+    before = usedHeap();
+    start = System.nanoTime();
+    OffHeapFeatureDict offHeap = new OffHeapFeatureDict(102400);
+    for (String key : keys) {
+      offHeap.get(key, true);
+    }
+    long offHeapTime = (System.nanoTime() - start) / 1000000;
+    long offHeapHeap = usedHeap() - before;
+    System.out.println("add: trove " + troveTime + "ms, off heap " + offHeapTime + "ms");
+    System.out.println(String.format("bytes per feature: trove %.1f heap, off heap %.1f heap, "
+        + "%.1f direct", troveBytes * 1.0 / keys.size(), offHeapHeap * 1.0 / keys.size(),
+        offHeap.getBytesPerFeature()));
+
+    TObjectIntHashMap<String> expected = new TObjectIntHashMap<String>(keys.size(), 0.8f, -1);
+    for (int i = 0; i < keys.size(); i++) {
+      expected.put(keys.get(i), i);
+    }
+    System.out.println("differences after adding: " + compare(offHeap, expected));
+    int unknown = 0;
+    for (String key : keys) {
+      if (offHeap.get(key + "\u0001", false) >= 0) {
+        unknown++;
+      }
+    }
+    System.out.println("unknown features found: " + unknown);
+
+    // the last of a few rounds after the jit, in random order like the features of sentences
+    List<String> shuffled = new ArrayList<String>(keys);
+    Collections.shuffle(shuffled, new Random(1));
+    long sum = 0;
+    for (int round = 0; round < 5; round++) {
+      start = System.nanoTime();
+      for (String key : shuffled) {
+        sum += trove.get(key, false);
+      }
+      troveTime = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (String key : shuffled) {
+        sum -= offHeap.get(key, false);
+      }
+      offHeapTime = System.nanoTime() - start;
+    }
+    System.out.println(String.format("lookup: trove %.1fns, off heap %.1fns%s", troveTime * 1.0
+        / keys.size(), offHeapTime * 1.0 / keys.size(), sum == 0 ? "" : ", wrong sum"));
+
+    // what shrinkAttributeDict does: remove every third feature and renumber the others
+    TObjectIntIterator<String> iter = offHeap.iterator();
+    int newId = 0;
+    while (iter.hasNext()) {
+      iter.advance();
+      int oldId = iter.value();
+      if (oldId % 3 == 0) {
+        iter.remove();
+        expected.remove(keys.get(oldId));
+      } else {
+        iter.setValue(newId);
+        expected.put(keys.get(oldId), newId);
+        newId++;
+      }
+    }
+    long memory = offHeap.getMemoryBytes();
+    offHeap.compact();
+    System.out.println(String.format("differences after shrinking: %d, direct memory %d -> %d, "
+        + "%.1f bytes per feature", compare(offHeap, expected), memory, offHeap.getMemoryBytes(),
+        offHeap.getBytesPerFeature()));
+    // removed features come back with new ids
+    for (int i = 0; i < keys.size(); i += 3) {
+      expected.put(keys.get(i), expected.size());
+      offHeap.get(keys.get(i), true);
+    }
+    System.out.println("differences after adding again: " + compare(offHeap, expected));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    FSTObjectOutput out = new FSTObjectOutput(bytes);
+    out.writeObject(offHeap);
+    out.close();
+    FSTObjectInput in = new FSTObjectInput(new ByteArrayInputStream(bytes.toByteArray()));
+    FeatureDict copy = (FeatureDict) in.readObject();
+    in.close();
+    System.out.println("serialized " + bytes.size() + " bytes, differences: "
+        + compare(copy, expected));
+  }
+}
@@ -0,0 +1,196 @@
+package com.antbrains;
+
+import gnu.trove.iterator.TObjectIntIterator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.antbrains.crf.CompactedTroveFeatureDict;
+import com.antbrains.crf.CrfDecoder;
+import com.antbrains.crf.CrfModel;
+import com.antbrains.crf.FeatureDict;
+import com.antbrains.crf.FeatureIndex;
+import com.antbrains.crf.MappedCrfModel;
+import com.antbrains.crf.PerfectHashFeatureDict;
+import com.antbrains.crf.SgdCrf;
+import com.antbrains.crf.Template;
+import com.antbrains.crf.TroveFeatureDict;
+import com.antbrains.crf.hadoop.FileTools;
+
+public class TestPerfectHashFeatureDict {
+
+  private static long usedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static long lookupNanos(FeatureDict dict, List<String[]> features, int repeat) {
+    long sum = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < repeat; i++) {
+      for (String[] sentenceFeatures : features) {
+        for (String feature : sentenceFeatures) {
+          sum += dict.get(feature, false);
+        }
+      }
+    }
+    long time = System.nanoTime() - start;
+    if (sum == 42) {
+      System.out.println();
+    }
+    return time;
+  }
+
+  private static int decode(CrfModel model, List<String> sentences, List<int[]> result) {
+    CrfDecoder decoder = new CrfDecoder(model);
+    int diff = 0;
+    for (int i = 0; i < sentences.size(); i++) {
+      String sen = sentences.get(i);
+      int[] tags = new int[sen.length()];
+      decoder.decode(sen, 0, sen.length(), tags);
+      if (result.size() <= i) {
+        result.add(tags);
+      } else {
+        int[] expected = result.get(i);
+        for (int j = 0; j < tags.length; j++) {
+          if (tags[j] != expected[j]) {
+            diff++;
+          }
+        }
+      }
+    }
+    return diff;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      System.out.println("Usage TestPerfectHashFeatureDict <model_file> <sentence_file> <repeat>");
+      System.exit(-1);
+    }
+    CrfModel model = SgdCrf.loadModel(args[0]);
+    List<String> sentences = FileTools.readFile2List(args[1], "UTF8");
+    int repeat = Integer.parseInt(args[2]);
+    FeatureDict dict = model.weights.getAttributeDict();
+    System.out.println("features: " + dict.size());
+
+    List<String> keys = new ArrayList<String>(dict.size());
+    TObjectIntIterator<String> iter = dict.iterator();
+    while (iter.hasNext()) {
+      iter.advance();
+      keys.add(iter.key());
+    }
+
+    // heap of each dict, the Strings of the trove dicts are copies so they are counted too
+    long before = usedHeap();
+    TroveFeatureDict trove = new TroveFeatureDict(102400);
+    for (String key : keys) {
+      trove.get(new String(key), true);
+    }
+    long troveBytes = usedHeap() - before;
+    before = usedHeap();
+    CompactedTroveFeatureDict compact = new CompactedTroveFeatureDict(102400);
+    for (String key : keys) {
+      compact.get(new String(key), true);
+    }
+    long compactBytes = usedHeap() - before;
+    before = usedHeap();
+    FeatureIndex index = FeatureIndex.build(dict);
+    long indexBytes = usedHeap() - before;
+    int[] bits = { 8, 16, 32 };
+    PerfectHashFeatureDict[] perfectHashes = new PerfectHashFeatureDict[bits.length];
+    long[] perfectHashBytes = new long[bits.length];
+    for (int i = 0; i < bits.length; i++) {
+      before = usedHeap();
+      long start = System.nanoTime();
+      perfectHashes[i] = PerfectHashFeatureDict.build(dict, bits[i]);
+      long buildTime = (System.nanoTime() - start) / 1000000;
+      perfectHashBytes[i] = usedHeap() - before;
+      System.out.println("built perfect hash of " + bits[i] + " bit fingerprints in " + buildTime
+          + "ms");
+    }
+    System.out.println(String.format("bytes per feature: trove %.1f, compact trove %.1f, "
+        + "feature index %.1f", troveBytes * 1.0 / keys.size(), compactBytes * 1.0 / keys.size(),
+        indexBytes * 1.0 / keys.size()));
+    for (int i = 0; i < bits.length; i++) {
+      System.out.println(String.format("bytes per feature: perfect hash %d bits %.1f", bits[i],
+          perfectHashBytes[i] * 1.0 / keys.size()));
+    }
+
+    // all features keep their ids, unknown ones are rejected up to the fingerprint collisions
+    for (int i = 0; i < bits.length; i++) {
+      int wrong = 0;
+      int falsePositives = 0;
+      char[] buf = new char[256];
+      for (String key : keys) {
+        int id = dict.get(key, false);
+        key.getChars(0, key.length(), buf, 0);
+        if (perfectHashes[i].get(key, false) != id
+            || perfectHashes[i].get(buf, key.length()) != id) {
+          wrong++;
+        }
+        if (perfectHashes[i].get(key + "\u0001", false) >= 0) {
+          falsePositives++;
+        }
+      }
+      System.out.println(String.format("%d bits: wrong ids: %d, unknown features accepted: "
+          + "%d of %d (%.5f%%)", bits[i], wrong, falsePositives, keys.size(), falsePositives
+          * 100.0 / keys.size()));
+    }
+
+    Template template = model.weights.getTemplate();
+    List<String[]> features = new ArrayList<String[]>();
+    long featureNum = 0;
+    for (String sen : sentences) {
+      List<String> attributes = new ArrayList<String>(sen.length());
+      for (int i = 0; i < sen.length(); i++) {
+        attributes.add(sen.substring(i, i + 1));
+      }
+      String[] sentenceFeatures = template.expandTemplate(attributes, attributes.size()).toArray(
+          new String[0]);
+      features.add(sentenceFeatures);
+      featureNum += sentenceFeatures.length;
+    }
+    FeatureDict[] dicts = { trove, compact, index, perfectHashes[0], perfectHashes[1],
+        perfectHashes[2] };
+    String[] names = { "trove", "compact trove", "feature index", "perfect hash 8",
+        "perfect hash 16", "perfect hash 32" };
+    for (FeatureDict d : dicts) {
+      lookupNanos(d, features, 1);
+    }
+    for (int i = 0; i < dicts.length; i++) {
+      long time = lookupNanos(dicts[i], features, repeat);
+      System.out.println(String.format("%s: %.1fns per lookup", names[i], time * 1.0
+          / (featureNum * repeat)));
+    }
+
+    List<int[]> tags = new ArrayList<int[]>();
+    decode(model, sentences, tags);
+    for (int bit : bits) {
+      CrfModel perfectHashModel = SgdCrf.loadModel(args[0]);
+      SgdCrf.compilePerfectHashFeatureDict(perfectHashModel, bit);
+      System.out.println(bit + " bits: tags different from the trove dict: "
+          + decode(perfectHashModel, sentences, tags));
+    }
+
+    CrfModel perfectHashModel = SgdCrf.loadModel(args[0]);
+    SgdCrf.compilePerfectHashFeatureDict(perfectHashModel, 32);
+    File mapped = File.createTempFile("perfect-hash", ".model");
+    File serialized = File.createTempFile("perfect-hash", ".model");
+    try {
+      MappedCrfModel.write(perfectHashModel, mapped.getPath());
+      System.out.println("mapped tags different: "
+          + decode(MappedCrfModel.load(mapped.getPath()), sentences, tags));
+      SgdCrf.saveModel(perfectHashModel.params, perfectHashModel.weights, serialized.getPath());
+      System.out.println("serialized tags different: "
+          + decode(SgdCrf.loadModel(serialized.getPath()), sentences, tags));
+    } finally {
+      mapped.delete();
+      serialized.delete();
+    }
+  }
+}
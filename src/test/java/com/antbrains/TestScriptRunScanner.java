@@ -0,0 +1,204 @@
+package com.antbrains;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.antbrains.crf.hadoop.FileTools;
+import com.antbrains.wordseg.ChineseSegmenter;
+import com.antbrains.wordseg.Token;
+import com.antbrains.wordseg.luceneanalyzer.OffsetAttribute;
+import com.antbrains.wordseg.luceneanalyzer.ScriptRunScanner;
+import com.antbrains.wordseg.luceneanalyzer.StandardTokenizer;
+import com.antbrains.wordseg.luceneanalyzer.TypeAttribute;
+import com.antbrains.wordseg.luceneanalyzer.Version;
+
+/**
+ * compares {@link ScriptRunScanner} with the JFlex StandardTokenizer on the sentences and on
+ * random mixed script text: the same tokens, and the same runs as splitting by
+ * StandardTokenizer; then times both
+ */
+public class TestScriptRunScanner {
+  private static final String[] FRAGMENTS = { "iPhone6", "3.14", "1,000", "U.S.A.", "can't",
+      "a_b", "__init__", "lili@antbrains.com", "www.google.com", "ＡＢＣ１２３", "２０１４年",
+      "コンピューター", "ひらがな", "한국어", "ภาษาไทย", "é", "中́文", "a‍b",
+      "中‍文", "😀", "𠀀", "·", "・", "'", ":", ".", ",", ";", "-", " ",
+      "\t", "\r\n", "　", "，", "。", "１，０００", "Ｕ．Ｓ", "x＿y", "‿" };
+
+  private static final StandardTokenizer tokenizer = new StandardTokenizer(Version.LUCENE_29,
+      new StringReader(""));
+  private static final OffsetAttribute offsetAtt = (OffsetAttribute) tokenizer
+      .addAttribute(OffsetAttribute.class);
+  private static final TypeAttribute typeAtt = (TypeAttribute) tokenizer
+      .addAttribute(TypeAttribute.class);
+
+  // start, end and type of each token of StandardTokenizer
+  private static List<String> jflexTokens(String s) throws Exception {
+    List<String> tokens = new ArrayList<String>();
+    tokenizer.reset(new StringReader(s));
+    while (tokenizer.incrementToken()) {
+      tokens.add(offsetAtt.startOffset() + "-" + offsetAtt.endOffset() + typeAtt.type());
+    }
+    return tokens;
+  }
+
+  private static List<String> scannerTokens(ScriptRunScanner scanner, String s) {
+    List<String> tokens = new ArrayList<String>();
+    int runNum = scanner.scan(s);
+    for (int run = 0; run < runNum; run++) {
+      if (scanner.getType(run) == ScriptRunScanner.GAP) {
+        continue;
+      }
+      for (int token = scanner.getFirstToken(run); token < scanner.getFirstToken(run + 1); token++) {
+        tokens.add(scanner.getTokenStart(token) + "-" + scanner.getTokenEnd(token)
+            + StandardTokenizer.TOKEN_TYPES[scanner.getType(run)]);
+      }
+    }
+    return tokens;
+  }
+
+  // how ChineseSegmenter split sentences by StandardTokenizer before
+  private static List<List<Token>> jflexSplit(String sen) throws Exception {
+    List<List<Token>> result = new ArrayList<List<Token>>();
+    List<Token> subSen = new ArrayList<Token>();
+    tokenizer.reset(new StringReader(sen));
+    int lastPos = 0;
+    boolean lastIsCn = false;
+    while (tokenizer.incrementToken()) {
+      int start = offsetAtt.startOffset();
+      int end = offsetAtt.endOffset();
+      if (lastPos < start) {
+        for (int i = lastPos; i < start; i++) {
+          if (subSen.size() > 0) {
+            result.add(subSen);
+          }
+          subSen = new ArrayList<Token>();
+          subSen.add(new Token(null, sen, i, i + 1, Token.Type.PUNCT));
+        }
+        lastIsCn = false;
+      }
+      lastPos = end;
+      String wordType = typeAtt.type();
+      Token token = new Token(sen, start, end);
+      if (wordType.equals("<IDEOGRAPHIC>")) {
+        token.setType(Token.Type.CWORD);
+        if (!lastIsCn) {
+          if (subSen.size() > 0) {
+            result.add(subSen);
+            subSen = new ArrayList<Token>();
+          }
+          lastIsCn = true;
+        }
+      } else {
+        lastIsCn = false;
+        if (subSen.size() > 0) {
+          result.add(subSen);
+        }
+        subSen = new ArrayList<Token>();
+        if (wordType.equals("<ALPHANUM>")) {
+          token.setType(Token.Type.ALPHA);
+        } else if (wordType.equals("<NUM>")) {
+          token.setType(Token.Type.NUMBER);
+        }
+      }
+      subSen.add(token);
+    }
+    if (subSen.size() > 0) {
+      result.add(subSen);
+    }
+    return result;
+  }
+
+  private static String toString(List<List<Token>> subSens) {
+    StringBuilder sb = new StringBuilder();
+    for (List<Token> subSen : subSens) {
+      for (Token token : subSen) {
+        sb.append(token.getBeginIndex()).append('-').append(token.getEndIndex()).append(
+            token.getType()).append(' ');
+      }
+      sb.append("| ");
+    }
+    return sb.toString();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.out.println("Usage TestScriptRunScanner <sentence_file> <random_text_num>");
+      System.exit(-1);
+    }
+    List<String> sentences = FileTools.readFile2List(args[0], "UTF8");
+    int randomNum = Integer.parseInt(args[1]);
+    // sentences with fragments of other scripts, punctuation and random chars mixed in
+    Random random = new Random(1);
+    List<String> texts = new ArrayList<String>();
+    for (int i = 0; i < randomNum; i++) {
+      String sen = sentences.get(random.nextInt(sentences.size()));
+      StringBuilder sb = new StringBuilder();
+      int pos = 0;
+      while (pos < sen.length()) {
+        int next = Math.min(sen.length(), pos + random.nextInt(8));
+        sb.append(sen, pos, next);
+        pos = next;
+        int r = random.nextInt(10);
+        if (r < 6) {
+          sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        } else if (r < 8) {
+          sb.append((char) random.nextInt(0x10000));
+        } else if (r == 8 && random.nextInt(20) == 0) {
+          for (int j = 0; j < 300; j++) {
+            sb.append('a');
+          }
+        }
+      }
+      texts.add(sb.toString());
+    }
+
+    ScriptRunScanner scanner = new ScriptRunScanner();
+    ChineseSegmenter segmenter = ChineseSegmenter.getInstance();
+    int wrongTokens = 0;
+    int wrongRuns = 0;
+    List<String> all = new ArrayList<String>(sentences);
+    all.addAll(texts);
+    for (String s : all) {
+      if (!jflexTokens(s).equals(scannerTokens(scanner, s))) {
+        if (wrongTokens++ < 5) {
+          System.out.println("tokens differ: " + s);
+        }
+      }
+      if (!toString(jflexSplit(s)).equals(toString(segmenter.processByLuceneAnalyzer(s)))) {
+        if (wrongRuns++ < 5) {
+          System.out.println("runs differ: " + s);
+        }
+      }
+    }
+    System.out.println(all.size() + " texts, tokens differ: " + wrongTokens + ", runs differ: "
+        + wrongRuns);
+
+    long chars = 0;
+    for (String s : texts) {
+      chars += s.length();
+    }
+    for (int round = 0; round < 5; round++) {
+      long start = System.nanoTime();
+      int n = 0;
+      for (String s : texts) {
+        n += jflexSplit(s).size();
+      }
+      long jflex = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (String s : texts) {
+        n += scanner.scan(s);
+      }
+      long scan = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (String s : texts) {
+        n += segmenter.processByLuceneAnalyzer(s).size();
+      }
+      long split = System.nanoTime() - start;
+      System.out.println(String.format(
+          "%d chars: jflex split %.1fms, scan %.1fms, split by scan %.1fms (%d)", chars,
+          jflex / 1e6, scan / 1e6, split / 1e6, n));
+    }
+  }
+}
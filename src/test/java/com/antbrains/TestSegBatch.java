@@ -0,0 +1,54 @@
+package com.antbrains;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.antbrains.crf.hadoop.FileTools;
+import com.antbrains.wordseg.ChineseSegmenter;
+import com.antbrains.wordseg.SegBatchResult;
+import com.antbrains.wordseg.Token;
+
+public class TestSegBatch {
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.out.println("Usage TestSegBatch <sentence_file> <batch_size>");
+      System.exit(-1);
+    }
+    List<String> sentences = FileTools.readFile2List(args[0], "UTF8");
+    int batchSize = Integer.parseInt(args[1]);
+    ChineseSegmenter segmenter = ChineseSegmenter.getInstance();
+
+    int wrong = 0;
+    long batchTime = 0;
+    long segTime = 0;
+    for (int i = 0; i < sentences.size(); i += batchSize) {
+      List<String> batch = sentences.subList(i, Math.min(i + batchSize, sentences.size()));
+      long start = System.nanoTime();
+      SegBatchResult result = segmenter.segBatch(batch);
+      batchTime += System.nanoTime() - start;
+      start = System.nanoTime();
+      List<List<Token>> expected = new ArrayList<List<Token>>();
+      for (String sen : batch) {
+        expected.add(segmenter.seg(sen));
+      }
+      segTime += System.nanoTime() - start;
+      for (int j = 0; j < batch.size(); j++) {
+        List<Token> tokens = result.getTokens(j, batch.get(j));
+        boolean equal = tokens.size() == expected.get(j).size();
+        for (int k = 0; equal && k < tokens.size(); k++) {
+          Token token = tokens.get(k);
+          Token expectedToken = expected.get(j).get(k);
+          equal = token.getOrigText().equals(expectedToken.getOrigText())
+              && token.getType() == expectedToken.getType();
+        }
+        if (!equal) {
+          wrong++;
+          System.out.println("not equal: " + batch.get(j));
+        }
+      }
+    }
+    System.out.println("seg: " + segTime / 1000000 + "ms, segBatch: " + batchTime / 1000000
+        + "ms, wrong: " + wrong);
+  }
+}
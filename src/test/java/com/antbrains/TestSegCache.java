@@ -0,0 +1,104 @@
+package com.antbrains;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.antbrains.crf.hadoop.FileTools;
+import com.antbrains.wordseg.ChineseSegmenter;
+import com.antbrains.wordseg.SegCache;
+import com.antbrains.wordseg.Token;
+
+/**
+ * segments a zipf distributed stream of the sentences with and without a {@link SegCache}, the
+ * cached results must have the same text, contexts, offsets and types
+ */
+public class TestSegCache {
+
+  private static String toString(List<Token> tokens) {
+    StringBuilder sb = new StringBuilder();
+    for (Token token : tokens) {
+      sb.append(token.getOrigText()).append('|').append(token.getContext()).append('|')
+          .append(token.getBeginIndex()).append('-').append(token.getEndIndex()).append('|')
+          .append(token.getType()).append(" ");
+    }
+    return sb.toString();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 4) {
+      System.out.println("Usage TestSegCache <sentence_file> <thread_num> <cache_kb> <query_num>");
+      System.exit(-1);
+    }
+    final List<String> sentences = FileTools.readFile2List(args[0], "UTF8");
+    int threadNum = Integer.parseInt(args[1]);
+    long cacheBytes = Long.parseLong(args[2]) * 1024;
+    int queryNum = Integer.parseInt(args[3]);
+    final ChineseSegmenter segmenter = ChineseSegmenter.getInstance();
+
+    final List<String> expected = new ArrayList<String>(sentences.size());
+    for (String sen : sentences) {
+      expected.add(toString(segmenter.seg(sen)));
+    }
+
+    // rank r is queried with a probability proportional to 1 / r
+    double[] cumulative = new double[sentences.size()];
+    double sum = 0;
+    for (int r = 0; r < cumulative.length; r++) {
+      sum += 1.0 / (r + 1);
+      cumulative[r] = sum;
+    }
+    Random random = new Random(1);
+    final int[] queries = new int[queryNum];
+    for (int i = 0; i < queryNum; i++) {
+      int r = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+      queries[i] = Math.min(r < 0 ? -r - 1 : r, cumulative.length - 1);
+    }
+
+    for (int round = 0; round < 2; round++) {
+      segmenter.setCache(null);
+      System.out.println("no cache: " + run(segmenter, sentences, expected, queries, threadNum)
+          + "ms");
+      SegCache cache = new SegCache(cacheBytes);
+      segmenter.setCache(cache);
+      System.out.println("cache: " + run(segmenter, sentences, expected, queries, threadNum)
+          + "ms, " + cache);
+    }
+  }
+
+  private static long run(final ChineseSegmenter segmenter, final List<String> sentences,
+      final List<String> expected, final int[] queries, int threadNum) throws Exception {
+    final AtomicInteger wrong = new AtomicInteger();
+    List<Thread> threads = new ArrayList<Thread>();
+    final int step = threadNum;
+    long start = System.currentTimeMillis();
+    for (int t = 0; t < threadNum; t++) {
+      final int offset = t;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          for (int i = offset; i < queries.length; i += step) {
+            int index = queries[i];
+            String actual = TestSegCache.toString(segmenter.seg(sentences.get(index)));
+            if (!actual.equals(expected.get(index))) {
+              wrong.incrementAndGet();
+              System.out.println("not equal: " + sentences.get(index));
+            }
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long time = System.currentTimeMillis() - start;
+    if (wrong.get() > 0) {
+      System.out.println("wrong: " + wrong.get());
+    }
+    return time;
+  }
+}
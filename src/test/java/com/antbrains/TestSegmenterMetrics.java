@@ -0,0 +1,89 @@
+package com.antbrains;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.antbrains.crf.hadoop.FileTools;
+import com.antbrains.wordseg.ChineseSegmenter;
+import com.antbrains.wordseg.SegmenterListener.Stage;
+import com.antbrains.wordseg.SegmenterMetrics;
+
+public class TestSegmenterMetrics {
+
+  private static long segAll(ChineseSegmenter segmenter, List<String> sentences, int repeat) {
+    long start = System.nanoTime();
+    for (int i = 0; i < repeat; i++) {
+      for (String sen : sentences) {
+        segmenter.seg(sen);
+      }
+    }
+    return (System.nanoTime() - start) / 1000000;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.out.println("Usage TestSegmenterMetrics <sentence_file> <repeat>");
+      System.exit(-1);
+    }
+    List<String> sentences = FileTools.readFile2List(args[0], "UTF8");
+    int repeat = Integer.parseInt(args[1]);
+    ChineseSegmenter segmenter = ChineseSegmenter.getInstance();
+    long charNum = 0;
+    for (String sen : sentences) {
+      charNum += sen.length();
+    }
+
+    SegmenterMetrics metrics = new SegmenterMetrics();
+    // warm up both paths
+    segAll(segmenter, sentences, 1);
+    segmenter.setListener(metrics);
+    segAll(segmenter, sentences, 1);
+    segmenter.setListener(null);
+
+    long offTime = 0;
+    long onTime = 0;
+    for (int i = 0; i < repeat; i++) {
+      offTime += segAll(segmenter, sentences, 1);
+      segmenter.setListener(metrics);
+      metrics.reset();
+      onTime += segAll(segmenter, sentences, 1);
+      segmenter.setListener(null);
+    }
+    System.out.println("without metrics: " + offTime + "ms, with metrics: " + onTime + "ms");
+
+    metrics.reset();
+    segmenter.setListener(metrics);
+    segAll(segmenter, sentences, 1);
+    segmenter.segBatch(sentences);
+    segmenter.setListener(null);
+    if (metrics.getSentenceCount() != 2 * sentences.size()
+        || metrics.getCharCount() != 2 * charNum) {
+      System.out.println("wrong counts, sentences: " + metrics.getSentenceCount() + ", chars: "
+          + metrics.getCharCount());
+    }
+    if (metrics.getCount(Stage.TOTAL) != sentences.size() + 1) {
+      System.out.println("wrong TOTAL count: " + metrics.getCount(Stage.TOTAL));
+    }
+    long lengthCount = 0;
+    for (long count : metrics.getAmbiguityLengthCounts()) {
+      lengthCount += count;
+    }
+    if (lengthCount != metrics.getAmbiguityCount()) {
+      System.out.println("wrong ambiguity lengths: " + lengthCount);
+    }
+
+    metrics.register();
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(SegmenterMetrics.DEFAULT_OBJECT_NAME);
+      System.out.println("jmx chars: " + server.getAttribute(name, "CharCount")
+          + ", crf invocations: " + server.getAttribute(name, "CrfInvocationCount"));
+    } finally {
+      metrics.unregister();
+    }
+    System.out.println(metrics);
+  }
+}
@@ -0,0 +1,131 @@
+package com.antbrains;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.antbrains.crf.hadoop.FileTools;
+import com.antbrains.wordseg.ChineseSegmenter;
+import com.antbrains.wordseg.SegBatchResult;
+import com.antbrains.wordseg.StreamSegmenter;
+import com.antbrains.wordseg.Token;
+import com.antbrains.wordseg.TokenSink;
+
+/**
+ * streams the sentence file as one document through a {@link StreamSegmenter} with a small
+ * buffer, the tokens must be the ones of segmenting the whole document at once; then streams it
+ * repeated many times, the used heap must stay flat
+ */
+public class TestStreamSegmenter {
+
+  // the document repeated, without ever holding more than one copy
+  private static class RepeatReader extends Reader {
+    private final String doc;
+    private int repeat;
+    private int pos;
+
+    RepeatReader(String doc, int repeat) {
+      this.doc = doc;
+      this.repeat = repeat;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+      if (repeat == 0) {
+        return -1;
+      }
+      int n = Math.min(len, doc.length() - pos);
+      doc.getChars(pos, pos + n, cbuf, off);
+      pos += n;
+      if (pos == doc.length()) {
+        pos = 0;
+        repeat--;
+      }
+      return n;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      System.out.println("Usage TestStreamSegmenter <sentence_file> <max_chunk_length> <repeat>");
+      System.exit(-1);
+    }
+    List<String> sentences = FileTools.readFile2List(args[0], "UTF8");
+    int maxChunkLength = Integer.parseInt(args[1]);
+    int repeat = Integer.parseInt(args[2]);
+    StringBuilder sb = new StringBuilder();
+    for (String sen : sentences) {
+      sb.append(sen).append('\n');
+    }
+    String doc = sb.toString();
+    ChineseSegmenter segmenter = ChineseSegmenter.getInstance();
+
+    SegBatchResult expected = segmenter.segBatch(Collections.singletonList(doc));
+    StreamSegmenter stream = new StreamSegmenter(segmenter, new StringReader(doc), maxChunkLength);
+    // token of the whole document starting at each offset
+    int[] tokenAt = new int[doc.length()];
+    Arrays.fill(tokenAt, -1);
+    for (int token = 0; token < expected.getTokenNum(); token++) {
+      tokenAt[expected.getStart(token)] = token;
+    }
+    int tokenNum = 0;
+    int wrong = 0;
+    while (stream.hasNext()) {
+      Token token = stream.next();
+      int expectedToken = tokenAt[(int) stream.getOffset()];
+      if (expectedToken < 0
+          || stream.getOffset() + token.getLength() != expected.getEnd(expectedToken)
+          || token.getType() != expected.getType(expectedToken)
+          || !token.getOrigText().equals(
+              doc.substring(expected.getStart(expectedToken), expected.getEnd(expectedToken)))) {
+        if (wrong++ < 10) {
+          System.out.println("not equal at " + stream.getOffset() + ": " + token.getOrigText());
+        }
+      }
+      tokenNum++;
+    }
+    stream.close();
+    System.out.println("tokens: " + tokenNum + " of " + expected.getTokenNum() + ", wrong: "
+        + wrong);
+    if (repeat == 0) {
+      return;
+    }
+
+    final long[] counts = new long[2]; // tokens, chars
+    final long[] heap = new long[] { Long.MAX_VALUE, 0 };
+    final long checkEvery = (long) doc.length() * Math.max(1, repeat / 10);
+    long start = System.currentTimeMillis();
+    new StreamSegmenter(segmenter, new RepeatReader(doc, repeat), maxChunkLength)
+        .segment(new TokenSink() {
+          private long nextCheck = checkEvery;
+
+          @Override
+          public void accept(Token token, long offset) throws IOException {
+            counts[0]++;
+            counts[1] = offset + token.getLength();
+            if (counts[1] >= nextCheck) {
+              long used = usedHeap();
+              heap[0] = Math.min(heap[0], used);
+              heap[1] = Math.max(heap[1], used);
+              nextCheck += checkEvery;
+            }
+          }
+        });
+    long time = System.currentTimeMillis() - start;
+    System.out.println(String.format("streamed %d chars, %d tokens in %dms, used heap %dKB-%dKB",
+        counts[1], counts[0], time, heap[0] / 1024, heap[1] / 1024));
+  }
+}
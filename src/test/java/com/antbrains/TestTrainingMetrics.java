@@ -0,0 +1,86 @@
+package com.antbrains;
+
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.antbrains.crf.CsvTrainingMetrics;
+import com.antbrains.crf.EpochMetrics;
+import com.antbrains.crf.FeatureDictEnum;
+import com.antbrains.crf.SgdCrf;
+import com.antbrains.crf.Template;
+import com.antbrains.crf.TrainingDataSet;
+import com.antbrains.crf.TrainingMetrics;
+import com.antbrains.crf.TrainingParams;
+import com.antbrains.crf.TrainingProgress;
+import com.antbrains.crf.TrainingWeights;
+
+public class TestTrainingMetrics {
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      System.out.println("Usage TestTrainingMetrics <train_file> <config_file> <iterations>");
+      System.exit(-1);
+    }
+    TrainingParams params = SgdCrf.loadParams(args[1]);
+    int iterationNum = Integer.parseInt(args[2]);
+    Template template = new Template(params.getTemplates().toArray(new String[0]));
+    TrainingWeights weights = new TrainingWeights(template, FeatureDictEnum.TROVE_HASHMAP);
+    TrainingDataSet dataSet = SgdCrf.readTrainingData(args[0], "UTF8", weights,
+        params.getMinFeatureFreq());
+
+    TrainingProgress silent = new TrainingProgress() {
+      @Override
+      public void startTraining() {
+      }
+
+      @Override
+      public void doIter(int iter) {
+      }
+
+      @Override
+      public void doValidate(String s) {
+      }
+
+      @Override
+      public void finishTraining() {
+      }
+    };
+    long start = System.nanoTime();
+    SgdCrf.train(dataSet, 0, iterationNum, params, weights, silent);
+    long plainTime = (System.nanoTime() - start) / 1000000;
+
+    TrainingMetrics metrics = new TrainingMetrics(null);
+    StringWriter csv = new StringWriter();
+    metrics.register();
+    try {
+      start = System.nanoTime();
+      SgdCrf.train(dataSet, 0, iterationNum, params, weights, new CsvTrainingMetrics(csv,
+          metrics));
+      long metricsTime = (System.nanoTime() - start) / 1000000;
+      System.out.println("without metrics: " + plainTime + "ms, with metrics: " + metricsTime
+          + "ms");
+
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(TrainingMetrics.DEFAULT_OBJECT_NAME);
+      System.out.println("jmx epoch: " + server.getAttribute(name, "Epoch") + ", training: "
+          + server.getAttribute(name, "Training") + ", weight norm: "
+          + server.getAttribute(name, "WeightNorm"));
+    } finally {
+      metrics.unregister();
+    }
+
+    if (metrics.getEpochs().size() != iterationNum) {
+      System.out.println("wrong epoch number: " + metrics.getEpochs().size());
+    }
+    for (EpochMetrics epoch : metrics.getEpochs()) {
+      if (epoch.getInstanceNum() != dataSet.getInstances().size()) {
+        System.out.println("wrong instance number: " + epoch);
+      }
+      System.out.println(epoch);
+    }
+    System.out.print(csv);
+  }
+}